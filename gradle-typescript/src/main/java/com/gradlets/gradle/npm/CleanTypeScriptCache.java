@@ -0,0 +1,37 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.npm;
+
+import com.gradlets.gradle.typescript.shim.cache.DescriptorCacheCleaner;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.tasks.TaskAction;
+
+/** Evicts unused npm descriptors from the machine wide cache now, instead of waiting for the daily cleanup. */
+public class CleanTypeScriptCache extends DefaultTask {
+    public static final String TASK_NAME = "cleanTypeScriptCache";
+
+    public CleanTypeScriptCache() {
+        // Depends on what other builds did with the cache
+        getOutputs().upToDateWhen(_task -> false);
+    }
+
+    @TaskAction
+    public final void clean() {
+        int evicted = DescriptorCacheCleaner.create().clean();
+        getLogger().lifecycle("Evicted {} cached npm package versions", evicted);
+    }
+}
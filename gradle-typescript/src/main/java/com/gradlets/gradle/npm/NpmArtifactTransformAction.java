@@ -18,26 +18,23 @@ package com.gradlets.gradle.npm;
 
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.google.common.base.Splitter;
-import com.google.common.collect.ImmutableSet;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardCopyOption;
-import java.nio.file.attribute.PosixFilePermission;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.zip.GZIPInputStream;
-import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
-import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
 import org.gradle.api.artifacts.transform.CacheableTransform;
 import org.gradle.api.artifacts.transform.InputArtifact;
 import org.gradle.api.artifacts.transform.TransformAction;
 import org.gradle.api.artifacts.transform.TransformOutputs;
 import org.gradle.api.artifacts.transform.TransformParameters;
 import org.gradle.api.file.FileSystemLocation;
+import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.PathSensitive;
 import org.gradle.api.tasks.PathSensitivity;
 import org.immutables.value.Value;
@@ -45,7 +42,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 @CacheableTransform
-public abstract class NpmArtifactTransformAction implements TransformAction<TransformParameters.None> {
+public abstract class NpmArtifactTransformAction implements TransformAction<NpmArtifactTransformAction.Parameters> {
     private static final Logger log = LoggerFactory.getLogger(NpmArtifactTransformAction.class);
     private static final Splitter SPLITTER = Splitter.on("/");
 
@@ -57,7 +54,17 @@ public abstract class NpmArtifactTransformAction implements TransformAction<Tran
     public final void transform(TransformOutputs outputs) {
         Path inputFile = getInputArtifact().get().getAsFile().toPath();
         Path outputDir = outputs.dir(outputDir(inputFile)).toPath();
-        extract(inputFile, outputDir);
+        if (getParameters().getModuleStoreDir().isPresent() && Files.exists(inputFile)) {
+            try {
+                Duration maxAge = Duration.ofDays(getParameters().getModuleStoreMaxAgeDays().getOrElse(0L));
+                new NpmModuleStore(Paths.get(getParameters().getModuleStoreDir().get()), maxAge)
+                        .extract(inputFile, outputDir);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        } else {
+            extract(inputFile, outputDir);
+        }
     }
 
     public static void extract(Path sourceFile, Path destDirectory) {
@@ -66,35 +73,8 @@ public abstract class NpmArtifactTransformAction implements TransformAction<Tran
             return;
         }
 
-        try (TarArchiveInputStream tgzInputStream =
-                new TarArchiveInputStream(new GZIPInputStream(Files.newInputStream(sourceFile)))) {
-            Files.createDirectories(destDirectory);
-
-            TarArchiveEntry entry;
-            while ((entry = (TarArchiveEntry) tgzInputStream.getNextEntry()) != null) {
-                Path destPath = destDirectory.resolve(trimPackage(entry.getName()));
-                Files.createDirectories(destPath.getParent());
-
-                if (entry.isDirectory()) {
-                    Files.createDirectories(destPath);
-                } else if (entry.isSymbolicLink()) {
-                    Files.createSymbolicLink(destPath, Paths.get(entry.getLinkName()));
-                } else if (entry.isLink()) {
-                    Path target = destDirectory.resolve(entry.getLinkName());
-                    Files.createLink(destPath, target);
-                } else {
-                    Files.copy(tgzInputStream, destPath, StandardCopyOption.REPLACE_EXISTING);
-                    // get permissions
-                    ImmutableSet.Builder<PosixFilePermission> permissionsBuilder = ImmutableSet.builder();
-                    PosixFilePermission[] orderedPermissions = PosixFilePermission.values();
-                    for (int mask = 1, perm = orderedPermissions.length - 1; mask < 01000; mask <<= 1, perm -= 1) {
-                        if ((entry.getMode() & mask) != 0) {
-                            permissionsBuilder.add(orderedPermissions[perm]);
-                        }
-                    }
-                    Files.setPosixFilePermissions(destPath, permissionsBuilder.build());
-                }
-            }
+        try {
+            TarballExtractor.extract(sourceFile, destDirectory);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -130,8 +110,14 @@ public abstract class NpmArtifactTransformAction implements TransformAction<Tran
                 + scope.map(value -> "/@" + value).orElse("") + "/" + name;
     }
 
-    private static String trimPackage(String entryName) {
-        return entryName.replaceFirst("package/", "");
+    public interface Parameters extends TransformParameters {
+        /** Location of the shared {@link NpmModuleStore}, outputs are extracted directly when absent. */
+        @Internal
+        Property<String> getModuleStoreDir();
+
+        /** Modules not used for this many days are evicted from the store, 0 disables. */
+        @Internal
+        Property<Long> getModuleStoreMaxAgeDays();
     }
 
     @Value.Immutable
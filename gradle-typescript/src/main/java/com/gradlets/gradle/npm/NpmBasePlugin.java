@@ -17,6 +17,7 @@
 package com.gradlets.gradle.npm;
 
 import com.gradlets.gradle.typescript.TypeScriptAttributes;
+import com.gradlets.gradle.typescript.shim.ShimConfiguration;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
@@ -36,8 +37,18 @@ public class NpmBasePlugin implements Plugin<Project> {
             variantTransform
                     .getTo()
                     .attribute(ArtifactTypeDefinition.ARTIFACT_TYPE_ATTRIBUTE, TypeScriptAttributes.MODULE);
+            ShimConfiguration.getModuleStoreDir().ifPresent(storeDir -> {
+                variantTransform.getParameters().getModuleStoreDir().set(storeDir.toString());
+                variantTransform
+                        .getParameters()
+                        .getModuleStoreMaxAgeDays()
+                        .set(ShimConfiguration.getModuleStoreMaxAge().toDays());
+            });
         });
         new DslObject(project.getRepositories()).getConvention().getPlugins().put("npm", npmExtension);
+        project.getTasks()
+                .register(CleanTypeScriptCache.TASK_NAME, CleanTypeScriptCache.class, task -> task.setDescription(
+                        "Evicts npm descriptors that haven't been used recently from the shared cache."));
 
         project.getRepositories().forEach(NpmBasePlugin::configureRepository);
         project.getRepositories().whenObjectAdded(NpmBasePlugin::configureRepository);
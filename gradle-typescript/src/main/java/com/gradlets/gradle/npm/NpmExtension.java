@@ -18,6 +18,7 @@ package com.gradlets.gradle.npm;
 
 import com.gradlets.gradle.typescript.shim.IvyPatterns;
 import com.gradlets.gradle.typescript.shim.NpmArtifactoryShim;
+import com.gradlets.gradle.typescript.shim.ShimConfiguration;
 import java.nio.file.Paths;
 import java.util.Optional;
 import javax.inject.Inject;
@@ -82,14 +83,21 @@ public class NpmExtension {
 
         IvyArtifactRepository ivyRepository = repositoryFactory.createIvyRepository();
         ivyRepository.setName(uniqueName(NPM_REPO_DEFAULT_NAME + "_" + suggestedName));
+        boolean moduleMetadata = ShimConfiguration.useModuleMetadata();
         ivyRepository.patternLayout(patternLayout -> {
             patternLayout.artifact(IvyPatterns.IVY_ARTIFACT_PATTERN);
-            patternLayout.ivy(IvyPatterns.IVY_DESCRIPTOR_PATTERN);
+            patternLayout.ivy(moduleMetadata ? IvyPatterns.METADATA_PATTERN : IvyPatterns.IVY_DESCRIPTOR_PATTERN);
         });
 
         ivyRepository.metadataSources(metadataSources -> {
-            metadataSources.ivyDescriptor();
-            metadataSources.ignoreGradleMetadataRedirection();
+            // The shim serves Gradle Module Metadata next to every Ivy descriptor when enabled
+            if (moduleMetadata) {
+                metadataSources.gradleMetadata();
+                metadataSources.ivyDescriptor();
+            } else {
+                metadataSources.ivyDescriptor();
+                metadataSources.ignoreGradleMetadataRedirection();
+            }
         });
 
         npmArtifactRepository
@@ -0,0 +1,288 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.npm;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIoException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Machine wide store of extracted npm modules keyed by the sha512 of their tarball, the digest npm records as the
+ * {@code integrity} of a package. Each tarball is extracted once and its files are hard linked into every transform
+ * output that needs them, falling back to copies where the output lives on another file system.
+ *
+ * <p>Stored files are read only since every output linking them shares them, modules whose files were modified
+ * anyway are extracted again. Modules that haven't been used for a while are evicted, builds sweep at most once a
+ * day like they do for cached descriptors.
+ */
+final class NpmModuleStore {
+    private static final Logger log = LoggerFactory.getLogger(NpmModuleStore.class);
+
+    private static final String CONTENTS_DIR_NAME = "package";
+    // Created once the contents are complete, none of them is modified after it
+    private static final String EXTRACTED_FILE_NAME = "extracted";
+    // Evicted modules are moved here before being deleted, so readers never see them partially deleted
+    private static final String EVICTED_DIR_NAME = "_evicted";
+    private static final String CLEANUP_FILE_NAME = "cleanup.lock";
+    private static final Duration SWEEP_INTERVAL = Duration.ofDays(1);
+    // Uses only refresh the access time every so often, linking a module would otherwise always write to the store
+    private static final Duration ACCESS_TIME_GRANULARITY = Duration.ofHours(1);
+    // Modules used this recently are never evicted, concurrent builds might be linking them
+    private static final Duration MIN_RETENTION = Duration.ofDays(1);
+
+    private final Path storeDir;
+    private final Duration maxAge;
+
+    NpmModuleStore(Path storeDir, Duration maxAge) {
+        this.storeDir = storeDir;
+        this.maxAge = maxAge;
+    }
+
+    void extract(Path sourceFile, Path destDirectory) throws IOException {
+        String digest = com.google.common.io.Files.asByteSource(sourceFile.toFile())
+                .hash(Hashing.sha512())
+                .toString();
+        Path moduleDir = storeDir.resolve(digest.substring(0, 2)).resolve(digest.substring(2));
+        if (!linkTree(getOrExtract(sourceFile, moduleDir), destDirectory)) {
+            log.warn("Files of {} were modified in the npm module store, extracting it again", sourceFile);
+            MoreFiles.deleteDirectoryContents(destDirectory, RecursiveDeleteOption.ALLOW_INSECURE);
+            evict(moduleDir);
+            if (!linkTree(getOrExtract(sourceFile, moduleDir), destDirectory)) {
+                throw new SafeIoException(
+                        "npm module was modified while linking it", SafeArg.of("moduleDir", moduleDir.toString()));
+            }
+        }
+        cleanUpIfDue();
+    }
+
+    /** Evicts modules that haven't been used for longer than the max age, returns the number of evicted modules. */
+    @VisibleForTesting
+    int cleanUp() throws IOException {
+        if (maxAge.isZero()) {
+            return 0;
+        }
+        Files.createDirectories(storeDir);
+        Path cleanupFile = storeDir.resolve(CLEANUP_FILE_NAME);
+        try (FileChannel channel = FileChannel.open(cleanupFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock lock = channel.tryLock()) {
+            if (lock == null) {
+                log.debug("npm module store is being cleaned up by another process");
+                return 0;
+            }
+            int evicted = evictUnused(Instant.now());
+            Files.setLastModifiedTime(cleanupFile, FileTime.from(Instant.now()));
+            return evicted;
+        }
+    }
+
+    private Path getOrExtract(Path sourceFile, Path moduleDir) throws IOException {
+        Path extractedFile = moduleDir.resolve(EXTRACTED_FILE_NAME);
+        if (Files.exists(extractedFile)) {
+            recordAccess(moduleDir);
+            return moduleDir;
+        }
+        if (Files.exists(moduleDir)) {
+            // Laid out by an older version of the store
+            evict(moduleDir);
+        }
+
+        Files.createDirectories(moduleDir.getParent());
+        Path tempDir = Files.createTempDirectory(
+                moduleDir.getParent(), moduleDir.getFileName().toString().substring(0, 8));
+        try {
+            Path contentsDir = tempDir.resolve(CONTENTS_DIR_NAME);
+            TarballExtractor.extract(sourceFile, contentsDir);
+            makeReadOnly(contentsDir);
+            Files.createFile(tempDir.resolve(EXTRACTED_FILE_NAME));
+            try {
+                Files.move(tempDir, moduleDir, StandardCopyOption.ATOMIC_MOVE);
+            } catch (FileSystemException e) {
+                // Another build extracted the same tarball concurrently, theirs is just as good. File systems disagree
+                // on how they report that, so check rather than trusting the type of the exception
+                if (!Files.exists(extractedFile)) {
+                    throw e;
+                }
+            }
+        } finally {
+            if (Files.exists(tempDir)) {
+                MoreFiles.deleteRecursively(tempDir, RecursiveDeleteOption.ALLOW_INSECURE);
+            }
+        }
+        return moduleDir;
+    }
+
+    private static void recordAccess(Path moduleDir) {
+        try {
+            Instant now = Instant.now();
+            if (Files.getLastModifiedTime(moduleDir)
+                    .toInstant()
+                    .isBefore(now.minus(ACCESS_TIME_GRANULARITY))) {
+                Files.setLastModifiedTime(moduleDir, FileTime.from(now));
+            }
+        } catch (IOException e) {
+            log.debug("Failed to record access to npm module {}", moduleDir, e);
+        }
+    }
+
+    private static void makeReadOnly(Path contentsDir) throws IOException {
+        Files.walkFileTree(contentsDir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    file.toFile().setWritable(false, false);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /** Links the contents of the module into the destination, false if some of them were modified since extraction. */
+    private static boolean linkTree(Path moduleDir, Path destDirectory) throws IOException {
+        Path contentsDir = moduleDir.resolve(CONTENTS_DIR_NAME);
+        FileTime extractedTime = Files.getLastModifiedTime(moduleDir.resolve(EXTRACTED_FILE_NAME));
+        AtomicBoolean unmodified = new AtomicBoolean(true);
+        Files.walkFileTree(contentsDir, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes _attrs) throws IOException {
+                Files.createDirectories(destDirectory.resolve(contentsDir.relativize(dir)));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                if (attrs.lastModifiedTime().compareTo(extractedTime) > 0) {
+                    unmodified.set(false);
+                    return FileVisitResult.TERMINATE;
+                }
+                Path destPath = destDirectory.resolve(contentsDir.relativize(file));
+                if (attrs.isSymbolicLink()) {
+                    Files.createSymbolicLink(destPath, Files.readSymbolicLink(file));
+                } else {
+                    linkOrCopy(file, destPath);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return unmodified.get();
+    }
+
+    private static void linkOrCopy(Path source, Path destPath) throws IOException {
+        try {
+            Files.createLink(destPath, source);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(source, destPath, StandardCopyOption.COPY_ATTRIBUTES, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void cleanUpIfDue() {
+        try {
+            if (!maxAge.isZero()
+                    && Files.getLastModifiedTime(storeDir.resolve(CLEANUP_FILE_NAME))
+                            .toInstant()
+                            .isBefore(Instant.now().minus(SWEEP_INTERVAL))) {
+                cleanUp();
+            }
+        } catch (NoSuchFileException e) {
+            // Never cleaned up, start counting from now rather than sweeping while extracting the first modules
+            try {
+                Files.write(storeDir.resolve(CLEANUP_FILE_NAME), new byte[0]);
+            } catch (IOException ex) {
+                log.debug("Failed to create npm module store cleanup file", ex);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to clean up npm module store {}", storeDir, e);
+        }
+    }
+
+    // Modules live in <first two digest characters>/<rest of digest>, next to extractions still in progress
+    private int evictUnused(Instant now) throws IOException {
+        // Left behind by sweeps that didn't finish
+        Path evictedDir = storeDir.resolve(EVICTED_DIR_NAME);
+        if (Files.exists(evictedDir)) {
+            MoreFiles.deleteRecursively(evictedDir, RecursiveDeleteOption.ALLOW_INSECURE);
+        }
+
+        Instant expiredBefore = now.minus(maxAge.compareTo(MIN_RETENTION) > 0 ? maxAge : MIN_RETENTION);
+        int evicted = 0;
+        for (Path shardDir : listDirectories(storeDir)) {
+            if (shardDir.getFileName().toString().length() != 2) {
+                continue;
+            }
+            for (Path moduleDir : listDirectories(shardDir)) {
+                try {
+                    if (Files.getLastModifiedTime(moduleDir).toInstant().isBefore(expiredBefore)
+                            && evict(moduleDir)) {
+                        evicted++;
+                    }
+                } catch (NoSuchFileException e) {
+                    // Evicted since we listed it
+                }
+            }
+        }
+        if (evicted > 0) {
+            log.info("Evicted {} unused modules from the npm module store", evicted);
+        }
+        return evicted;
+    }
+
+    private boolean evict(Path moduleDir) throws IOException {
+        Path evictedDir = storeDir.resolve(EVICTED_DIR_NAME);
+        Path evictedPath = evictedDir.resolve(UUID.randomUUID().toString());
+        try {
+            Files.createDirectories(evictedDir);
+            Files.move(moduleDir, evictedPath, StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            // Evicted by someone else
+            return false;
+        }
+        MoreFiles.deleteRecursively(evictedPath, RecursiveDeleteOption.ALLOW_INSECURE);
+        return true;
+    }
+
+    private static List<Path> listDirectories(Path dir) throws IOException {
+        try (Stream<Path> children = Files.list(dir)) {
+            return children.filter(Files::isDirectory).collect(Collectors.toList());
+        } catch (NoSuchFileException e) {
+            return List.of();
+        }
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.npm;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.CountingInputStream;
+import com.google.common.io.MoreFiles;
+import com.gradlets.gradle.typescript.ObjectMappers;
+import com.palantir.dialogue.RequestBody;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIoException;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The publish document of an npm package, the same document {@link NpmPackageRoot} describes, written straight to the
+ * request. The tarball is base64 encoded and hashed as it is read, so it is never held in memory, and is read again
+ * from disk if the request is retried.
+ */
+public final class NpmPublicationBody implements RequestBody {
+    private static final ObjectMapper MAPPER = ObjectMappers.MAPPER
+            .copy()
+            .disable(SerializationFeature.INDENT_OUTPUT)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private final Map<String, Object> packageJson;
+    private final String repositoryUrl;
+    private final Path tarball;
+
+    NpmPublicationBody(Map<String, Object> packageJson, String repositoryUrl, Path tarball) {
+        this.packageJson = packageJson;
+        this.repositoryUrl = repositoryUrl;
+        this.tarball = tarball;
+    }
+
+    String packageName() {
+        return (String) packageJson.get("name");
+    }
+
+    String packageVersion() {
+        return (String) packageJson.get("version");
+    }
+
+    /** Shasum of the tarball, as the registry reports it for the published version. */
+    @SuppressWarnings("deprecation") // npm wants sha1 shasums
+    String shasum() throws IOException {
+        return MoreFiles.asByteSource(tarball).hash(Hashing.sha1()).toString();
+    }
+
+    /** Subresource integrity of the tarball, which registries report next to the shasum. */
+    String integrity() throws IOException {
+        return PackageJsons.integrity(MoreFiles.asByteSource(tarball).hash(Hashing.sha512()));
+    }
+
+    @Override
+    @SuppressWarnings("deprecation") // npm wants sha1 shasums
+    public void writeTo(OutputStream output) throws IOException {
+        String packageVersion = packageVersion();
+        long size = Files.size(tarball);
+        try (InputStream input = new BufferedInputStream(Files.newInputStream(tarball));
+                JsonGenerator generator = MAPPER.getFactory().createGenerator(output)) {
+            HashingInputStream sha1 = new HashingInputStream(Hashing.sha1(), input);
+            HashingInputStream sha512 = new HashingInputStream(Hashing.sha512(), sha1);
+            CountingInputStream counting = new CountingInputStream(sha512);
+
+            generator.writeStartObject();
+            generator.writeStringField("_id", packageName());
+            generator.writeStringField("name", packageName());
+            generator.writeStringField("version", packageVersion);
+            generator.writeStringField("access", "public");
+            generator.writeObjectFieldStart("dist-tags");
+            generator.writeStringField("latest", packageVersion);
+            generator.writeEndObject();
+            Optional<String> readme =
+                    Optional.ofNullable(packageJson.get("readme")).map(String.class::cast);
+            if (readme.isPresent()) {
+                generator.writeStringField("readme", readme.get());
+            }
+
+            // Registries don't care about the order of fields, the checksums in the versions are only known once the
+            // tarball has been written
+            generator.writeObjectFieldStart("_attachments");
+            generator.writeObjectFieldStart(PackageJsons.tarballName(packageJson));
+            generator.writeStringField("content_type", "application/octet-stream");
+            generator.writeNumberField("length", size);
+            generator.writeFieldName("data");
+            // Jackson only takes int lengths, streaming to the end of the tarball works for any size
+            generator.writeBinary(counting, -1);
+            if (counting.getCount() != size) {
+                throw new SafeIoException(
+                        "Tarball changed while it was being published",
+                        SafeArg.of("expectedBytes", size),
+                        SafeArg.of("actualBytes", counting.getCount()));
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+
+            generator.writeObjectFieldStart("versions");
+            generator.writeObjectField(
+                    packageVersion,
+                    PackageJsons.withDist(
+                            packageJson,
+                            repositoryUrl,
+                            sha1.hash().toString(),
+                            PackageJsons.integrity(sha512.hash())));
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+    }
+
+    @Override
+    public String contentType() {
+        return "application/json";
+    }
+
+    @Override
+    public boolean repeatable() {
+        return true;
+    }
+
+    @Override
+    public void close() {}
+}
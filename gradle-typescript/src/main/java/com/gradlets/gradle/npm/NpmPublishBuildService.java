@@ -0,0 +1,223 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.npm;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.hash.Hashing;
+import com.gradlets.gradle.typescript.shim.ShimConfiguration;
+import com.palantir.conjure.java.api.config.service.PartialServiceConfiguration;
+import com.palantir.conjure.java.api.config.service.ServicesConfigBlock;
+import com.palantir.conjure.java.api.config.service.UserAgent;
+import com.palantir.conjure.java.api.config.service.UserAgent.Agent;
+import com.palantir.conjure.java.api.config.ssl.SslConfiguration;
+import com.palantir.conjure.java.api.config.ssl.SslConfiguration.StoreType;
+import com.palantir.conjure.java.api.errors.UnknownRemoteException;
+import com.palantir.dialogue.clients.DialogueClients;
+import com.palantir.logsafe.exceptions.SafeRuntimeException;
+import com.palantir.refreshable.Refreshable;
+import com.palantir.refreshable.SettableRefreshable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * Uploads the npm publications of every PublishToNpmRepository task in the build through one client per registry, so
+ * that connections and TLS sessions are reused across packages. Uploads run on the threads of the publishing tasks, so
+ * they only proceed in parallel when Gradle runs those tasks in parallel. The plugin caps how many tasks use the
+ * service at once at {@link ShimConfiguration#getPublishParallelism()}. The aggregate throughput is reported once the
+ * build finishes.
+ */
+public abstract class NpmPublishBuildService implements BuildService<BuildServiceParameters.None>, AutoCloseable {
+    public static final String NAME = "npmPublish";
+
+    private static final Logger log = Logging.getLogger(NpmPublishBuildService.class);
+    private static final UserAgent USER_AGENT = UserAgent.of(Agent.of(
+            "publishToNpmRepo",
+            Optional.ofNullable(NpmPublishBuildService.class.getPackage().getImplementationVersion())
+                    .orElse("0.0.0")));
+
+    // Publishing isn't idempotent, only failures where the registry most likely never saw the upload are retried
+    private static final int MAX_ATTEMPTS = 3;
+    private static final Duration INITIAL_BACKOFF = Duration.ofSeconds(1);
+
+    private final SettableRefreshable<ServicesConfigBlock> services = Refreshable.create(ServicesConfigBlock.empty());
+    private final DialogueClients.ReloadingFactory clients =
+            DialogueClients.create(services).withUserAgent(USER_AGENT);
+    private final ConcurrentMap<String, NpmPublishService> publishServices = new ConcurrentHashMap<>();
+
+    private final AtomicLong publishedPackages = new AtomicLong();
+    private final AtomicLong publishedBytes = new AtomicLong();
+    private final AtomicLong skippedPackages = new AtomicLong();
+    private final AtomicLong firstUploadStartNanos = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong lastUploadEndNanos = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Runs the given upload against the client of the given registry, unless the registry already has the
+     * publication. Uploads failing with a connection error or a gateway error are retried with exponential backoff,
+     * after checking that the failed attempt didn't go through after all. Returns whether anything was uploaded, the
+     * size of the uploaded tarball only feeds the throughput report.
+     */
+    public final boolean publish(String repositoryUrl, long tarballBytes, Upload upload) {
+        NpmPublishService client = publishServices.computeIfAbsent(repositoryUrl, this::createClient);
+        firstUploadStartNanos.accumulateAndGet(System.nanoTime(), Math::min);
+        boolean uploaded = uploadWithRetries(client, upload);
+        lastUploadEndNanos.accumulateAndGet(System.nanoTime(), Math::max);
+        if (uploaded) {
+            publishedPackages.incrementAndGet();
+            publishedBytes.addAndGet(tarballBytes);
+        } else {
+            skippedPackages.incrementAndGet();
+        }
+        return uploaded;
+    }
+
+    private static boolean uploadWithRetries(NpmPublishService client, Upload upload) {
+        if (upload.isPublished(client)) {
+            return false;
+        }
+        for (int attempt = 1; ; attempt++) {
+            try {
+                upload.run(client);
+                return true;
+            } catch (RuntimeException e) {
+                if (attempt >= MAX_ATTEMPTS || !isRetryable(e)) {
+                    throw e;
+                }
+                Duration backoff = backoff(attempt);
+                log.warn("Failed to upload npm publication, retrying in {} ms", backoff.toMillis(), e);
+                sleep(backoff);
+                // The registry may have stored the publication before the response got lost
+                if (upload.isPublished(client)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    @VisibleForTesting
+    static boolean isRetryable(RuntimeException exception) {
+        if (Throwables.getCausalChain(exception).stream().anyMatch(IOException.class::isInstance)) {
+            return true;
+        }
+        int status;
+        if (exception instanceof NpmRegistryException) {
+            status = ((NpmRegistryException) exception).status();
+        } else if (exception instanceof UnknownRemoteException) {
+            status = ((UnknownRemoteException) exception).getStatus();
+        } else {
+            return false;
+        }
+        return status == 502 || status == 503 || status == 504;
+    }
+
+    /** Exponential backoff with jitter, so that uploads failing together don't all retry at the same time. */
+    @VisibleForTesting
+    static Duration backoff(int attempt) {
+        long maxMillis = INITIAL_BACKOFF.toMillis() << (attempt - 1);
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(maxMillis / 2, maxMillis + 1));
+    }
+
+    private static void sleep(Duration duration) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(duration.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SafeRuntimeException("Interrupted while waiting to retry npm upload", e);
+        }
+    }
+
+    private NpmPublishService createClient(String repositoryUrl) {
+        String serviceName = "npm-"
+                + Hashing.sha256()
+                        .hashString(repositoryUrl, StandardCharsets.UTF_8)
+                        .toString()
+                        .substring(0, 16);
+        synchronized (services) {
+            services.update(ServicesConfigBlock.builder()
+                    .from(services.current())
+                    .putServices(
+                            serviceName,
+                            PartialServiceConfiguration.builder()
+                                    .addUris(repositoryUrl)
+                                    // Dialogue would resend the publication without checking whether it went
+                                    // through, uploadWithRetries is the only place uploads are retried
+                                    .maxNumRetries(0)
+                                    .security(SslConfiguration.builder()
+                                            .trustStorePath(trustStorePath())
+                                            .trustStoreType(storeType())
+                                            .build())
+                                    .build())
+                    .build());
+        }
+        return clients.get(NpmPublishService.class, serviceName);
+    }
+
+    @Override
+    public final void close() {
+        if (skippedPackages.get() > 0) {
+            log.lifecycle("Skipped {} npm packages that were already published", skippedPackages.get());
+        }
+        long packages = publishedPackages.get();
+        if (packages == 0) {
+            return;
+        }
+        double seconds = Math.max(lastUploadEndNanos.get() - firstUploadStartNanos.get(), 1) / 1e9;
+        double mebibytes = publishedBytes.get() / (1024.0 * 1024.0);
+        log.lifecycle(
+                "Published {} npm packages, {} MiB in {} s ({} MiB/s)",
+                packages,
+                String.format(Locale.ROOT, "%.1f", mebibytes),
+                String.format(Locale.ROOT, "%.1f", seconds),
+                String.format(Locale.ROOT, "%.1f", mebibytes / seconds));
+    }
+
+    /** Uploads a publication with the given client. */
+    public interface Upload {
+        /** Whether the registry already has the publication, failing when it has different contents. */
+        boolean isPublished(NpmPublishService client);
+
+        void run(NpmPublishService client);
+    }
+
+    private static StoreType storeType() {
+        return Optional.ofNullable(System.getProperty("javax.net.ssl.trustStoreType"))
+                .map(StoreType::valueOf)
+                .orElse(StoreType.JKS);
+    }
+
+    private static Path trustStorePath() {
+        return Optional.ofNullable(System.getProperty("javax.net.ssl.trustStore"))
+                .map(Paths::get)
+                .orElseGet(() -> Optional.ofNullable(System.getProperty("java.home"))
+                        .map(javaHome -> Paths.get(javaHome, "lib", "security", "cacerts"))
+                        .orElseThrow(() -> new SafeRuntimeException("Unable to find trustStore")));
+    }
+}
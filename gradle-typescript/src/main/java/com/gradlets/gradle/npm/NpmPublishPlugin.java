@@ -16,6 +16,7 @@
 
 package com.gradlets.gradle.npm;
 
+import com.gradlets.gradle.typescript.shim.ShimConfiguration;
 import javax.inject.Inject;
 import org.apache.commons.lang3.StringUtils;
 import org.gradle.api.NamedDomainObjectList;
@@ -27,6 +28,7 @@ import org.gradle.api.artifacts.repositories.ArtifactRepository;
 import org.gradle.api.artifacts.repositories.IvyArtifactRepository;
 import org.gradle.api.internal.file.FileResolver;
 import org.gradle.api.internal.plugins.DslObject;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.publish.PublishingExtension;
 import org.gradle.api.publish.plugins.PublishingPlugin;
 import org.gradle.api.tasks.TaskContainer;
@@ -74,6 +76,13 @@ public final class NpmPublishPlugin implements Plugin<Project> {
         NamedDomainObjectSet<NpmPublication> npmPublications =
                 extension.getPublications().withType(NpmPublication.class);
         TaskContainer tasks = project.getTasks();
+        Provider<NpmPublishBuildService> publishService = project.getGradle()
+                .getSharedServices()
+                .registerIfAbsent(
+                        NpmPublishBuildService.NAME,
+                        NpmPublishBuildService.class,
+                        // Uploads run on the publishing tasks' threads, this caps how many run in parallel
+                        spec -> spec.getMaxParallelUsages().set(ShimConfiguration.getPublishParallelism()));
 
         TaskProvider<Task> publishLifecycleTask = tasks.named(PublishingPlugin.PUBLISH_LIFECYCLE_TASK_NAME);
         NamedDomainObjectList<IvyArtifactRepository> repositories = extension
@@ -90,8 +99,8 @@ public final class NpmPublishPlugin implements Plugin<Project> {
                     });
             publishLifecycleTask.configure(task -> task.dependsOn(repositorySpecificPublishTask));
 
-            npmPublications.all(
-                    publication -> createPublishTask(tasks, repository, repositorySpecificPublishTask, publication));
+            npmPublications.all(publication -> createPublishTask(
+                    tasks, publishService, repository, repositorySpecificPublishTask, publication));
         });
 
         TaskProvider<Task> publishLocalLifecycleTask = tasks.named(PUBLISH_LOCAL_LIFECYCLE_TASK_NAME);
@@ -100,6 +109,7 @@ public final class NpmPublishPlugin implements Plugin<Project> {
 
     private void createPublishTask(
             TaskContainer tasks,
+            Provider<NpmPublishBuildService> publishService,
             IvyArtifactRepository repository,
             TaskProvider<Task> repositorySpecificPublishTask,
             NpmPublication publication) {
@@ -109,6 +119,8 @@ public final class NpmPublishPlugin implements Plugin<Project> {
         tasks.register(publishTaskName, PublishToNpmRepository.class, publishTask -> {
             publishTask.getPublication().set(publication);
             publishTask.getRepository().set(repository);
+            publishTask.getPublishService().set(publishService);
+            publishTask.usesService(publishService);
             publishTask.setGroup(PublishingPlugin.PUBLISH_TASK_GROUP);
             publishTask.setDescription("Publishes Npm publication '" + publication.getName() + "' to Npm repository '"
                     + repositoryName + "'.");
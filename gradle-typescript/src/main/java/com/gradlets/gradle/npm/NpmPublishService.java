@@ -21,31 +21,69 @@ import com.palantir.dialogue.ConjureRuntime;
 import com.palantir.dialogue.EndpointChannel;
 import com.palantir.dialogue.EndpointChannelFactory;
 import com.palantir.dialogue.Request;
-import com.palantir.dialogue.Serializer;
-import com.palantir.dialogue.TypeMarker;
 import com.palantir.tokens.auth.AuthHeader;
+import java.util.Optional;
 
 public interface NpmPublishService {
-    void uploadPublication(NpmPackageRoot publication);
+    /** Checksums of the tarball of the given version, empty when the registry doesn't have that version. */
+    Optional<PublishedDist> getPublishedDist(String packageName, String packageVersion);
 
-    void uploadPublication(AuthHeader authHeader, NpmPackageRoot publication);
+    Optional<PublishedDist> getPublishedDist(AuthHeader authHeader, String packageName, String packageVersion);
 
-    void uploadPublication(BasicAuthHeader basicAuthHeader, NpmPackageRoot publication);
+    Optional<PublishedDist> getPublishedDist(
+            BasicAuthHeader basicAuthHeader, String packageName, String packageVersion);
+
+    void uploadPublication(NpmPublicationBody publication);
+
+    void uploadPublication(AuthHeader authHeader, NpmPublicationBody publication);
+
+    void uploadPublication(BasicAuthHeader basicAuthHeader, NpmPublicationBody publication);
 
     static NpmPublishService of(EndpointChannelFactory channel, ConjureRuntime runtime) {
         return new NpmPublishService() {
-            private final Serializer<NpmPackageRoot> publishJsonSerializer =
-                    runtime.bodySerDe().serializer(new TypeMarker<>() {});
-
             private final EndpointChannel publishPackageEndpoint =
                     channel.endpoint(NpmPublishServiceEndpoints.publishPackage);
+            private final EndpointChannel getPackageJsonEndpoint =
+                    channel.endpoint(NpmPublishServiceEndpoints.getPackageJson);
+
+            @Override
+            public Optional<PublishedDist> getPublishedDist(
+                    AuthHeader authHeader, String packageName, String packageVersion) {
+                return getPublishedDist(
+                        Request.builder().putHeaderParams("Authorization", authHeader.toString()),
+                        packageName,
+                        packageVersion);
+            }
+
+            @Override
+            public Optional<PublishedDist> getPublishedDist(
+                    BasicAuthHeader basicAuthHeader, String packageName, String packageVersion) {
+                return getPublishedDist(
+                        Request.builder().putHeaderParams("Authorization", basicAuthHeader.toString()),
+                        packageName,
+                        packageVersion);
+            }
+
+            @Override
+            public Optional<PublishedDist> getPublishedDist(String packageName, String packageVersion) {
+                return getPublishedDist(Request.builder(), packageName, packageVersion);
+            }
+
+            private Optional<PublishedDist> getPublishedDist(
+                    Request.Builder request, String packageName, String packageVersion) {
+                request.putPathParams("packageName", packageName);
+                request.putPathParams("packageVersion", packageVersion);
+                return runtime.clients()
+                        .block(runtime.clients()
+                                .call(getPackageJsonEndpoint, request.build(), PublishedDistDeserializer.INSTANCE));
+            }
 
             @Override
-            public void uploadPublication(AuthHeader authHeader, NpmPackageRoot publication) {
+            public void uploadPublication(AuthHeader authHeader, NpmPublicationBody publication) {
                 Request request = Request.builder()
                         .putHeaderParams("Authorization", authHeader.toString())
-                        .putPathParams("packageName", publication.name())
-                        .body(publishJsonSerializer.serialize(publication))
+                        .putPathParams("packageName", publication.packageName())
+                        .body(publication)
                         .build();
 
                 runtime.clients()
@@ -54,11 +92,11 @@ public interface NpmPublishService {
             }
 
             @Override
-            public void uploadPublication(BasicAuthHeader basicAuthHeader, NpmPackageRoot publication) {
+            public void uploadPublication(BasicAuthHeader basicAuthHeader, NpmPublicationBody publication) {
                 Request request = Request.builder()
                         .putHeaderParams("Authorization", basicAuthHeader.toString())
-                        .putPathParams("packageName", publication.name())
-                        .body(publishJsonSerializer.serialize(publication))
+                        .putPathParams("packageName", publication.packageName())
+                        .body(publication)
                         .build();
 
                 runtime.clients()
@@ -67,10 +105,10 @@ public interface NpmPublishService {
             }
 
             @Override
-            public void uploadPublication(NpmPackageRoot publication) {
+            public void uploadPublication(NpmPublicationBody publication) {
                 Request request = Request.builder()
-                        .putPathParams("packageName", publication.name())
-                        .body(publishJsonSerializer.serialize(publication))
+                        .putPathParams("packageName", publication.packageName())
+                        .body(publication)
                         .build();
 
                 runtime.clients()
@@ -47,6 +47,38 @@ enum NpmPublishServiceEndpoints implements Endpoint {
             return "publishPackageJson";
         }
 
+        @Override
+        public String version() {
+            return "0.0.0";
+        }
+    },
+
+    getPackageJson {
+        private final PathTemplate pathTemplate = PathTemplate.builder()
+                .variable("packageName")
+                .variable("packageVersion")
+                .build();
+
+        @Override
+        public void renderPath(Map<String, String> params, UrlBuilder url) {
+            pathTemplate.fill(params, url);
+        }
+
+        @Override
+        public HttpMethod httpMethod() {
+            return HttpMethod.GET;
+        }
+
+        @Override
+        public String serviceName() {
+            return "NpmPublishService";
+        }
+
+        @Override
+        public String endpointName() {
+            return "getPackageJson";
+        }
+
         @Override
         public String version() {
             return "0.0.0";
@@ -0,0 +1,31 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.npm;
+
+/** Error response of an npm registry, the message is the body the registry answered with. */
+final class NpmRegistryException extends RuntimeException {
+    private final int status;
+
+    NpmRegistryException(int status, String body) {
+        super(body);
+        this.status = status;
+    }
+
+    int status() {
+        return status;
+    }
+}
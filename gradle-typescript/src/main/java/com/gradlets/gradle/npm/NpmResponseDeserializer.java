@@ -40,7 +40,7 @@ enum NpmResponseDeserializer implements Deserializer<Void> {
                     throw exception;
                 }
 
-                throw new RuntimeException(body);
+                throw new NpmRegistryException(response.code(), body);
             }
             return null;
         }
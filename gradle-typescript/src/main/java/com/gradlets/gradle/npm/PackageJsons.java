@@ -17,6 +17,7 @@
 package com.gradlets.gradle.npm;
 
 import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
 import com.google.common.io.BaseEncoding;
 import com.gradlets.gradle.typescript.ObjectMappers;
@@ -54,28 +55,40 @@ final class PackageJsons {
 
     static NpmPackageRoot packageJsonForPublication(
             Map<String, Object> packageJson, String repositoryUrl, byte[] artifactBytes) {
-        Map<String, Object> mutablePackageJson = new HashMap<>(packageJson);
-        String packageName = (String) mutablePackageJson.get("name");
-        String packageVersion = (String) mutablePackageJson.get("version");
-        String tarballName = String.format("%s-%s.tgz", packageName, packageVersion);
-        String tarballSuffix = String.format("%s/-/%s", packageName, tarballName);
+        String packageName = (String) packageJson.get("name");
+        String packageVersion = (String) packageJson.get("version");
         String shasum = Hashing.sha1().hashBytes(artifactBytes).toString();
-        String integrity = "sha512-"
-                + BaseEncoding.base64()
-                        .encode(Hashing.sha512().hashBytes(artifactBytes).asBytes());
-        mutablePackageJson.put(
-                "dist", Map.of("shasum", shasum, "integrity", integrity, "tarball", repositoryUrl + tarballSuffix));
+        String integrity = integrity(Hashing.sha512().hashBytes(artifactBytes));
+        Map<String, Object> versionPackageJson = withDist(packageJson, repositoryUrl, shasum, integrity);
         return NpmPackageRoot.builder()
                 .name(packageName)
                 .version(packageVersion)
                 .putDistTags("latest", packageVersion)
-                .putVersions(packageVersion, mutablePackageJson)
-                .readme(Optional.ofNullable(mutablePackageJson.get("readme")).map(String.class::cast))
+                .putVersions(packageVersion, versionPackageJson)
+                .readme(Optional.ofNullable(versionPackageJson.get("readme")).map(String.class::cast))
                 .putAttachments(
-                        tarballName,
+                        tarballName(packageJson),
                         NpmPackageRootAttachment.builder()
                                 .data(Bytes.from(artifactBytes))
                                 .build())
                 .build();
     }
+
+    static String tarballName(Map<String, Object> packageJson) {
+        return String.format("%s-%s.tgz", packageJson.get("name"), packageJson.get("version"));
+    }
+
+    static String integrity(HashCode sha512) {
+        return "sha512-" + BaseEncoding.base64().encode(sha512.asBytes());
+    }
+
+    /** The package.json of the published version, pointing at the tarball uploaded alongside it. */
+    static Map<String, Object> withDist(
+            Map<String, Object> packageJson, String repositoryUrl, String shasum, String integrity) {
+        Map<String, Object> mutablePackageJson = new HashMap<>(packageJson);
+        String tarballSuffix = String.format("%s/-/%s", packageJson.get("name"), tarballName(packageJson));
+        mutablePackageJson.put(
+                "dist", Map.of("shasum", shasum, "integrity", integrity, "tarball", repositoryUrl + tarballSuffix));
+        return mutablePackageJson;
+    }
 }
@@ -16,36 +16,28 @@
 
 package com.gradlets.gradle.npm;
 
-import com.palantir.conjure.java.api.config.service.PartialServiceConfiguration;
-import com.palantir.conjure.java.api.config.service.ServicesConfigBlock;
-import com.palantir.conjure.java.api.config.service.UserAgent;
-import com.palantir.conjure.java.api.config.service.UserAgent.Agent;
-import com.palantir.conjure.java.api.config.ssl.SslConfiguration;
-import com.palantir.conjure.java.api.config.ssl.SslConfiguration.StoreType;
-import com.palantir.dialogue.clients.DialogueClients;
+import com.palantir.logsafe.SafeArg;
 import com.palantir.logsafe.exceptions.SafeRuntimeException;
-import com.palantir.refreshable.Refreshable;
 import com.palantir.tokens.auth.AuthHeader;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.Optional;
 import java.util.concurrent.Callable;
 import org.apache.commons.lang3.StringUtils;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.artifacts.repositories.IvyArtifactRepository;
 import org.gradle.api.file.FileCollection;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.api.tasks.TaskAction;
 
 public abstract class PublishToNpmRepository extends DefaultTask {
-    private static final UserAgent USER_AGENT = UserAgent.of(Agent.of(
-            "publishToNpmRepo",
-            Optional.ofNullable(PublishToNpmRepository.class.getPackage().getImplementationVersion())
-                    .orElse("0.0.0")));
+    private static final Logger log = Logging.getLogger(PublishToNpmRepository.class);
 
     @SuppressWarnings("PublicConstructorForAbstractClass")
     public PublishToNpmRepository() {
@@ -62,21 +54,8 @@ public abstract class PublishToNpmRepository extends DefaultTask {
     @Input
     public abstract Property<IvyArtifactRepository> getRepository();
 
-    private NpmPublishService buildNpmClient() {
-        return DialogueClients.create(Refreshable.only(ServicesConfigBlock.builder()
-                        .putServices(
-                                "service",
-                                PartialServiceConfiguration.builder()
-                                        .addUris(getRepository().get().getUrl().toString())
-                                        .security(SslConfiguration.builder()
-                                                .trustStorePath(trustStorePath())
-                                                .trustStoreType(storeType())
-                                                .build())
-                                        .build())
-                        .build()))
-                .withUserAgent(USER_AGENT)
-                .get(NpmPublishService.class, "service");
-    }
+    @Internal
+    public abstract Property<NpmPublishBuildService> getPublishService();
 
     @TaskAction
     public final void upload() throws IOException {
@@ -86,37 +65,127 @@ public abstract class PublishToNpmRepository extends DefaultTask {
                 .getFiles()
                 .getSingleFile()
                 .toPath();
-        NpmPackageRoot npmPackageRoot = PackageJsons.packageJsonForPublication(
+        String repositoryUrl = getRepository().get().getUrl().toString();
+        // Streamed from disk, bundled packages can be too large to hold in memory
+        NpmPublicationBody publication = new NpmPublicationBody(
                 PackageJsons.getPackageJson(publicationPath),
-                StringUtils.appendIfMissing(
-                        getRepository().get().getUrl().toString().replace("https", "http"), "/"),
-                Files.readAllBytes(publicationPath));
+                StringUtils.appendIfMissing(repositoryUrl.replace("https", "http"), "/"),
+                publicationPath);
         org.gradle.api.artifacts.repositories.PasswordCredentials passwordCreds =
                 getRepository().get().getCredentials();
+        boolean uploaded = getPublishService()
+                .get()
+                .publish(repositoryUrl, Files.size(publicationPath), new NpmPublishBuildService.Upload() {
+                    @Override
+                    public boolean isPublished(NpmPublishService client) {
+                        return alreadyPublished(client, passwordCreds, publication);
+                    }
+
+                    @Override
+                    public void run(NpmPublishService client) {
+                        upload(client, passwordCreds, publication);
+                    }
+                });
+        if (!uploaded) {
+            getLogger()
+                    .lifecycle(
+                            "{}@{} is already published to {}, skipping upload",
+                            publication.packageName(),
+                            publication.packageVersion(),
+                            repositoryUrl);
+        }
+    }
+
+    // Re-running a partially failed release, or retrying an upload that went through, only uploads what's missing
+    private static boolean alreadyPublished(
+            NpmPublishService client,
+            org.gradle.api.artifacts.repositories.PasswordCredentials passwordCreds,
+            NpmPublicationBody publication) {
+        Optional<PublishedDist> publishedDist;
+        try {
+            publishedDist = getPublishedDist(client, passwordCreds, publication);
+        } catch (NpmRegistryException e) {
+            if (e.status() != 401 && e.status() != 403) {
+                throw e;
+            }
+            // Publish-only tokens can't read packages, the registry still rejects versions that already exist
+            log.info("Not allowed to look up published versions, uploading without checking", e);
+            return false;
+        }
+        if (publishedDist.isEmpty()) {
+            return false;
+        }
+        Optional<String> publishedIntegrity =
+                publishedDist.get().integrity().filter(integrity -> integrity.startsWith("sha512-"));
+        if (publishedIntegrity.isPresent()) {
+            String integrity = checksum(publication::integrity);
+            if (!publishedIntegrity.get().equals(integrity)) {
+                throw new SafeRuntimeException(
+                        "Version is already published with different contents",
+                        SafeArg.of("packageName", publication.packageName()),
+                        SafeArg.of("packageVersion", publication.packageVersion()),
+                        SafeArg.of("publishedIntegrity", publishedIntegrity.get()),
+                        SafeArg.of("integrity", integrity));
+            }
+            return true;
+        }
+        String shasum = checksum(publication::shasum);
+        if (!publishedDist.get().shasum().equals(Optional.of(shasum))) {
+            throw new SafeRuntimeException(
+                    "Version is already published with different contents",
+                    SafeArg.of("packageName", publication.packageName()),
+                    SafeArg.of("packageVersion", publication.packageVersion()),
+                    SafeArg.of("publishedShasum", publishedDist.get().shasum()),
+                    SafeArg.of("shasum", shasum));
+        }
+        return true;
+    }
+
+    private static Optional<PublishedDist> getPublishedDist(
+            NpmPublishService client,
+            org.gradle.api.artifacts.repositories.PasswordCredentials passwordCreds,
+            NpmPublicationBody publication) {
+        String packageName = publication.packageName();
+        String packageVersion = publication.packageVersion();
         if (AuthHeaderCredentials.PASSWORD_CREDS_USERNAME.equals(passwordCreds.getUsername())
                 && passwordCreds.getPassword() != null) {
-            buildNpmClient().uploadPublication(AuthHeader.valueOf(passwordCreds.getPassword()), npmPackageRoot);
+            return client.getPublishedDist(
+                    AuthHeader.valueOf(passwordCreds.getPassword()), packageName, packageVersion);
         } else if (passwordCreds.getUsername() != null && passwordCreds.getPassword() != null) {
-            buildNpmClient()
-                    .uploadPublication(
-                            BasicAuthHeader.of(passwordCreds.getUsername(), passwordCreds.getPassword()),
-                            npmPackageRoot);
+            return client.getPublishedDist(
+                    BasicAuthHeader.of(passwordCreds.getUsername(), passwordCreds.getPassword()),
+                    packageName,
+                    packageVersion);
         } else {
-            buildNpmClient().uploadPublication(npmPackageRoot);
+            return client.getPublishedDist(packageName, packageVersion);
+        }
+    }
+
+    private static String checksum(Checksum checksum) {
+        try {
+            return checksum.compute();
+        } catch (IOException e) {
+            throw new SafeRuntimeException("Failed to hash npm publication", e);
         }
     }
 
-    private static StoreType storeType() {
-        return Optional.ofNullable(System.getProperty("javax.net.ssl.trustStoreType"))
-                .map(StoreType::valueOf)
-                .orElse(StoreType.JKS);
+    @FunctionalInterface
+    private interface Checksum {
+        String compute() throws IOException;
     }
 
-    private static Path trustStorePath() {
-        return Optional.ofNullable(System.getProperty("javax.net.ssl.trustStore"))
-                .map(Paths::get)
-                .orElseGet(() -> Optional.ofNullable(System.getProperty("java.home"))
-                        .map(javaHome -> Paths.get(javaHome, "lib", "security", "cacerts"))
-                        .orElseThrow(() -> new SafeRuntimeException("Unable to find trustStore")));
+    private static void upload(
+            NpmPublishService client,
+            org.gradle.api.artifacts.repositories.PasswordCredentials passwordCreds,
+            NpmPublicationBody publication) {
+        if (AuthHeaderCredentials.PASSWORD_CREDS_USERNAME.equals(passwordCreds.getUsername())
+                && passwordCreds.getPassword() != null) {
+            client.uploadPublication(AuthHeader.valueOf(passwordCreds.getPassword()), publication);
+        } else if (passwordCreds.getUsername() != null && passwordCreds.getPassword() != null) {
+            client.uploadPublication(
+                    BasicAuthHeader.of(passwordCreds.getUsername(), passwordCreds.getPassword()), publication);
+        } else {
+            client.uploadPublication(publication);
+        }
     }
 }
@@ -0,0 +1,63 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.npm;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.gradlets.gradle.typescript.ObjectMappers;
+import com.palantir.dialogue.Deserializer;
+import com.palantir.dialogue.Response;
+import com.palantir.logsafe.exceptions.SafeRuntimeException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+/**
+ * Reads the tarball checksums of a published version from its package.json, versions the registry doesn't have are
+ * empty.
+ */
+enum PublishedDistDeserializer implements Deserializer<Optional<PublishedDist>> {
+    INSTANCE;
+
+    @Override
+    public Optional<PublishedDist> deserialize(Response response) {
+        try (Response unused = response) {
+            if (response.code() == 404) {
+                return Optional.empty();
+            }
+            if (300 <= response.code() && response.code() <= 599) {
+                throw new NpmRegistryException(
+                        response.code(), new String(response.body().readAllBytes(), StandardCharsets.UTF_8));
+            }
+            JsonNode dist = ObjectMappers.MAPPER.readTree(response.body()).path("dist");
+            if (!dist.isObject()) {
+                return Optional.empty();
+            }
+            PublishedDist publishedDist = ObjectMappers.MAPPER.treeToValue(dist, PublishedDist.class);
+            if (publishedDist.integrity().isEmpty() && publishedDist.shasum().isEmpty()) {
+                return Optional.empty();
+            }
+            return Optional.of(publishedDist);
+        } catch (IOException e) {
+            throw new SafeRuntimeException("Failed to read published package.json", e);
+        }
+    }
+
+    @Override
+    public Optional<String> accepts() {
+        return Optional.of("application/json");
+    }
+}
@@ -17,22 +17,60 @@
 package com.gradlets.gradle.npm;
 
 import com.gradlets.gradle.typescript.shim.NpmArtifactoryShim;
+import com.gradlets.gradle.typescript.shim.ShimConfiguration;
+import com.gradlets.gradle.typescript.shim.ShimDaemonClient;
+import com.gradlets.gradle.typescript.shim.ShimMetrics;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.gradle.api.invocation.Gradle;
+import org.gradle.api.logging.LogLevel;
+import org.gradle.api.logging.Logger;
+import org.gradle.api.logging.Logging;
 
 final class ShimManager {
+    private static final Logger log = Logging.getLogger(ShimManager.class);
     private static ConcurrentHashMap<String, NpmArtifactoryShim.ShimServer> shims = new ConcurrentHashMap<>();
 
     static NpmArtifactoryShim.ShimServer getOrCreateShim(Gradle gradle, String url) {
         return shims.computeIfAbsent(url, _url -> {
-            NpmArtifactoryShim.ShimServer shimServer = NpmArtifactoryShim.startServer(url);
+            NpmArtifactoryShim.ShimServer shimServer = startShim(url);
+            shimServer.prefetch(lockfiles(gradle));
             BuildListeners.onBuildFinish(gradle, () -> {
                 shims.remove(url);
+                // Shim daemons report everything they served since they started, not just this build
+                LogLevel level = ShimConfiguration.logShimMetrics() ? LogLevel.LIFECYCLE : LogLevel.INFO;
+                shimServer
+                        .metrics()
+                        .ifPresent(metrics ->
+                                log.log(level, "npm shim for {} served\n{}", url, ShimMetrics.summary(metrics)));
                 shimServer.close();
             });
             return shimServer;
         });
     }
 
+    private static NpmArtifactoryShim.ShimServer startShim(String url) {
+        if (ShimConfiguration.useShimDaemon()) {
+            try {
+                return ShimDaemonClient.connect(url);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Failed to connect to npm shim daemon, starting the shim in process", e);
+            }
+        }
+        return NpmArtifactoryShim.startServer(url);
+    }
+
+    private static List<Path> lockfiles(Gradle gradle) {
+        Path rootDir = gradle.getRootProject().getProjectDir().toPath();
+        return Stream.of(rootDir.resolve("versions.lock"), rootDir.resolve("gradle.lockfile"))
+                .filter(Files::exists)
+                .collect(Collectors.toList());
+    }
+
     private ShimManager() {}
 }
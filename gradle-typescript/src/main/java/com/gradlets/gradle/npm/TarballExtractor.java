@@ -0,0 +1,194 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.npm;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.GZIPInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+
+/**
+ * Unpacks npm tarballs. The calling thread inflates and reads the archive while a shared pool of writers puts
+ * entries on disk, bounded by the number of bytes that may be buffered in between.
+ */
+final class TarballExtractor {
+    private static final int BUFFER_SIZE = 256 * 1024;
+    // Entries bigger than this are streamed straight to disk by the reading thread
+    private static final int MAX_BUFFERED_ENTRY_SIZE = 4 * 1024 * 1024;
+    private static final int MAX_BUFFERED_BYTES = 32 * 1024 * 1024;
+    private static final int PERMISSION_BITS = 0777;
+
+    private static final ExecutorService WRITERS = Executors.newFixedThreadPool(
+            Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors())),
+            new ThreadFactoryBuilder()
+                    .setNameFormat("npm-extract-%d")
+                    .setDaemon(true)
+                    .build());
+
+    static void extract(Path sourceFile, Path destDirectory) throws IOException {
+        Semaphore bufferedBytes = new Semaphore(MAX_BUFFERED_BYTES);
+        Map<Path, Future<?>> pendingWrites = new LinkedHashMap<>();
+        Map<Path, Path> hardLinks = new LinkedHashMap<>();
+        Set<Path> createdDirectories = new HashSet<>();
+        Set<Path> extractedEntries = new HashSet<>();
+        // Writers hold the read lock while touching the disk so that a failed extraction can wait them out
+        ReadWriteLock writersLock = new ReentrantReadWriteLock();
+        AtomicBoolean aborted = new AtomicBoolean();
+        boolean extracted = false;
+
+        try (TarArchiveInputStream tgzInputStream = new TarArchiveInputStream(new GZIPInputStream(
+                new BufferedInputStream(Files.newInputStream(sourceFile), BUFFER_SIZE), BUFFER_SIZE))) {
+            createDirectories(destDirectory, createdDirectories);
+
+            TarArchiveEntry entry;
+            while ((entry = tgzInputStream.getNextTarEntry()) != null) {
+                Path destPath = destDirectory.resolve(trimPackage(entry.getName()));
+                createDirectories(destPath.getParent(), createdDirectories);
+
+                if (entry.isDirectory()) {
+                    createDirectories(destPath, createdDirectories);
+                    continue;
+                }
+
+                // Archives may contain the same path more than once, the last entry wins like it does with tar
+                hardLinks.remove(destPath);
+                Future<?> previousWrite = pendingWrites.remove(destPath);
+                if (previousWrite != null) {
+                    await(previousWrite);
+                }
+                if (!extractedEntries.add(destPath)) {
+                    Files.deleteIfExists(destPath);
+                }
+
+                if (entry.isSymbolicLink()) {
+                    Files.createSymbolicLink(destPath, Paths.get(entry.getLinkName()));
+                } else if (entry.isLink()) {
+                    // Link targets might still be in flight, create these once all files are written
+                    hardLinks.put(destPath, destDirectory.resolve(entry.getLinkName()));
+                } else if (entry.getSize() > MAX_BUFFERED_ENTRY_SIZE) {
+                    writeFile(destPath, tgzInputStream, entry.getMode());
+                } else {
+                    int size = (int) entry.getSize();
+                    int mode = entry.getMode();
+                    bufferedBytes.acquireUninterruptibly(size);
+                    byte[] contents = tgzInputStream.readNBytes(size);
+                    pendingWrites.put(destPath, WRITERS.submit(() -> {
+                        writersLock.readLock().lock();
+                        try {
+                            if (!aborted.get()) {
+                                Files.write(destPath, contents);
+                                setPermissions(destPath, mode);
+                            }
+                        } finally {
+                            writersLock.readLock().unlock();
+                            bufferedBytes.release(size);
+                        }
+                        return null;
+                    }));
+                }
+            }
+
+            for (Future<?> write : pendingWrites.values()) {
+                await(write);
+            }
+            for (Map.Entry<Path, Path> hardLink : hardLinks.entrySet()) {
+                Files.createLink(hardLink.getKey(), hardLink.getValue());
+            }
+            extracted = true;
+        } finally {
+            if (!extracted) {
+                // Writes that have not started yet are skipped, the ones in progress are interrupted and awaited so
+                // that nothing touches the destination once this method returns
+                aborted.set(true);
+                pendingWrites.values().forEach(write -> write.cancel(true));
+                writersLock.writeLock().lock();
+                writersLock.writeLock().unlock();
+            }
+        }
+    }
+
+    private static void writeFile(Path destPath, InputStream contents, int mode) throws IOException {
+        Files.copy(contents, destPath, StandardCopyOption.REPLACE_EXISTING);
+        setPermissions(destPath, mode);
+    }
+
+    private static void setPermissions(Path destPath, int mode) throws IOException {
+        Set<PosixFilePermission> permissions = toPermissions(mode & PERMISSION_BITS);
+        // Most entries already match what the umask gave them, skip the extra syscall for those
+        if (!Files.getPosixFilePermissions(destPath).equals(permissions)) {
+            Files.setPosixFilePermissions(destPath, permissions);
+        }
+    }
+
+    private static Set<PosixFilePermission> toPermissions(int permissions) {
+        Set<PosixFilePermission> result = EnumSet.noneOf(PosixFilePermission.class);
+        PosixFilePermission[] orderedPermissions = PosixFilePermission.values();
+        for (int mask = 1, perm = orderedPermissions.length - 1; mask < 01000; mask <<= 1, perm -= 1) {
+            if ((permissions & mask) != 0) {
+                result.add(orderedPermissions[perm]);
+            }
+        }
+        return result;
+    }
+
+    private static void createDirectories(Path directory, Set<Path> createdDirectories) throws IOException {
+        if (createdDirectories.add(directory)) {
+            Files.createDirectories(directory);
+        }
+    }
+
+    private static void await(Future<?> write) throws IOException {
+        try {
+            write.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while extracting npm package", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to extract npm package", e.getCause());
+        }
+    }
+
+    private static String trimPackage(String entryName) {
+        return entryName.replaceFirst("package/", "");
+    }
+
+    private TarballExtractor() {}
+}
@@ -28,6 +28,8 @@ public class DefaultTypeScriptPluginExtension implements TypeScriptPluginExtensi
     private final SourceSetContainer sourceSets;
     private final Property<String> sourceCompat;
     private final MapProperty<String, Object> compilerOptions;
+    private final Property<Boolean> compilerDaemon;
+    private final Property<Boolean> batchCompilation;
 
     static TypeScriptPluginExtension register(Project project) {
         return project.getExtensions()
@@ -42,6 +44,8 @@ public class DefaultTypeScriptPluginExtension implements TypeScriptPluginExtensi
         sourceSets = objects.newInstance(DefaultSourceSetContainer.class);
         sourceCompat = objects.property(String.class).convention(DEFAULT_TYPESCRIPT_VERSION);
         compilerOptions = objects.mapProperty(String.class, Object.class);
+        compilerDaemon = objects.property(Boolean.class).convention(false);
+        batchCompilation = objects.property(Boolean.class).convention(false);
     }
 
     @Override
@@ -58,4 +62,14 @@ public class DefaultTypeScriptPluginExtension implements TypeScriptPluginExtensi
     public final MapProperty<String, Object> getCompilerOptions() {
         return compilerOptions;
     }
+
+    @Override
+    public final Property<Boolean> getCompilerDaemon() {
+        return compilerDaemon;
+    }
+
+    @Override
+    public final Property<Boolean> getBatchCompilation() {
+        return batchCompilation;
+    }
 }
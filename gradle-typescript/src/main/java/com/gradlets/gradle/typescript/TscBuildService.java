@@ -0,0 +1,122 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * Batches the TypeScriptCompile tasks that gradle runs concurrently into a single {@code tsc --build} invocation, so
+ * that the declaration files shared between those projects are only parsed once. Tasks are only handed to this
+ * service once gradle has decided they are out of date, and each batch consists of tasks whose dependencies have
+ * already been compiled. Diagnostics of a batch are attributed to its projects by the files they are about, so that
+ * only the tasks whose sources have errors fail.
+ */
+public abstract class TscBuildService implements BuildService<BuildServiceParameters.None>, AutoCloseable {
+    public static final String NAME = "typeScriptBuild";
+
+    private static final long BATCH_WINDOW_MILLIS = 100;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                    .setNameFormat("tsc-build-scheduler")
+                    .setDaemon(true)
+                    .build());
+    private final ExecutorService executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("tsc-build-%d")
+            .setDaemon(true)
+            .build());
+    private final Map<Path, Map<Path, Set<Path>>> pendingProjects = new HashMap<>();
+    private final Map<Path, CompletableFuture<Map<Path, TscDiagnostics.ProjectResult>>> pendingResults =
+            new HashMap<>();
+
+    /**
+     * Schedules the project of the given config to be built with the next batch of the given typescript distribution.
+     * Resolves to the outcome for this project, judged by the diagnostics tsc reported about the given sources.
+     */
+    public final CompletableFuture<TscDiagnostics.ProjectResult> build(
+            Path typeScriptDir, Path configFile, Set<Path> sourceFiles) {
+        synchronized (pendingProjects) {
+            Map<Path, Set<Path>> projects = pendingProjects.get(typeScriptDir);
+            if (projects == null) {
+                projects = new LinkedHashMap<>();
+                pendingProjects.put(typeScriptDir, projects);
+                pendingResults.put(typeScriptDir, new CompletableFuture<>());
+                scheduler.schedule(
+                        () -> executor.execute(() -> runBatch(typeScriptDir)),
+                        BATCH_WINDOW_MILLIS,
+                        TimeUnit.MILLISECONDS);
+            }
+            projects.put(configFile, sourceFiles);
+            return pendingResults.get(typeScriptDir).thenApply(results -> results.get(configFile));
+        }
+    }
+
+    private void runBatch(Path typeScriptDir) {
+        Map<Path, Set<Path>> projects;
+        CompletableFuture<Map<Path, TscDiagnostics.ProjectResult>> result;
+        synchronized (pendingProjects) {
+            projects = pendingProjects.remove(typeScriptDir);
+            result = pendingResults.remove(typeScriptDir);
+        }
+
+        List<String> command = new ArrayList<>();
+        command.add(new File(typeScriptDir.toFile(), "bin/tsc").getAbsolutePath());
+        command.add("--build");
+        command.add("--pretty");
+        command.add("false");
+        projects.keySet().forEach(project -> command.add(project.toAbsolutePath().toString()));
+        try {
+            // Diagnostics are printed relative to the working directory, run in a known one to resolve them
+            Process process = new ProcessBuilder(command)
+                    .directory(typeScriptDir.toFile())
+                    .redirectErrorStream(true)
+                    .start();
+            String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            int exitCode = process.waitFor();
+            result.complete(TscDiagnostics.attribute(
+                    exitCode, TscDiagnostics.parse(typeScriptDir, output), projects));
+        } catch (IOException | RuntimeException e) {
+            result.completeExceptionally(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            result.completeExceptionally(e);
+        }
+    }
+
+    @Override
+    public final void close() {
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+}
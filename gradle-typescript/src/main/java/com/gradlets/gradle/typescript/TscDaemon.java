@@ -0,0 +1,165 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.google.common.annotations.VisibleForTesting;
+import com.gradlets.gradle.ImmutablesStyle;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIoException;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.immutables.value.Value;
+
+/** A long-lived node process hosting the TypeScript compiler API of a single typescript distribution. */
+final class TscDaemon implements Closeable {
+    private static final String LISTENING_PREFIX = "listening ";
+    private static final Duration START_TIMEOUT = Duration.ofMinutes(1);
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    // Generous since a cold compile of a large project can take a while, it only guards against a wedged node process
+    private static final Duration COMPILE_TIMEOUT = Duration.ofMinutes(30);
+
+    private final Process process;
+    private final int port;
+    private final Duration compileTimeout;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile long lastUsedNanos = System.nanoTime();
+
+    private TscDaemon(Process process, int port, Duration compileTimeout) {
+        this.process = process;
+        this.port = port;
+        this.compileTimeout = compileTimeout;
+    }
+
+    static TscDaemon start(Path daemonScript, Path typeScriptDir, Path logFile) throws IOException {
+        return start(daemonScript, typeScriptDir, logFile, START_TIMEOUT, COMPILE_TIMEOUT);
+    }
+
+    @VisibleForTesting
+    static TscDaemon start(
+            Path daemonScript, Path typeScriptDir, Path logFile, Duration startTimeout, Duration compileTimeout)
+            throws IOException {
+        Process process = new ProcessBuilder("node", daemonScript.toString(), typeScriptDir.toString())
+                .redirectError(ProcessBuilder.Redirect.appendTo(logFile.toFile()))
+                .start();
+        CompletableFuture<Integer> port = new CompletableFuture<>();
+        Thread drainer = new Thread(() -> drainOutput(process, logFile, port), "tsc-daemon-output");
+        drainer.setDaemon(true);
+        drainer.start();
+        try {
+            return new TscDaemon(process, port.get(startTimeout.toMillis(), TimeUnit.MILLISECONDS), compileTimeout);
+        } catch (ExecutionException | TimeoutException e) {
+            process.destroyForcibly();
+            throw new SafeIoException(
+                    "Failed to start tsc daemon", e, SafeArg.of("logFile", logFile.toAbsolutePath().toString()));
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+            throw new SafeIoException("Interrupted while starting tsc daemon", e);
+        }
+    }
+
+    // Reads the port the daemon listens on, then keeps draining stdout into the log so the daemon never blocks on a
+    // full pipe
+    private static void drainOutput(Process process, Path logFile, CompletableFuture<Integer> port) {
+        try (BufferedReader reader =
+                        new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+                Writer logWriter = Files.newBufferedWriter(
+                        logFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!port.isDone() && line.startsWith(LISTENING_PREFIX)) {
+                    port.complete(Integer.parseInt(line.substring(LISTENING_PREFIX.length())));
+                } else {
+                    logWriter.write(line);
+                    logWriter.write('\n');
+                    logWriter.flush();
+                }
+            }
+            port.completeExceptionally(new SafeIoException("tsc daemon exited"));
+        } catch (IOException | RuntimeException e) {
+            port.completeExceptionally(e);
+        }
+    }
+
+    CompileResult compile(Path configFile) throws IOException {
+        inFlight.incrementAndGet();
+        try (Socket socket = new Socket()) {
+            socket.connect(
+                    new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                    Math.toIntExact(CONNECT_TIMEOUT.toMillis()));
+            socket.setSoTimeout(Math.toIntExact(compileTimeout.toMillis()));
+            OutputStream output = socket.getOutputStream();
+            output.write(ObjectMappers.MAPPER.writeValueAsBytes(
+                    Map.of("project", configFile.toAbsolutePath().toString())));
+            output.flush();
+            socket.shutdownOutput();
+            try (InputStream input = socket.getInputStream()) {
+                return ObjectMappers.MAPPER.readValue(input, CompileResult.class);
+            }
+        } finally {
+            lastUsedNanos = System.nanoTime();
+            inFlight.decrementAndGet();
+        }
+    }
+
+    boolean isAlive() {
+        return process.isAlive();
+    }
+
+    boolean isBusy() {
+        return inFlight.get() > 0;
+    }
+
+    long idleNanos() {
+        return System.nanoTime() - lastUsedNanos;
+    }
+
+    @Override
+    public void close() {
+        // Forcibly, a daemon that timed out might not react to anything else
+        process.destroyForcibly();
+    }
+
+    @Value.Immutable
+    @ImmutablesStyle
+    @JsonDeserialize(as = ImmutableCompileResult.class)
+    interface CompileResult {
+        int exitCode();
+
+        String output();
+    }
+}
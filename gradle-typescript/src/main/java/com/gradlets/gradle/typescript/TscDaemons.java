@@ -0,0 +1,120 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.Resources;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps track of the {@link TscDaemon}s running inside this gradle daemon, one per typescript distribution. Daemons
+ * survive across builds and are evicted once idle or when too many of them are resident.
+ */
+final class TscDaemons {
+    private static final String DAEMON_SCRIPT = "/tsc-daemon.js";
+    private static final long IDLE_TIMEOUT_NANOS = Duration.ofMinutes(15).toNanos();
+    private static final int MAX_RESIDENT_DAEMONS = 3;
+
+    // Access ordered so that iteration starts from the least recently used daemon
+    private static final Map<Path, TscDaemon> daemons = new LinkedHashMap<>(16, 0.75f, true);
+    private static final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                    .setNameFormat("tsc-daemon-evictor")
+                    .setDaemon(true)
+                    .build());
+
+    static {
+        evictor.scheduleWithFixedDelay(TscDaemons::evictIdle, 1, 1, TimeUnit.MINUTES);
+    }
+
+    static synchronized TscDaemon getOrCreate(Path daemonDir, Path typeScriptDir) throws IOException {
+        TscDaemon existing = daemons.get(typeScriptDir);
+        if (existing != null && existing.isAlive()) {
+            return existing;
+        }
+        daemons.remove(typeScriptDir);
+
+        evictLeastRecentlyUsed(MAX_RESIDENT_DAEMONS - 1);
+        Files.createDirectories(daemonDir);
+        TscDaemon daemon = TscDaemon.start(writeDaemonScript(daemonDir), typeScriptDir, daemonDir.resolve("tsc.log"));
+        daemons.put(typeScriptDir, daemon);
+        return daemon;
+    }
+
+    static synchronized void remove(Path typeScriptDir) {
+        TscDaemon daemon = daemons.remove(typeScriptDir);
+        if (daemon != null) {
+            daemon.close();
+        }
+    }
+
+    private static void evictLeastRecentlyUsed(int maxResident) {
+        Iterator<TscDaemon> iterator = daemons.values().iterator();
+        while (daemons.size() > maxResident && iterator.hasNext()) {
+            TscDaemon daemon = iterator.next();
+            if (!daemon.isBusy()) {
+                iterator.remove();
+                daemon.close();
+            }
+        }
+    }
+
+    private static synchronized void evictIdle() {
+        List<TscDaemon> evicted = new ArrayList<>();
+        daemons.values().removeIf(daemon -> {
+            boolean expired = !daemon.isAlive() || (!daemon.isBusy() && daemon.idleNanos() > IDLE_TIMEOUT_NANOS);
+            if (expired) {
+                evicted.add(daemon);
+            }
+            return expired;
+        });
+        evicted.forEach(TscDaemon::close);
+    }
+
+    // Script name is content addressed so daemons of different plugin versions never overwrite each other's script
+    private static Path writeDaemonScript(Path daemonDir) throws IOException {
+        String script =
+                Resources.toString(Resources.getResource(TscDaemons.class, DAEMON_SCRIPT), StandardCharsets.UTF_8);
+        String hash = Hashing.sha256()
+                .hashString(script, StandardCharsets.UTF_8)
+                .toString()
+                .substring(0, 16);
+        Path scriptPath = daemonDir.resolve("tsc-daemon-" + hash + ".js");
+        if (!Files.exists(scriptPath)) {
+            Path tempFile = Files.createTempFile(daemonDir, "tsc-daemon", ".tmp");
+            Files.writeString(tempFile, script, StandardCharsets.UTF_8);
+            Files.move(tempFile, scriptPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        return scriptPath;
+    }
+
+    private TscDaemons() {}
+}
@@ -0,0 +1,155 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript;
+
+import com.gradlets.gradle.ImmutablesStyle;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.immutables.value.Value;
+
+/** Diagnostics of a {@code tsc --build --pretty false} run, and which of the projects it built they belong to. */
+final class TscDiagnostics {
+    private static final Pattern FILE_DIAGNOSTIC =
+            Pattern.compile("^(.+)\\(\\d+,\\d+\\): (error|warning|message) TS\\d+: .*");
+    private static final Pattern GLOBAL_DIAGNOSTIC = Pattern.compile("^(error|warning|message) TS\\d+: .*");
+
+    private TscDiagnostics() {}
+
+    /** Parses tsc output, file paths are resolved against the directory tsc ran in. */
+    static List<Diagnostic> parse(Path workingDir, String output) {
+        List<Diagnostic> diagnostics = new ArrayList<>();
+        Diagnostic.Builder current = null;
+        StringBuilder text = new StringBuilder();
+        for (String line : output.split("\\R")) {
+            Matcher fileDiagnostic = FILE_DIAGNOSTIC.matcher(line);
+            Matcher globalDiagnostic = GLOBAL_DIAGNOSTIC.matcher(line);
+            if (fileDiagnostic.matches() || globalDiagnostic.matches()) {
+                if (current != null) {
+                    diagnostics.add(current.text(text.toString()).build());
+                }
+                current = Diagnostic.builder();
+                text.setLength(0);
+                if (fileDiagnostic.matches()) {
+                    current.file(workingDir
+                                    .resolve(fileDiagnostic.group(1))
+                                    .toAbsolutePath()
+                                    .normalize())
+                            .error(fileDiagnostic.group(2).equals("error"));
+                } else {
+                    current.error(globalDiagnostic.group(1).equals("error"));
+                }
+                text.append(line).append('\n');
+            } else if (current != null && !line.isEmpty() && Character.isWhitespace(line.charAt(0))) {
+                // Continuation of a chained message
+                text.append(line).append('\n');
+            }
+        }
+        if (current != null) {
+            diagnostics.add(current.text(text.toString()).build());
+        }
+        return diagnostics;
+    }
+
+    /**
+     * Attributes diagnostics to the projects whose sources they are about, keyed by the config file of each project.
+     * Projects fail on their own errors only. Errors about no source of any project, or a failed run without errors,
+     * can't be attributed and leave the projects that have no errors of their own undecided.
+     */
+    static Map<Path, ProjectResult> attribute(
+            int exitCode, List<Diagnostic> diagnostics, Map<Path, Set<Path>> projectSources) {
+        Map<Path, Path> projectsBySource = new HashMap<>();
+        projectSources.forEach((project, sources) -> sources.forEach(
+                source -> projectsBySource.put(source.toAbsolutePath().normalize(), project)));
+
+        Map<Path, StringBuilder> outputs = new HashMap<>();
+        Set<Path> failedProjects = new HashSet<>();
+        boolean unattributedErrors = false;
+        for (Diagnostic diagnostic : diagnostics) {
+            Optional<Path> project = diagnostic.file().map(projectsBySource::get);
+            if (project.isPresent()) {
+                outputs.computeIfAbsent(project.get(), _project -> new StringBuilder())
+                        .append(diagnostic.text());
+                if (diagnostic.error()) {
+                    failedProjects.add(project.get());
+                }
+            } else if (diagnostic.error()) {
+                unattributedErrors = true;
+            }
+        }
+        boolean undecided = unattributedErrors || (exitCode != 0 && failedProjects.isEmpty());
+
+        Map<Path, ProjectResult> results = new HashMap<>();
+        for (Path project : projectSources.keySet()) {
+            boolean failed = failedProjects.contains(project);
+            results.put(
+                    project,
+                    ProjectResult.builder()
+                            .failed(failed)
+                            .undecided(!failed && undecided)
+                            .output(Optional.ofNullable(outputs.get(project))
+                                    .map(StringBuilder::toString)
+                                    .orElse(""))
+                            .build());
+        }
+        return results;
+    }
+
+    @Value.Immutable
+    @ImmutablesStyle
+    interface Diagnostic {
+        /** Absolute path of the file the diagnostic is about, if any. */
+        Optional<Path> file();
+
+        boolean error();
+
+        /** The diagnostic as tsc printed it, including continuation lines. */
+        String text();
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        class Builder extends ImmutableDiagnostic.Builder {}
+    }
+
+    @Value.Immutable
+    @ImmutablesStyle
+    interface ProjectResult {
+        /** Whether tsc reported errors in the sources of the project. */
+        boolean failed();
+
+        /** Whether the project has to be compiled on its own to tell if errors tsc couldn't attribute are its own. */
+        boolean undecided();
+
+        /** Diagnostics about the sources of the project. */
+        String output();
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        class Builder extends ImmutableProjectResult.Builder {}
+    }
+}
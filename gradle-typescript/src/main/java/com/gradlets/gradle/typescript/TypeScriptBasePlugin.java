@@ -111,15 +111,24 @@ public final class TypeScriptBasePlugin implements Plugin<Project> {
 
     private static Provider<TypeScriptCompile> createCompileTask(
             Project project, SourceSet sourceSet, TypeScriptPluginExtension typeScriptPluginExtension) {
+        Provider<TscBuildService> buildService = project.getGradle()
+                .getSharedServices()
+                .registerIfAbsent(TscBuildService.NAME, TscBuildService.class, _spec -> {});
         return project.getTasks().register(sourceSet.getCompileTypeScriptTaskName(), TypeScriptCompile.class, task -> {
             task.setGroup(LifecycleBasePlugin.BUILD_GROUP);
             task.setDescription("Compiles " + sourceSet.getName());
             task.getClasspath().from(sourceSet.getCompileClasspath());
             task.getOutputDir().set(sourceSet.getSource().getDestinationDirectory());
+            task.getBuildInfoDir()
+                    .set(project.getLayout().getBuildDirectory().dir("tsbuildinfo/" + sourceSet.getName()));
             task.getCompilerOptions().value(typeScriptPluginExtension.getCompilerOptions());
             task.getTypeRoots().from(project.getConfigurations().named(sourceSet.getCompileTypesConfigurationName()));
 
             task.getTypeScriptVersion().set(typeScriptPluginExtension.getSourceCompatibility());
+            task.getCompilerDaemon().set(typeScriptPluginExtension.getCompilerDaemon());
+            task.getBatchCompilation().set(typeScriptPluginExtension.getBatchCompilation());
+            task.getBuildService().set(buildService);
+            task.usesService(buildService);
             task.source(sourceSet.getSource());
         });
     }
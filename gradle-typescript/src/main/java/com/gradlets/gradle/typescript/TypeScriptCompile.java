@@ -16,31 +16,60 @@
 
 package com.gradlets.gradle.typescript;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.gradle.api.GradleException;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.Dependency;
 import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.FileTree;
+import org.gradle.api.file.FileType;
 import org.gradle.api.internal.artifacts.ArtifactAttributes;
 import org.gradle.api.provider.MapProperty;
 import org.gradle.api.provider.Property;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Classpath;
+import org.gradle.api.tasks.IgnoreEmptyDirectories;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFiles;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.LocalState;
 import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.PathSensitive;
 import org.gradle.api.tasks.PathSensitivity;
+import org.gradle.api.tasks.SkipWhenEmpty;
 import org.gradle.api.tasks.SourceTask;
 import org.gradle.api.tasks.TaskAction;
 import org.gradle.process.ExecResult;
+import org.gradle.work.ChangeType;
+import org.gradle.work.InputChanges;
 
+// Inputs are normalized relative to their roots so that compiled scripts can be shared through the build cache
+// between checkouts in different locations
+@CacheableTask
 public class TypeScriptCompile extends SourceTask {
+    private static final String BUILD_INFO_FILE = "tsconfig.tsbuildinfo";
+    private static final String SOURCE_ROOT_FILE = "source-root";
+    private static final ImmutableMap<String, ImmutableList<String>> EMITTED_EXTENSIONS = ImmutableMap.of(
+            ".ts", ImmutableList.of(".js", ".d.ts"),
+            ".tsx", ImmutableList.of(".js", ".jsx", ".d.ts"),
+            ".mts", ImmutableList.of(".mjs", ".d.mts"),
+            ".cts", ImmutableList.of(".cjs", ".d.cts"),
+            ".json", ImmutableList.of(".json"));
 
     private final Property<String> typeScriptVersion = getProject().getObjects().property(String.class);
     private final ConfigurableFileCollection typeRoots =
@@ -50,14 +79,34 @@ public class TypeScriptCompile extends SourceTask {
     private final DirectoryProperty outputDir = getProject().getObjects().directoryProperty();
     private final MapProperty<String, Object> compilerOptions =
             getProject().getObjects().mapProperty(String.class, Object.class);
+    private final Property<Boolean> compilerDaemon =
+            getProject().getObjects().property(Boolean.class).convention(false);
+    private final Property<Boolean> batchCompilation =
+            getProject().getObjects().property(Boolean.class).convention(false);
+    private final Property<TscBuildService> buildService =
+            getProject().getObjects().property(TscBuildService.class);
+    private final DirectoryProperty buildInfoDir = getProject().getObjects().directoryProperty();
+    private final Provider<List<String>> dependencyPackageNames = getProject()
+            .provider(() -> ImmutableList.<String>builder()
+                    .addAll(TypeScriptConfigs.getPackageNames(classpath.getFiles()))
+                    .addAll(TypeScriptConfigs.getPackageNames(typeRoots.getFiles()))
+                    .build());
 
     @Input
     final Property<String> getTypeScriptVersion() {
         return typeScriptVersion;
     }
 
+    @Override
     @InputFiles
-    @PathSensitive(PathSensitivity.ABSOLUTE)
+    @SkipWhenEmpty
+    @IgnoreEmptyDirectories
+    @PathSensitive(PathSensitivity.RELATIVE)
+    public FileTree getSource() {
+        return super.getSource();
+    }
+
+    @Classpath
     final ConfigurableFileCollection getTypeRoots() {
         return typeRoots;
     }
@@ -67,6 +116,15 @@ public class TypeScriptCompile extends SourceTask {
         return classpath;
     }
 
+    /**
+     * Classpath normalization drops the directories dependencies live in, which is where their names come from. It
+     * keeps the order of dependencies though, so listing their names in the same order pairs each name with contents.
+     */
+    @Input
+    final Provider<List<String>> getDependencyPackageNames() {
+        return dependencyPackageNames;
+    }
+
     @OutputDirectory
     final DirectoryProperty getOutputDir() {
         return outputDir;
@@ -77,39 +135,184 @@ public class TypeScriptCompile extends SourceTask {
         return compilerOptions;
     }
 
+    @LocalState
+    final DirectoryProperty getBuildInfoDir() {
+        return buildInfoDir;
+    }
+
+    @Internal
+    final Property<Boolean> getCompilerDaemon() {
+        return compilerDaemon;
+    }
+
+    @Internal
+    final Property<Boolean> getBatchCompilation() {
+        return batchCompilation;
+    }
+
+    @Internal
+    final Property<TscBuildService> getBuildService() {
+        return buildService;
+    }
+
     @TaskAction
-    public final void compile() throws IOException {
+    public final void compile(InputChanges inputChanges) throws IOException {
         Dependency tscDependency = getProject().getDependencies().create("npm:typescript:" + typeScriptVersion.get());
         Configuration tscConfiguration = getProject().getConfigurations().detachedConfiguration(tscDependency);
         tscConfiguration.getAttributes().attribute(ArtifactAttributes.ARTIFACT_FORMAT, "module");
 
+        Set<File> sourceFiles = getSource().getFiles();
+        Path buildInfoPath = buildInfoDir.get().getAsFile().toPath();
+        Optional<Path> sourceRoot = TypeScriptConfigs.commonSourceDirectory(sourceFiles);
+        prepareOutputs(inputChanges, buildInfoPath, sourceRoot);
+
         Path configFile = getTemporaryDir().toPath().resolve("tsconfig.json");
-        Files.createDirectories(configFile.getParent());
+        Path configDir = configFile.getParent();
+        ImmutableMap.Builder<String, Object> taskCompilerOptions = ImmutableMap.<String, Object>builder()
+                .put("incremental", true)
+                .put(
+                        "tsBuildInfoFile",
+                        TypeScriptConfigs.toConfigPath(configDir, buildInfoPath.resolve(BUILD_INFO_FILE)));
+        sourceRoot.ifPresent(
+                root -> taskCompilerOptions.put("rootDir", TypeScriptConfigs.toConfigPath(configDir, root)));
+
+        Files.createDirectories(configDir);
         ObjectMappers.MAPPER.writeValue(
                 configFile.toFile(),
                 TypeScriptConfigs.createGradleTsConfig(
+                        configDir,
                         outputDir.get().getAsFile().toPath(),
-                        getSource().getFiles(),
+                        sourceFiles,
                         classpath.getFiles(),
                         typeRoots.getFiles(),
-                        compilerOptions.get()));
+                        compilerOptions.get(),
+                        taskCompilerOptions.buildOrThrow()));
+
+        File typeScriptDir = tscConfiguration.getSingleFile();
+        int exitValue;
+        if (batchCompilation.get()) {
+            exitValue = compileInBatch(typeScriptDir, configFile, sourceFiles);
+        } else {
+            exitValue = compileAlone(typeScriptDir, configFile);
+        }
+
+        if (exitValue != 0) {
+            logAllDependantPackages(classpath.getFiles());
+            throw new GradleException(String.format("Failed to compile with exit code %s", exitValue));
+        }
+    }
+
+    // tsc only re-emits changed files and their dependants based on the build info, but never cleans up after removed
+    // sources. Outputs of those are deleted here, everything is wiped if gradle can't tell us what changed.
+    private void prepareOutputs(InputChanges inputChanges, Path buildInfoPath, Optional<Path> sourceRoot)
+            throws IOException {
+        Path sourceRootFile = buildInfoPath.resolve(SOURCE_ROOT_FILE);
+        Optional<Path> previousSourceRoot = Files.exists(sourceRootFile)
+                ? Optional.of(Paths.get(Files.readString(sourceRootFile, StandardCharsets.UTF_8)))
+                : Optional.empty();
+
+        if (!inputChanges.isIncremental() || !previousSourceRoot.equals(sourceRoot)) {
+            getProject().delete(outputDir.getAsFileTree().getFiles());
+            getProject().delete(buildInfoDir.getAsFileTree().getFiles());
+        } else {
+            Path outputPath = outputDir.get().getAsFile().toPath();
+            inputChanges.getFileChanges(getSource()).forEach(change -> {
+                if (change.getChangeType() == ChangeType.REMOVED && change.getFileType() == FileType.FILE) {
+                    sourceRoot.ifPresent(root -> getProject().delete(emittedFiles(root, outputPath, change.getFile())));
+                }
+            });
+        }
+
+        Files.createDirectories(buildInfoPath);
+        if (sourceRoot.isPresent()) {
+            Files.writeString(sourceRootFile, sourceRoot.get().toString(), StandardCharsets.UTF_8);
+        } else {
+            Files.deleteIfExists(sourceRootFile);
+        }
+    }
+
+    private static List<File> emittedFiles(Path sourceRoot, Path outputPath, File removedSource) {
+        Path relativeSource = sourceRoot.relativize(removedSource.toPath().toAbsolutePath());
+        String relativePath = relativeSource.toString();
+        if (relativeSource.startsWith("..") || TypeScriptConfigs.isDeclarationFile(relativePath)) {
+            return List.of();
+        }
+        int extensionIndex = relativePath.lastIndexOf('.');
+        if (extensionIndex < 0) {
+            return List.of();
+        }
+        String baseName = relativePath.substring(0, extensionIndex);
+        return EMITTED_EXTENSIONS.getOrDefault(relativePath.substring(extensionIndex), ImmutableList.of()).stream()
+                .flatMap(extension -> Stream.of(extension, extension + ".map"))
+                .map(extension -> outputPath.resolve(baseName + extension).toFile())
+                .collect(Collectors.toList());
+    }
 
+    private int compileWithTsc(File typeScriptDir, Path configFile) {
         ExecResult execResult = getProject().exec(execSpec -> {
-            execSpec.setExecutable(getTscExecutable(tscConfiguration));
+            execSpec.setExecutable(getTscExecutable(typeScriptDir));
             execSpec.args("--project", configFile);
             // TODO(forozco): better support compilation errors
             execSpec.setStandardOutput(System.err);
             execSpec.setIgnoreExitValue(true);
         });
+        return execResult.getExitValue();
+    }
 
-        if (execResult.getExitValue() != 0) {
-            logAllDependantPackages(classpath.getFiles());
-            throw new GradleException(String.format("Failed to compile with exit code %s", execResult.getExitValue()));
+    // Batch compilation takes precedence over the compiler daemon, which only compiles projects that need to be
+    // compiled on their own
+    @SuppressWarnings("BanSystemErr")
+    private int compileInBatch(File typeScriptDir, Path configFile, Set<File> sourceFiles) {
+        TscDiagnostics.ProjectResult result;
+        try {
+            result = buildService
+                    .get()
+                    .build(
+                            typeScriptDir.toPath(),
+                            configFile,
+                            sourceFiles.stream().map(File::toPath).collect(Collectors.toUnmodifiableSet()))
+                    .join();
+        } catch (CompletionException e) {
+            getLogger().warn("Failed to compile in a batch, compiling on our own", e.getCause());
+            return compileAlone(typeScriptDir, configFile);
+        }
+        if (result.undecided()) {
+            // tsc reported errors it couldn't attribute to any project of the batch, only compiling on our own tells
+            // whether they are ours. Thanks to the build info this is cheap if our project compiled fine.
+            return compileAlone(typeScriptDir, configFile);
+        }
+        System.err.print(result.output());
+        return result.failed() ? 1 : 0;
+    }
+
+    private int compileAlone(File typeScriptDir, Path configFile) {
+        return compilerDaemon.get()
+                ? compileWithDaemon(typeScriptDir.toPath(), configFile)
+                : compileWithTsc(typeScriptDir, configFile);
+    }
+
+    @SuppressWarnings("BanSystemErr")
+    private int compileWithDaemon(Path typeScriptDir, Path configFile) {
+        Path daemonDir = getProject()
+                .getGradle()
+                .getGradleUserHomeDir()
+                .toPath()
+                .resolve("caches")
+                .resolve("gradle-typescript")
+                .resolve("tsc-daemon");
+        try {
+            TscDaemon.CompileResult result = TscDaemons.getOrCreate(daemonDir, typeScriptDir).compile(configFile);
+            System.err.print(result.output());
+            return result.exitCode();
+        } catch (IOException e) {
+            getLogger().warn("Failed to compile with tsc daemon, falling back to a standalone tsc process", e);
+            TscDaemons.remove(typeScriptDir);
+            return compileWithTsc(typeScriptDir.toFile(), configFile);
         }
     }
 
-    private static String getTscExecutable(Configuration tscConfiguration) {
-        return new File(tscConfiguration.getSingleFile(), "bin/tsc").getAbsolutePath();
+    private static String getTscExecutable(File typeScriptDir) {
+        return new File(typeScriptDir, "bin/tsc").getAbsolutePath();
     }
 
     @SuppressWarnings("StreamResourceLeak")
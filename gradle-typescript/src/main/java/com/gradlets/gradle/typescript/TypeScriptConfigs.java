@@ -24,7 +24,10 @@ import java.io.File;
 import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -34,19 +37,76 @@ public final class TypeScriptConfigs {
 
     // Need to create tsconfig.json since not all options can be specified through the CLI
     // https://github.com/microsoft/TypeScript/blob/eac073894b172ec719ca7f28b0b94fc6e6e7d4cf/src/compiler/commandLineParser.ts#L631
+    // Paths are relative to the directory of the config, which is where tsc resolves them from.
     public static TsConfig createGradleTsConfig(
+            Path configDir,
             Path outputDir,
             Set<File> sourceFiles,
             Set<File> dependencies,
             Set<File> typeRoots,
-            Map<String, Object> compilerOptions) {
+            Map<String, Object> compilerOptions,
+            Map<String, Object> taskCompilerOptions) {
+        Function<Path, String> toConfigPath = path -> toConfigPath(configDir, path);
         return TsConfig.builder()
-                .files(sourceFiles.stream().map(File::getAbsolutePath).collect(ImmutableSet.toImmutableSet()))
-                .putAllCompilerOptions(
-                        buildCompilerOptions(outputDir, Map.of(), dependencies, typeRoots, compilerOptions))
+                .files(sourceFiles.stream()
+                        .map(sourceFile -> toConfigPath.apply(sourceFile.toPath()))
+                        .collect(ImmutableSet.toImmutableSet()))
+                // Options the task owns, like rootDir, are added after the user's options have been validated
+                .putAllCompilerOptions(ImmutableMap.<String, Object>builder()
+                        .putAll(buildCompilerOptions(
+                                toConfigPath, outputDir, Map.of(), dependencies, typeRoots, compilerOptions))
+                        .putAll(taskCompilerOptions)
+                        .buildKeepingLast())
                 .build();
     }
 
+    /** The given path relative to the given config directory, or absolute if there is no relative path to it. */
+    public static String toConfigPath(Path configDir, Path path) {
+        Path absoluteConfigDir = configDir.toAbsolutePath();
+        Path absolutePath = path.toAbsolutePath();
+        if (!Objects.equals(absoluteConfigDir.getRoot(), absolutePath.getRoot())) {
+            return absolutePath.toString();
+        }
+        return absoluteConfigDir.relativize(absolutePath).toString();
+    }
+
+    /**
+     * Names tsc resolves the given dependencies by, in the order of the dependencies. They are derived from where
+     * dependencies live rather than from their contents.
+     */
+    public static List<String> getPackageNames(Set<File> dependencies) {
+        return dependencies.stream()
+                .map(dependency -> getPackageName(dependency.toPath()))
+                .collect(Collectors.toUnmodifiableList());
+    }
+
+    /**
+     * Mirrors how tsc picks the root of the output tree when no rootDir is given: the longest common directory of all
+     * non declaration sources.
+     */
+    public static Optional<Path> commonSourceDirectory(Set<File> sourceFiles) {
+        Path commonDirectory = null;
+        for (File sourceFile : sourceFiles) {
+            if (isDeclarationFile(sourceFile.getName())) {
+                continue;
+            }
+            Path directory = sourceFile.toPath().toAbsolutePath().getParent();
+            if (commonDirectory == null) {
+                commonDirectory = directory;
+            } else {
+                while (!directory.startsWith(commonDirectory)) {
+                    commonDirectory = commonDirectory.getParent();
+                }
+            }
+        }
+        return Optional.ofNullable(commonDirectory);
+    }
+
+    /** Whether the given file only declares types, tsc neither emits it nor roots the output tree at it. */
+    public static boolean isDeclarationFile(String fileName) {
+        return fileName.endsWith(".d.ts") || fileName.endsWith(".d.mts") || fileName.endsWith(".d.cts");
+    }
+
     public static TsConfig createTsConfigForIntellij(
             Set<Path> sourceDirectories,
             Path outputDir,
@@ -57,12 +117,18 @@ public final class TypeScriptConfigs {
         return TsConfig.builder()
                 .addAllInclude(
                         sourceDirectories.stream().map(dir -> dir + "/**/*").collect(Collectors.toUnmodifiableSet()))
-                .putAllCompilerOptions(
-                        buildCompilerOptions(outputDir, projectDependencies, dependencies, typeRoots, compilerOptions))
+                .putAllCompilerOptions(buildCompilerOptions(
+                        path -> path.toAbsolutePath().toString(),
+                        outputDir,
+                        projectDependencies,
+                        dependencies,
+                        typeRoots,
+                        compilerOptions))
                 .build();
     }
 
     private static Map<String, Object> buildCompilerOptions(
+            Function<Path, String> toConfigPath,
             Path outputDir,
             Map<String, List<Path>> projectDependencies,
             Set<File> dependencies,
@@ -72,44 +138,61 @@ public final class TypeScriptConfigs {
 
         return ImmutableMap.<String, Object>builder()
                 .putAll(compilerOptions)
-                .put("typeRoots", typeRoots.stream().map(File::getAbsolutePath).collect(ImmutableSet.toImmutableSet()))
-                .put("outDir", outputDir.toAbsolutePath().toString())
+                .put(
+                        "typeRoots",
+                        typeRoots.stream()
+                                .map(typeRoot -> toConfigPath.apply(typeRoot.toPath()))
+                                .collect(ImmutableSet.toImmutableSet()))
+                .put("outDir", toConfigPath.apply(outputDir))
                 .put("declaration", true)
                 .put("baseUrl", ".")
                 .put(
                         "paths",
                         ImmutableMap.builder()
-                                .putAll(getClassPathAsPaths(ImmutableSet.<File>builder()
-                                        .addAll(dependencies)
-                                        .addAll(typeRoots)
-                                        .build()))
-                                .putAll(expandPathsWithWildcards(projectDependencies))
+                                .putAll(getClassPathAsPaths(
+                                        toConfigPath,
+                                        ImmutableSet.<File>builder()
+                                                .addAll(dependencies)
+                                                .addAll(typeRoots)
+                                                .build()))
+                                .putAll(expandPathsWithWildcards(toConfigPath, projectDependencies))
                                 .buildOrThrow())
                 .buildOrThrow();
     }
 
-    private static Map<String, List<String>> getClassPathAsPaths(Set<File> dependencies) {
-        return expandPathsWithWildcards(dependencies.stream()
-                .map(File::toPath)
-                .map(artifact -> NpmConfigurations.getTypesPackageNameFromArtifact(artifact)
-                        .map(targetPackage -> Map.entry(
-                                targetPackage,
-                                artifact.resolve(artifact.getFileName()).toAbsolutePath()))
-                        .orElseGet(() -> Map.entry(
-                                NpmConfigurations.getPackageNameFromArtifact(artifact), artifact.toAbsolutePath())))
-                .collect(Collectors.groupingBy(
-                        Map.Entry::getKey, Collectors.mapping(Map.Entry::getValue, Collectors.toUnmodifiableList()))));
+    private static Map<String, List<String>> getClassPathAsPaths(
+            Function<Path, String> toConfigPath, Set<File> dependencies) {
+        return expandPathsWithWildcards(
+                toConfigPath,
+                dependencies.stream()
+                        .map(File::toPath)
+                        .collect(Collectors.groupingBy(
+                                TypeScriptConfigs::getPackageName,
+                                Collectors.mapping(
+                                        TypeScriptConfigs::getPackageDirectory, Collectors.toUnmodifiableList()))));
+    }
+
+    private static String getPackageName(Path artifact) {
+        return NpmConfigurations.getTypesPackageNameFromArtifact(artifact)
+                .orElseGet(() -> NpmConfigurations.getPackageNameFromArtifact(artifact));
+    }
+
+    private static Path getPackageDirectory(Path artifact) {
+        return NpmConfigurations.getTypesPackageNameFromArtifact(artifact).isPresent()
+                ? artifact.resolve(artifact.getFileName())
+                : artifact;
     }
 
-    private static Map<String, List<String>> expandPathsWithWildcards(Map<String, List<Path>> dependencies) {
+    private static Map<String, List<String>> expandPathsWithWildcards(
+            Function<Path, String> toConfigPath, Map<String, List<Path>> dependencies) {
         return ImmutableMap.<String, List<String>>builder()
                 .putAll(dependencies.entrySet().stream()
                         .collect(Collectors.toMap(Map.Entry::getKey, entry -> entry.getValue().stream()
-                                .map(Path::toString)
+                                .map(toConfigPath)
                                 .collect(Collectors.toUnmodifiableList()))))
                 .putAll(dependencies.entrySet().stream()
                         .collect(Collectors.toMap(entry -> entry.getKey() + "/*", entry -> entry.getValue().stream()
-                                .map(Path::toString)
+                                .map(toConfigPath)
                                 .flatMap(t -> Stream.of(t + "/*", t))
                                 .collect(Collectors.toUnmodifiableList()))))
                 .buildOrThrow();
@@ -25,4 +25,13 @@ public interface TypeScriptPluginExtension {
     Property<String> getSourceCompatibility();
 
     MapProperty<String, Object> getCompilerOptions();
+
+    /** Whether to compile through a long-lived tsc worker that is kept alive across builds. */
+    Property<Boolean> getCompilerDaemon();
+
+    /**
+     * Whether source sets that are compiled concurrently should share a single {@code tsc --build} invocation. Takes
+     * precedence over the compiler daemon, which then only compiles source sets that need to be compiled on their own.
+     */
+    Property<Boolean> getBatchCompilation();
 }
@@ -0,0 +1,98 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.gradlets.gradle.typescript.shim.cache.DescriptorLoader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Warms the descriptor cache with the npm modules pinned in dependency lockfiles, so that gradle finds them cached
+ * instead of walking the registry one level of the dependency graph at a time.
+ */
+final class DescriptorPrefetcher {
+    private static final Logger log = LoggerFactory.getLogger(DescriptorPrefetcher.class);
+    // Matches both "npm:name:1.0.0 (1 constraints: ...)" in versions.lock and "npm:name:1.0.0=conf" in gradle.lockfile
+    private static final Pattern LOCKED_MODULE = Pattern.compile("^npm:([^:\\s]+):([^\\s=(]+)");
+
+    private final DescriptorLoader descriptorLoader;
+
+    DescriptorPrefetcher(DescriptorLoader descriptorLoader) {
+        this.descriptorLoader = descriptorLoader;
+    }
+
+    /** Starts loading the descriptors of all modules locked in the given files, returns without waiting for them. */
+    void prefetch(Collection<Path> lockfiles) {
+        int parallelism = ShimConfiguration.getPrefetchParallelism();
+        if (parallelism <= 0) {
+            return;
+        }
+
+        Set<ModuleIdentifier> modules = new LinkedHashSet<>();
+        lockfiles.forEach(lockfile -> modules.addAll(parseLockfile(lockfile)));
+        if (modules.isEmpty()) {
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(parallelism, modules.size()),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("npm-shim-prefetch-%d")
+                        .setDaemon(true)
+                        .build());
+        modules.forEach(module -> executor.execute(() -> {
+            try {
+                descriptorLoader.getIvyDescriptor(module.packageName(), module.packageVersion());
+            } catch (RuntimeException e) {
+                // Gradle will ask again if it needs this module and surface the failure then
+                log.debug("Failed to prefetch descriptor of {}", module, e);
+            }
+        }));
+        executor.shutdown();
+    }
+
+    @VisibleForTesting
+    static Set<ModuleIdentifier> parseLockfile(Path lockfile) {
+        Set<ModuleIdentifier> modules = new LinkedHashSet<>();
+        try (Stream<String> lines = Files.lines(lockfile)) {
+            lines.forEach(line -> {
+                Matcher matcher = LOCKED_MODULE.matcher(line);
+                if (matcher.find()) {
+                    String name = matcher.group(1);
+                    modules.add(ModuleIdentifier.of(name.contains("/") ? "@" + name : name, matcher.group(2)));
+                }
+            });
+        } catch (IOException | UncheckedIOException e) {
+            log.debug("Failed to read lockfile {}", lockfile, e);
+        }
+        return modules;
+    }
+}
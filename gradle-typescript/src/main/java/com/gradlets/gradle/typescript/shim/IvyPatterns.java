@@ -25,8 +25,12 @@ import java.util.Optional;
 public final class IvyPatterns {
     public static final String IVY_ARTIFACT_PATTERN = "[module]/-/[module]-[revision](.[ext])";
     public static final String IVY_DESCRIPTOR_PATTERN = "[module]/[revision]/descriptor.ivy";
+    // Gradle looks up Ivy descriptors as type "ivy" and Gradle Module Metadata as type "module" with this pattern
+    public static final String METADATA_PATTERN = "[module]/[revision]/descriptor.[type]";
     public static final String IVY_DESCRIPTOR_TEMPLATE =
             "/{packageScope}/{packageName}/{packageVersion}/descriptor.ivy";
+    public static final String MODULE_DESCRIPTOR_TEMPLATE =
+            "/{packageScope}/{packageName}/{packageVersion}/descriptor.module";
     public static final String PACKAGE_NAME = "packageName";
     public static final String PACKAGE_VERSION = "packageVersion";
 
@@ -46,6 +50,24 @@ public final class IvyPatterns {
                 ModuleIdentifier.of(artifactName.contains("/") ? "@" + artifactName : artifactName, version));
     }
 
+    // Module directories are "/name/" or "/scope/name/" for scoped packages, artifact directories ("/name/-/") aren't
+    static Optional<String> parseModuleListingPath(String relativePath) {
+        if (!relativePath.startsWith("/") || !relativePath.endsWith("/")) {
+            return Optional.empty();
+        }
+        List<String> segments = Splitter.on('/').splitToList(relativePath.substring(1, relativePath.length() - 1));
+        if (segments.stream().anyMatch(segment -> segment.isEmpty() || segment.equals("-"))) {
+            return Optional.empty();
+        }
+        if (segments.size() == 1) {
+            return Optional.of(segments.get(0));
+        }
+        if (segments.size() == 2) {
+            return Optional.of("@" + segments.get(0) + "/" + segments.get(1));
+        }
+        return Optional.empty();
+    }
+
     private static String stripLeadingSlash(String path) {
         return path.startsWith("/") ? path.substring(1) : path;
     }
@@ -0,0 +1,67 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import com.gradlets.gradle.ImmutablesStyle;
+import java.util.Map;
+import org.immutables.value.Value;
+
+/** Point in time view of {@link ShimMetrics}, as served by the shim at {@code /__metrics}. */
+@Value.Immutable
+@ImmutablesStyle
+@JsonDeserialize(as = ImmutableMetricsSnapshot.class)
+@JsonSerialize(as = ImmutableMetricsSnapshot.class)
+public interface MetricsSnapshot {
+    Map<String, Long> counters();
+
+    Map<String, TimerSnapshot> timers();
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    class Builder extends ImmutableMetricsSnapshot.Builder {}
+
+    @Value.Immutable
+    @JsonDeserialize(as = ImmutableTimerSnapshot.class)
+    @JsonSerialize(as = ImmutableTimerSnapshot.class)
+    interface TimerSnapshot {
+        long count();
+
+        /** Number of timed operations still running. */
+        long active();
+
+        double meanMillis();
+
+        /** Percentiles are upper bounds of power of two buckets, at most twice the exact value. */
+        double p50Millis();
+
+        double p95Millis();
+
+        double p99Millis();
+
+        double maxMillis();
+
+        static Builder builder() {
+            return new Builder();
+        }
+
+        class Builder extends ImmutableTimerSnapshot.Builder {}
+    }
+}
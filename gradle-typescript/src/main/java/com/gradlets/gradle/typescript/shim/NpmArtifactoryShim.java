@@ -16,31 +16,38 @@
 
 package com.gradlets.gradle.typescript.shim;
 
+import com.google.common.base.Splitter;
+import com.gradlets.gradle.typescript.ObjectMappers;
 import com.gradlets.gradle.typescript.shim.cache.CachedDescriptor;
 import com.gradlets.gradle.typescript.shim.cache.DescriptorCache;
+import com.gradlets.gradle.typescript.shim.cache.DescriptorCacheCleaner;
 import com.gradlets.gradle.typescript.shim.cache.DescriptorLoader;
+import com.gradlets.gradle.typescript.shim.cache.GradleModuleMetadata;
+import com.gradlets.gradle.typescript.shim.cache.IvyDescriptors;
 import com.palantir.conjure.java.api.errors.UnknownRemoteException;
 import io.undertow.Handlers;
 import io.undertow.Undertow;
-import io.undertow.protocols.ssl.UndertowXnioSsl;
+import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.RoutingHandler;
-import io.undertow.server.handlers.proxy.LoadBalancingProxyClient;
 import io.undertow.server.handlers.proxy.ProxyClient;
 import io.undertow.server.handlers.proxy.ProxyHandler;
 import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 import java.io.Closeable;
 import java.net.BindException;
+import java.net.InetSocketAddress;
 import java.net.URI;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
-import java.security.NoSuchProviderException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.xnio.OptionMap;
-import org.xnio.Xnio;
 
 public final class NpmArtifactoryShim {
     private static final Logger log = LoggerFactory.getLogger(NpmArtifactoryShim.class);
@@ -55,39 +62,10 @@ public final class NpmArtifactoryShim {
     }
 
     public static ShimServer startServer(String uri) {
-        DescriptorCache descriptorCache = new DescriptorCache(ShimConfiguration.getCacheDir());
-        PackageJsonLoader packageJsonLoader = new PackageJsonLoader(uri);
-        DescriptorLoader descriptorLoader = new DescriptorLoader(descriptorCache, packageJsonLoader);
-        ProxyHandler proxyHandler = ProxyHandler.builder()
-                .setProxyClient(getProxyClient(uri, packageJsonLoader))
-                .setMaxRequestTime(30000)
-                .setRewriteHostHeader(true)
-                .build();
-
-        RoutingHandler routingHandler = Handlers.routing()
-                // Pure hacks to convert package.json to ivy descriptors and properly handle npm scope.
-                .add(
-                        "HEAD",
-                        IvyPatterns.IVY_DESCRIPTOR_TEMPLATE,
-                        new ScopedNpmHttpHandler(descriptorLoader, NpmArtifactoryShim::handleHeadIvyDescriptor))
-                .add(
-                        "HEAD",
-                        "/{packageName}/{packageVersion}/descriptor.ivy",
-                        new NpmHttpHandler(descriptorLoader, NpmArtifactoryShim::handleHeadIvyDescriptor))
-                .add(
-                        "GET",
-                        IvyPatterns.IVY_DESCRIPTOR_TEMPLATE,
-                        new ScopedNpmHttpHandler(descriptorLoader, NpmArtifactoryShim::handleGetIvyDescriptor))
-                .add(
-                        "GET",
-                        "/{packageName}/{packageVersion}/descriptor.ivy",
-                        new NpmHttpHandler(descriptorLoader, NpmArtifactoryShim::handleGetIvyDescriptor))
-                .setFallbackHandler(proxyHandler);
-
         do {
             try {
                 int shimProxyPort = ShimConfiguration.getProxyPort() + PORT_INCREMENT.getAndIncrement();
-                return tryStartServer(shimProxyPort, routingHandler);
+                return startServer(uri, shimProxyPort, () -> {});
             } catch (RuntimeException e) {
                 if (e.getCause() == null || !(e.getCause() instanceof BindException)) {
                     throw e;
@@ -96,30 +74,176 @@ public final class NpmArtifactoryShim {
         } while (true);
     }
 
-    private static ShimServer tryStartServer(int port, RoutingHandler routingHandler) {
+    /** Starts a shim on the given port, 0 picks any free port. Calls onRequest before handling each request. */
+    static ShimServer startServer(String uri, int port, Runnable onRequest) {
+        ShimMetrics metrics = new ShimMetrics();
+        DescriptorCache descriptorCache = new DescriptorCache(ShimConfiguration.getCacheDir(), uri, metrics);
+        PackageJsonLoader packageJsonLoader = new PackageJsonLoader(uri, metrics);
+        boolean versionRanges = ShimConfiguration.useVersionRanges();
+        DescriptorLoader descriptorLoader = new DescriptorLoader(
+                descriptorCache,
+                packageJsonLoader,
+                packageJson -> IvyDescriptors.createDescriptor("npm", packageJson, versionRanges),
+                metrics);
+        ExecutorService executor = ShimExecutors.newWorkerExecutor();
+        DescriptorPrefetcher prefetcher = new DescriptorPrefetcher(descriptorLoader);
+        ProxyHandler proxyHandler = ProxyHandler.builder()
+                .setProxyClient(getProxyClient(uri, packageJsonLoader, executor))
+                .setMaxRequestTime(30000)
+                .setRewriteHostHeader(true)
+                .build();
+
+        RoutingHandler routingHandler = Handlers.routing();
+        // Pure hacks to convert package.json to ivy descriptors and properly handle npm scope.
+        addDescriptorRoutes(
+                routingHandler,
+                IvyPatterns.IVY_DESCRIPTOR_TEMPLATE,
+                "/{packageName}/{packageVersion}/descriptor.ivy",
+                "text/xml",
+                "route.ivyDescriptor",
+                descriptorLoader,
+                executor,
+                metrics);
+        if (ShimConfiguration.useModuleMetadata()) {
+            DescriptorLoader moduleMetadataLoader = new DescriptorLoader(
+                    new DescriptorCache(ShimConfiguration.getModuleMetadataCacheDir(), uri, metrics),
+                    // Module metadata records the type declarations of packages, which packuments leave out
+                    packageJsonLoader.withFullDocuments(),
+                    packageJson -> GradleModuleMetadata.createDescriptor("npm", packageJson, versionRanges),
+                    metrics);
+            addDescriptorRoutes(
+                    routingHandler,
+                    IvyPatterns.MODULE_DESCRIPTOR_TEMPLATE,
+                    "/{packageName}/{packageVersion}/descriptor.module",
+                    "application/vnd.org.gradle.module+json",
+                    "route.moduleDescriptor",
+                    moduleMetadataLoader,
+                    executor,
+                    metrics);
+        }
+        routingHandler
+                // npm package names can't start with an underscore, so these never shadow packages
+                .get("/__shim/ping", exchange -> exchange.getResponseSender().send("ok"))
+                .get("/__metrics", exchange -> {
+                    exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/json");
+                    exchange.getResponseSender().send(ObjectMappers.MAPPER.writeValueAsString(metrics.snapshot()));
+                })
+                .post("/__shim/prefetch", exchange -> exchange.getRequestReceiver()
+                        .receiveFullString((receivedExchange, lockfiles) -> {
+                            prefetcher.prefetch(Splitter.on('\n')
+                                    .omitEmptyStrings()
+                                    .splitToStream(lockfiles)
+                                    .map(Paths::get)
+                                    .collect(Collectors.toList()));
+                            receivedExchange.setStatusCode(204);
+                            receivedExchange.endExchange();
+                        }))
+                // Tarballs, version listings and anything else we proxy
+                .setFallbackHandler(timed(
+                        metrics.timer("route.proxy"), getFallbackHandler(packageJsonLoader, executor, proxyHandler)));
+
         Undertow server = Undertow.builder()
                 .addHttpListener(port, "localhost")
-                .setHandler(routingHandler)
+                .setHandler(exchange -> {
+                    onRequest.run();
+                    routingHandler.handleRequest(exchange);
+                })
                 .setIoThreads(4)
                 .build();
 
-        server.start();
+        try {
+            server.start();
+        } catch (RuntimeException e) {
+            executor.shutdownNow();
+            throw e;
+        }
+        int boundPort = ((InetSocketAddress) server.getListenerInfo().get(0).getAddress()).getPort();
+        executor.execute(() -> {
+            try {
+                DescriptorCacheCleaner.create().cleanIfDue();
+            } catch (RuntimeException e) {
+                log.warn("Failed to clean up descriptor cache", e);
+            }
+        });
 
         return new ShimServer() {
             @Override
             public URI getUri() {
-                return URI.create("http://localhost:" + port);
+                return URI.create("http://localhost:" + boundPort);
+            }
+
+            @Override
+            public void prefetch(Collection<Path> lockfiles) {
+                prefetcher.prefetch(lockfiles);
+            }
+
+            @Override
+            public Optional<MetricsSnapshot> metrics() {
+                return Optional.of(metrics.snapshot());
             }
 
             @Override
             public void close() {
                 server.stop();
+                executor.shutdownNow();
             }
         };
     }
 
-    private static void handleHeadIvyDescriptor(
-            DescriptorLoader descriptorLoader, HttpServerExchange exchange, String packageName, String packageVersion) {
+    private static void addDescriptorRoutes(
+            RoutingHandler routingHandler,
+            String scopedTemplate,
+            String template,
+            String contentType,
+            String routeName,
+            DescriptorLoader descriptorLoader,
+            Executor executor,
+            ShimMetrics metrics) {
+        ScopedNpmHttpHandler.ScopedRequestHandler head = (loader, exchange, packageName, packageVersion) ->
+                handleHeadDescriptor(loader, exchange, packageName, packageVersion, contentType);
+        ScopedNpmHttpHandler.ScopedRequestHandler get = (loader, exchange, packageName, packageVersion) ->
+                handleGetDescriptor(loader, exchange, packageName, packageVersion, contentType);
+        ShimMetrics.Timer headTimer = metrics.timer(routeName + ".head");
+        ShimMetrics.Timer getTimer = metrics.timer(routeName + ".get");
+        HttpHandler scopedHead = new ScopedNpmHttpHandler(descriptorLoader, executor, head);
+        HttpHandler scopedGet = new ScopedNpmHttpHandler(descriptorLoader, executor, get);
+        routingHandler
+                .add("HEAD", scopedTemplate, timed(headTimer, scopedHead))
+                .add("HEAD", template, timed(headTimer, new NpmHttpHandler(descriptorLoader, executor, head)))
+                .add("GET", scopedTemplate, timed(getTimer, scopedGet))
+                .add("GET", template, timed(getTimer, new NpmHttpHandler(descriptorLoader, executor, get)));
+    }
+
+    // Handlers might complete the exchange on another thread, so the timer stops once the response has been sent
+    private static HttpHandler timed(ShimMetrics.Timer timer, HttpHandler handler) {
+        return exchange -> {
+            ShimMetrics.Context context = timer.start();
+            exchange.addExchangeCompleteListener((completedExchange, nextListener) -> {
+                context.stop();
+                nextListener.proceed();
+            });
+            handler.handleRequest(exchange);
+        };
+    }
+
+    private static HttpHandler getFallbackHandler(
+            PackageJsonLoader packageJsonLoader, Executor executor, HttpHandler proxyHandler) {
+        HttpHandler handler = ShimConfiguration.getTarballCacheDir()
+                .<HttpHandler>map(tarballCacheDir -> new TarballHandler(
+                        new TarballCache(tarballCacheDir), packageJsonLoader, executor, proxyHandler))
+                .orElse(proxyHandler);
+        // Gradle lists the versions of a module to resolve version ranges
+        return ShimConfiguration.useVersionRanges()
+                ? new VersionListingHandler(packageJsonLoader, executor, handler)
+                : handler;
+    }
+
+    private static void handleHeadDescriptor(
+            DescriptorLoader descriptorLoader,
+            HttpServerExchange exchange,
+            String packageName,
+            String packageVersion,
+            String contentType) {
         try {
             CachedDescriptor cachedDescriptor = descriptorLoader.getIvyDescriptor(packageName, packageVersion);
             String sha1Etag = cachedDescriptor.ivySha1Checksum().get();
@@ -127,21 +251,25 @@ public final class NpmArtifactoryShim {
             exchange.getResponseHeaders().put(HttpString.tryFromString("ETag"), String.format("{SHA1{%s}}", sha1Etag));
             exchange.setResponseContentLength(
                     cachedDescriptor.ivyDescriptor().get().length());
-            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/xml");
+            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, contentType);
             exchange.setStatusCode(200);
         } catch (RuntimeException t) {
             exchange.setStatusCode(404);
         }
     }
 
-    private static void handleGetIvyDescriptor(
-            DescriptorLoader descriptorLoader, HttpServerExchange exchange, String packageName, String packageVersion) {
+    private static void handleGetDescriptor(
+            DescriptorLoader descriptorLoader,
+            HttpServerExchange exchange,
+            String packageName,
+            String packageVersion,
+            String contentType) {
         try {
             CachedDescriptor cachedDescriptor = descriptorLoader.getIvyDescriptor(packageName, packageVersion);
             String sha1Etag = cachedDescriptor.ivySha1Checksum().get();
             exchange.getResponseHeaders().put(HttpString.tryFromString("X-Checksum-Sha1"), sha1Etag);
             exchange.getResponseHeaders().put(HttpString.tryFromString("ETag"), String.format("{SHA1{%s}}", sha1Etag));
-            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/xml");
+            exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, contentType);
             String content = cachedDescriptor.ivyDescriptor().get();
             exchange.setResponseContentLength(content.length());
             exchange.getResponseSender().send(content);
@@ -155,23 +283,19 @@ public final class NpmArtifactoryShim {
         }
     }
 
-    private static ProxyClient getProxyClient(String uri, PackageJsonLoader packageJsonLoader) {
-        Xnio instance = Xnio.getInstance();
-        try {
-            return new NpmProxyClient(
-                    uri,
-                    packageJsonLoader,
-                    new LoadBalancingProxyClient()
-                            .addHost(URI.create(uri), new UndertowXnioSsl(instance, OptionMap.EMPTY))
-                            .setConnectionsPerThread(20));
-        } catch (NoSuchAlgorithmException | NoSuchProviderException | KeyManagementException e) {
-            throw new RuntimeException(e);
-        }
+    private static ProxyClient getProxyClient(String uri, PackageJsonLoader packageJsonLoader, Executor executor) {
+        return new NpmProxyClient(uri, packageJsonLoader, UpstreamTransport.proxyClient(uri), executor);
     }
 
     public interface ShimServer extends Closeable {
         URI getUri();
 
+        /** Loads the descriptors of the npm modules pinned in the given lockfiles in the background. */
+        void prefetch(Collection<Path> lockfiles);
+
+        /** Metrics of the shim since it started, if they could be retrieved. */
+        Optional<MetricsSnapshot> metrics();
+
         @Override
         void close();
     }
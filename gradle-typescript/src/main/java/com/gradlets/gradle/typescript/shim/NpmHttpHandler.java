@@ -21,18 +21,30 @@ import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.PathTemplateMatch;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 public final class NpmHttpHandler implements HttpHandler {
     private final ScopedNpmHttpHandler.ScopedRequestHandler delegate;
     private final DescriptorLoader descriptorLoader;
+    private final Executor executor;
 
-    public NpmHttpHandler(DescriptorLoader descriptorLoader, ScopedNpmHttpHandler.ScopedRequestHandler delegate) {
+    public NpmHttpHandler(
+            DescriptorLoader descriptorLoader,
+            Executor executor,
+            ScopedNpmHttpHandler.ScopedRequestHandler delegate) {
         this.descriptorLoader = descriptorLoader;
+        this.executor = executor;
         this.delegate = delegate;
     }
 
     @Override
     public void handleRequest(HttpServerExchange exchange) {
+        // Descriptors might have to be fetched from the registry, never block the I/O thread on that
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(executor, this);
+            return;
+        }
+
         Map<String, String> parameters =
                 exchange.getAttachment(PathTemplateMatch.ATTACHMENT_KEY).getParameters();
         delegate.handleRequest(
@@ -23,17 +23,26 @@ import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.proxy.ProxyCallback;
 import io.undertow.server.handlers.proxy.ProxyClient;
 import io.undertow.server.handlers.proxy.ProxyConnection;
+import java.util.Optional;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public final class NpmProxyClient implements ProxyClient {
+    private static final Logger log = LoggerFactory.getLogger(NpmProxyClient.class);
+
     private final PackageJsonLoader packageJsonLoader;
     private final ProxyClient delegate;
     private final String baseUrl;
+    private final Executor executor;
 
-    public NpmProxyClient(String baseUrl, PackageJsonLoader packageJsonLoader, ProxyClient delegate) {
+    public NpmProxyClient(
+            String baseUrl, PackageJsonLoader packageJsonLoader, ProxyClient delegate, Executor executor) {
         this.baseUrl = baseUrl;
         this.packageJsonLoader = packageJsonLoader;
         this.delegate = delegate;
+        this.executor = executor;
     }
 
     @Override
@@ -48,12 +57,27 @@ public final class NpmProxyClient implements ProxyClient {
             ProxyCallback<ProxyConnection> callback,
             long timeout,
             TimeUnit timeUnit) {
-        IvyPatterns.parseArtifactPath(exchange.getRelativePath()).ifPresent(moduleIdentifier -> {
-            PackageJson packageJson =
-                    packageJsonLoader.getPackageJson(moduleIdentifier.packageName(), moduleIdentifier.packageVersion());
-            exchange.setRequestURI(stripBaseUrl(packageJson.dist().tarball()), true);
+        Optional<ModuleIdentifier> artifact = IvyPatterns.parseArtifactPath(exchange.getRelativePath());
+        if (artifact.isEmpty()) {
+            delegate.getConnection(target, exchange, callback, timeout, timeUnit);
+            return;
+        }
+
+        // Resolving the tarball location blocks on the registry, the connection itself has to be acquired on the
+        // exchange's I/O thread again
+        executor.execute(() -> {
+            try {
+                PackageJson packageJson = packageJsonLoader.getPackageJson(
+                        artifact.get().packageName(), artifact.get().packageVersion());
+                exchange.setRequestURI(stripBaseUrl(packageJson.dist().tarball()), true);
+            } catch (RuntimeException e) {
+                log.warn("Failed to resolve npm tarball location", e);
+                exchange.getIoThread().execute(() -> callback.failed(exchange));
+                return;
+            }
+            exchange.getIoThread()
+                    .execute(() -> delegate.getConnection(target, exchange, callback, timeout, timeUnit));
         });
-        delegate.getConnection(target, exchange, callback, timeout, timeUnit);
     }
 
     private String stripBaseUrl(String path) {
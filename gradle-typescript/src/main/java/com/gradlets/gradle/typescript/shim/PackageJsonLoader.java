@@ -16,62 +16,164 @@
 
 package com.gradlets.gradle.typescript.shim;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.gradlets.gradle.typescript.shim.clients.NpmRepository;
 import com.gradlets.gradle.typescript.shim.clients.PackageJson;
-import com.palantir.conjure.java.api.config.service.PartialServiceConfiguration;
-import com.palantir.conjure.java.api.config.service.ServicesConfigBlock;
-import com.palantir.conjure.java.api.config.service.UserAgent;
-import com.palantir.conjure.java.api.config.service.UserAgent.Agent;
-import com.palantir.conjure.java.api.config.ssl.SslConfiguration;
-import com.palantir.conjure.java.api.config.ssl.SslConfiguration.StoreType;
-import com.palantir.dialogue.clients.DialogueClients;
-import com.palantir.logsafe.exceptions.SafeRuntimeException;
-import com.palantir.refreshable.Refreshable;
-import java.nio.file.Path;
-import java.nio.file.Paths;
+import com.gradlets.gradle.typescript.shim.clients.PackumentResponse;
+import java.time.Duration;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 // Need to load package json through the NPM API since artifactory does not have a consistent package structure
 // between internal and external packages. Upside is that we actually work with the oss npm registry
 public final class PackageJsonLoader {
-    private static final UserAgent USER_AGENT = UserAgent.of(Agent.of(
-            "npm-shim",
-            Optional.ofNullable(PackageJsonLoader.class.getPackage().getImplementationVersion())
-                    .orElse("0.0.0")));
+    private static final Logger log = LoggerFactory.getLogger(PackageJsonLoader.class);
+
+    // Packuments are revalidated with the registry at most this often
+    private static final Duration PACKUMENT_REVALIDATION_INTERVAL = Duration.ofMinutes(5);
+    private static final int MAX_CACHED_PACKUMENTS = 1000;
 
     private final NpmRepository repository;
+    private final Optional<LoadingCache<String, PackumentResponse>> packuments;
+    private final ShimMetrics.Timer packageJsonTimer;
+    private final ShimMetrics.Timer packumentTimer;
+    private final ConcurrentMap<String, CompletableFuture<PackumentResponse>> refreshes = new ConcurrentHashMap<>();
+
+    public PackageJsonLoader(String baseUrl, ShimMetrics metrics) {
+        this(
+                UpstreamTransport.npmRepository(baseUrl),
+                metrics.timer("upstream.packageJson"),
+                metrics.timer("upstream.packument"),
+                ShimConfiguration.usePackuments() || ShimConfiguration.useVersionRanges());
+    }
+
+    private PackageJsonLoader(
+            NpmRepository repository,
+            ShimMetrics.Timer packageJsonTimer,
+            ShimMetrics.Timer packumentTimer,
+            boolean usePackuments) {
+        this.repository = repository;
+        this.packageJsonTimer = packageJsonTimer;
+        this.packumentTimer = packumentTimer;
+        this.packuments = usePackuments
+                ? Optional.of(CacheBuilder.newBuilder()
+                        .maximumSize(MAX_CACHED_PACKUMENTS)
+                        .refreshAfterWrite(PACKUMENT_REVALIDATION_INTERVAL)
+                        .build(new PackumentLoader(repository, packumentTimer)))
+                : Optional.empty();
+    }
 
-    public PackageJsonLoader(String baseUrl) {
-        repository = DialogueClients.create(Refreshable.only(ServicesConfigBlock.builder()
-                        .putServices(
-                                "service",
-                                PartialServiceConfiguration.builder()
-                                        .addUris(baseUrl)
-                                        .security(SslConfiguration.builder()
-                                                .trustStorePath(trustStorePath())
-                                                .trustStoreType(storeType())
-                                                .build())
-                                        .build())
-                        .build()))
-                .withUserAgent(USER_AGENT)
-                .get(NpmRepository.class, "service");
+    /**
+     * Loader answering every lookup from the per version document. Abbreviated packuments only carry what npm needs
+     * to install packages and leave out fields such as {@link PackageJson#types()}, use this where those matter.
+     */
+    public PackageJsonLoader withFullDocuments() {
+        return packuments.isPresent()
+                ? new PackageJsonLoader(repository, packageJsonTimer, packumentTimer, false)
+                : this;
     }
 
     public PackageJson getPackageJson(String packageName, String packageVersion) {
-        return repository.getPackageJson(packageName, packageVersion);
+        return packuments
+                .flatMap(cache -> getFromPackument(cache, packageName, packageVersion))
+                .orElseGet(() -> packageJsonTimer.time(() -> repository.getPackageJson(packageName, packageVersion)));
+    }
+
+    /** Returns the published versions of the given package. */
+    public Set<String> getVersions(String packageName) {
+        PackumentResponse response = packuments
+                .map(cache -> cache.getUnchecked(packageName))
+                .orElseGet(() -> packumentTimer.time(
+                        () -> repository.getPackument(packageName, Optional.empty(), Optional.empty())));
+        return response.packument()
+                .map(packument -> packument.versions().keySet())
+                .orElseGet(Set::of);
     }
 
-    private static StoreType storeType() {
-        return Optional.ofNullable(System.getProperty("javax.net.ssl.trustStoreType"))
-                .map(StoreType::valueOf)
-                .orElse(StoreType.JKS);
+    // Anything the packument can't answer, including registries that don't serve packuments, falls back to the
+    // per version endpoint
+    private Optional<PackageJson> getFromPackument(
+            LoadingCache<String, PackumentResponse> cache, String packageName, String packageVersion) {
+        try {
+            PackumentResponse response = cache.getUnchecked(packageName);
+            Optional<PackageJson> packageJson = getVersion(response, packageVersion);
+            if (packageJson.isPresent()) {
+                return packageJson;
+            }
+            // The version might have been published since we fetched the packument
+            return getVersion(refresh(cache, packageName, response), packageVersion);
+        } catch (RuntimeException e) {
+            log.debug("Failed to load packument of {}, falling back to package.json", packageName, e);
+            return Optional.empty();
+        }
     }
 
-    private static Path trustStorePath() {
-        return Optional.ofNullable(System.getProperty("javax.net.ssl.trustStore"))
-                .map(Paths::get)
-                .orElseGet(() -> Optional.ofNullable(System.getProperty("java.home"))
-                        .map(javaHome -> Paths.get(javaHome, "lib", "security", "cacerts"))
-                        .orElseThrow(() -> new SafeRuntimeException("Unable to find trustStore")));
+    // Lookups of versions missing from the same packument share one refresh, instead of revalidating it once each
+    private PackumentResponse refresh(
+            LoadingCache<String, PackumentResponse> cache, String packageName, PackumentResponse stale) {
+        CompletableFuture<PackumentResponse> refresh = new CompletableFuture<>();
+        CompletableFuture<PackumentResponse> existingRefresh = refreshes.putIfAbsent(packageName, refresh);
+        if (existingRefresh != null) {
+            return existingRefresh.join();
+        }
+
+        try {
+            PackumentResponse current = cache.getUnchecked(packageName);
+            // Refreshed by someone else since we looked
+            if (current == stale) {
+                cache.refresh(packageName);
+                current = cache.getUnchecked(packageName);
+            }
+            refresh.complete(current);
+            return current;
+        } catch (Throwable t) {
+            refresh.completeExceptionally(t);
+            throw t;
+        } finally {
+            refreshes.remove(packageName, refresh);
+        }
+    }
+
+    private static Optional<PackageJson> getVersion(PackumentResponse response, String packageVersion) {
+        return response.packument().flatMap(packument -> Optional.ofNullable(packument.versions().get(packageVersion)));
+    }
+
+    private static final class PackumentLoader extends CacheLoader<String, PackumentResponse> {
+        private final NpmRepository repository;
+        private final ShimMetrics.Timer timer;
+
+        PackumentLoader(NpmRepository repository, ShimMetrics.Timer timer) {
+            this.repository = repository;
+            this.timer = timer;
+        }
+
+        @Override
+        public PackumentResponse load(String packageName) {
+            return timer.time(() -> repository.getPackument(packageName, Optional.empty(), Optional.empty()));
+        }
+
+        @Override
+        public ListenableFuture<PackumentResponse> reload(String packageName, PackumentResponse previous) {
+            PackumentResponse response =
+                    timer.time(() -> repository.getPackument(packageName, previous.etag(), previous.lastModified()));
+            if (response.packument().isEmpty()) {
+                // Not modified, keep serving what we have
+                return Futures.immediateFuture(PackumentResponse.builder()
+                        .from(previous)
+                        .etag(response.etag().or(previous::etag))
+                        .lastModified(response.lastModified().or(previous::lastModified))
+                        .build());
+            }
+            return Futures.immediateFuture(response);
+        }
     }
 }
@@ -21,18 +21,27 @@ import io.undertow.server.HttpHandler;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.util.PathTemplateMatch;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 public final class ScopedNpmHttpHandler implements HttpHandler {
     private final ScopedRequestHandler delegate;
     private final DescriptorLoader descriptorLoader;
+    private final Executor executor;
 
-    public ScopedNpmHttpHandler(DescriptorLoader descriptorLoader, ScopedRequestHandler delegate) {
+    public ScopedNpmHttpHandler(DescriptorLoader descriptorLoader, Executor executor, ScopedRequestHandler delegate) {
         this.descriptorLoader = descriptorLoader;
+        this.executor = executor;
         this.delegate = delegate;
     }
 
     @Override
     public void handleRequest(HttpServerExchange exchange) {
+        // Descriptors might have to be fetched from the registry, never block the I/O thread on that
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(executor, this);
+            return;
+        }
+
         Map<String, String> parameters =
                 exchange.getAttachment(PathTemplateMatch.ATTACHMENT_KEY).getParameters();
         String scopedName = "@" + parameters.get("packageScope") + "/" + parameters.get("packageName");
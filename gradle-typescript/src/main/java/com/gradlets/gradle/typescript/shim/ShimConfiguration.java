@@ -18,23 +18,129 @@ package com.gradlets.gradle.typescript.shim;
 
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
 import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-final class ShimConfiguration {
+public final class ShimConfiguration {
     static final String GRADLE_TYPESCRIPT_DIR_ENV_NAME = "GRADLE_TYPESCRIPT_CACHE_DIR";
     static final String GRADLE_TYPESCRIPT_DIR_PROP_NAME = "gradle.typeScript.cache.dir";
     static final String PROXY_PORT_ENV_NAME = "GRADLE_TYPESCRIPT_PROXY_PORT";
     static final String PROXY_PORT_PROP_NAME = "gradle.typeScript.proxy.port";
+    static final String MODULE_STORE_ENV_NAME = "GRADLE_TYPESCRIPT_MODULE_STORE";
+    static final String MODULE_STORE_PROP_NAME = "gradle.typeScript.moduleStore";
+    static final String MODULE_STORE_MAX_AGE_ENV_NAME = "GRADLE_TYPESCRIPT_MODULE_STORE_MAX_AGE_DAYS";
+    static final String MODULE_STORE_MAX_AGE_PROP_NAME = "gradle.typeScript.moduleStore.maxAgeDays";
+    static final String DESCRIPTOR_CACHE_WEIGHT_ENV_NAME = "GRADLE_TYPESCRIPT_DESCRIPTOR_CACHE_WEIGHT";
+    static final String DESCRIPTOR_CACHE_WEIGHT_PROP_NAME = "gradle.typeScript.descriptorCache.maxWeight";
+    static final String DESCRIPTOR_CACHE_SIZE_ENV_NAME = "GRADLE_TYPESCRIPT_DESCRIPTOR_CACHE_SIZE";
+    static final String DESCRIPTOR_CACHE_SIZE_PROP_NAME = "gradle.typeScript.descriptorCache.maxSize";
+    static final String NOT_FOUND_TTL_ENV_NAME = "GRADLE_TYPESCRIPT_NOT_FOUND_TTL";
+    static final String NOT_FOUND_TTL_PROP_NAME = "gradle.typeScript.descriptorCache.notFoundTtlSeconds";
+    static final String DESCRIPTOR_SEGMENTS_ENV_NAME = "GRADLE_TYPESCRIPT_DESCRIPTOR_SEGMENTS";
+    static final String DESCRIPTOR_SEGMENTS_PROP_NAME = "gradle.typeScript.descriptorCache.segments";
+    static final String DESCRIPTOR_CACHE_MAX_AGE_ENV_NAME = "GRADLE_TYPESCRIPT_DESCRIPTOR_CACHE_MAX_AGE_DAYS";
+    static final String DESCRIPTOR_CACHE_MAX_AGE_PROP_NAME = "gradle.typeScript.descriptorCache.maxAgeDays";
+    static final String DESCRIPTOR_CACHE_MAX_ENTRIES_ENV_NAME = "GRADLE_TYPESCRIPT_DESCRIPTOR_CACHE_MAX_ENTRIES";
+    static final String DESCRIPTOR_CACHE_MAX_ENTRIES_PROP_NAME = "gradle.typeScript.descriptorCache.maxEntries";
+    static final String DESCRIPTOR_CACHE_MAX_DISK_ENV_NAME = "GRADLE_TYPESCRIPT_DESCRIPTOR_CACHE_MAX_DISK_BYTES";
+    static final String DESCRIPTOR_CACHE_MAX_DISK_PROP_NAME = "gradle.typeScript.descriptorCache.maxDiskBytes";
+    static final String WORKER_THREADS_ENV_NAME = "GRADLE_TYPESCRIPT_SHIM_WORKER_THREADS";
+    static final String WORKER_THREADS_PROP_NAME = "gradle.typeScript.shim.workerThreads";
+    static final String VIRTUAL_THREADS_ENV_NAME = "GRADLE_TYPESCRIPT_SHIM_VIRTUAL_THREADS";
+    static final String VIRTUAL_THREADS_PROP_NAME = "gradle.typeScript.shim.virtualThreads";
+    static final String PACKUMENTS_ENV_NAME = "GRADLE_TYPESCRIPT_PACKUMENTS";
+    static final String PACKUMENTS_PROP_NAME = "gradle.typeScript.packuments";
+    static final String TARBALL_CACHE_ENV_NAME = "GRADLE_TYPESCRIPT_TARBALL_CACHE";
+    static final String TARBALL_CACHE_PROP_NAME = "gradle.typeScript.tarballCache";
+    static final String SHIM_DAEMON_ENV_NAME = "GRADLE_TYPESCRIPT_SHIM_DAEMON";
+    static final String SHIM_DAEMON_PROP_NAME = "gradle.typeScript.shim.daemon";
+    static final String SHIM_DAEMON_IDLE_TIMEOUT_ENV_NAME = "GRADLE_TYPESCRIPT_SHIM_DAEMON_IDLE_TIMEOUT";
+    static final String SHIM_DAEMON_IDLE_TIMEOUT_PROP_NAME = "gradle.typeScript.shim.daemon.idleTimeoutMinutes";
+    static final String UPSTREAM_HTTP2_ENV_NAME = "GRADLE_TYPESCRIPT_UPSTREAM_HTTP2";
+    static final String UPSTREAM_HTTP2_PROP_NAME = "gradle.typeScript.upstream.http2";
+    static final String UPSTREAM_CONNECTIONS_ENV_NAME = "GRADLE_TYPESCRIPT_UPSTREAM_CONNECTIONS_PER_THREAD";
+    static final String UPSTREAM_CONNECTIONS_PROP_NAME = "gradle.typeScript.upstream.connectionsPerThread";
+    static final String UPSTREAM_IDLE_TIMEOUT_ENV_NAME = "GRADLE_TYPESCRIPT_UPSTREAM_IDLE_TIMEOUT";
+    static final String UPSTREAM_IDLE_TIMEOUT_PROP_NAME = "gradle.typeScript.upstream.idleTimeoutSeconds";
+    static final String VERSION_RANGES_ENV_NAME = "GRADLE_TYPESCRIPT_VERSION_RANGES";
+    static final String VERSION_RANGES_PROP_NAME = "gradle.typeScript.versionRanges";
+    static final String MODULE_METADATA_ENV_NAME = "GRADLE_TYPESCRIPT_MODULE_METADATA";
+    static final String MODULE_METADATA_PROP_NAME = "gradle.typeScript.moduleMetadata";
+    static final String PREFETCH_PARALLELISM_ENV_NAME = "GRADLE_TYPESCRIPT_PREFETCH_PARALLELISM";
+    static final String PREFETCH_PARALLELISM_PROP_NAME = "gradle.typeScript.prefetch.parallelism";
+    static final String PUBLISH_PARALLELISM_ENV_NAME = "GRADLE_TYPESCRIPT_PUBLISH_PARALLELISM";
+    static final String PUBLISH_PARALLELISM_PROP_NAME = "gradle.typeScript.publish.parallelism";
+    static final String SHIM_METRICS_ENV_NAME = "GRADLE_TYPESCRIPT_SHIM_METRICS";
+    static final String SHIM_METRICS_PROP_NAME = "gradle.typeScript.shim.metrics";
 
     private ShimConfiguration() {}
 
+    /** Directory of generated descriptors, descriptors with version ranges are kept apart from pinned ones. */
     public static Path getCacheDir() {
-        return Paths.get(Optional.ofNullable(System.getenv(GRADLE_TYPESCRIPT_DIR_ENV_NAME))
-                        .or(() -> Optional.ofNullable(System.getProperty(GRADLE_TYPESCRIPT_DIR_PROP_NAME)))
-                        .map(t -> t.endsWith("/") ? t.substring(0, t.length() - 1) : t)
-                        .orElseGet(() -> System.getProperty("user.home") + "/.gradle-typeScript"))
-                .resolve("cache")
-                .resolve("descriptors");
+        return getRootCacheDir().resolve(useVersionRanges() ? "range-descriptors" : "descriptors");
+    }
+
+    /** Directory of generated Gradle Module Metadata, kept apart like {@link #getCacheDir()}. */
+    public static Path getModuleMetadataCacheDir() {
+        return getRootCacheDir().resolve(useVersionRanges() ? "range-module-descriptors" : "module-descriptors");
+    }
+
+    /** Every directory descriptors might have been generated into, whichever settings this build uses. */
+    public static List<Path> getDescriptorCacheDirs() {
+        Path rootCacheDir = getRootCacheDir();
+        return Stream.of("descriptors", "range-descriptors", "module-descriptors", "range-module-descriptors")
+                .map(rootCacheDir::resolve)
+                .collect(Collectors.toList());
+    }
+
+    /** Records when the descriptor cache was last cleaned up, held locked while it is. */
+    public static Path getDescriptorCacheCleanupFile() {
+        return getRootCacheDir().resolve("descriptors-cleanup.lock");
+    }
+
+    /** Whether npm repositories publish Gradle Module Metadata next to the Ivy descriptors and prefer it. */
+    public static boolean useModuleMetadata() {
+        return getBoolean(MODULE_METADATA_ENV_NAME, MODULE_METADATA_PROP_NAME);
+    }
+
+    /** Whether descriptors translate npm version ranges into Gradle version ranges instead of pinning versions. */
+    public static boolean useVersionRanges() {
+        return getBoolean(VERSION_RANGES_ENV_NAME, VERSION_RANGES_PROP_NAME);
+    }
+
+    /** Store of extracted npm modules shared by all builds on this machine, if enabled. */
+    public static Optional<Path> getModuleStoreDir() {
+        return getBoolean(MODULE_STORE_ENV_NAME, MODULE_STORE_PROP_NAME)
+                ? Optional.of(getRootCacheDir().resolve("modules"))
+                : Optional.empty();
+    }
+
+    /** Extracted npm modules not used for this long are evicted from the module store, 0 disables. */
+    public static Duration getModuleStoreMaxAge() {
+        return Duration.ofDays(getLong(MODULE_STORE_MAX_AGE_ENV_NAME, MODULE_STORE_MAX_AGE_PROP_NAME, 30));
+    }
+
+    /** Directory of npm tarballs the shim serves locally instead of proxying them, if enabled. */
+    public static Optional<Path> getTarballCacheDir() {
+        return getBoolean(TARBALL_CACHE_ENV_NAME, TARBALL_CACHE_PROP_NAME)
+                ? Optional.of(getRootCacheDir().resolve("tarballs"))
+                : Optional.empty();
+    }
+
+    /** Whether builds share a standalone shim process that outlives them instead of starting one in process. */
+    public static boolean useShimDaemon() {
+        return getBoolean(SHIM_DAEMON_ENV_NAME, SHIM_DAEMON_PROP_NAME);
+    }
+
+    public static Path getShimDaemonDir() {
+        return getRootCacheDir().resolve("daemons");
+    }
+
+    public static Duration getShimDaemonIdleTimeout() {
+        return Duration.ofMinutes(getLong(SHIM_DAEMON_IDLE_TIMEOUT_ENV_NAME, SHIM_DAEMON_IDLE_TIMEOUT_PROP_NAME, 60));
     }
 
     public static int getProxyPort() {
@@ -43,4 +149,112 @@ final class ShimConfiguration {
                 .map(Integer::valueOf)
                 .orElse(7348);
     }
+
+    /** Maximum number of descriptor bytes held in memory in front of the on-disk descriptor cache. */
+    public static long getDescriptorCacheMaxWeight() {
+        return getLong(DESCRIPTOR_CACHE_WEIGHT_ENV_NAME, DESCRIPTOR_CACHE_WEIGHT_PROP_NAME, 64 * 1024 * 1024);
+    }
+
+    /** Maximum number of packages remembered as missing from the registry. */
+    public static long getDescriptorCacheMaxSize() {
+        return getLong(DESCRIPTOR_CACHE_SIZE_ENV_NAME, DESCRIPTOR_CACHE_SIZE_PROP_NAME, 10_000);
+    }
+
+    /** How long packages missing from the registry are answered as missing without asking it again, 0 disables. */
+    public static Duration getNotFoundTtl() {
+        return Duration.ofSeconds(getLong(NOT_FOUND_TTL_ENV_NAME, NOT_FOUND_TTL_PROP_NAME, 600));
+    }
+
+    /** Whether cached descriptors are kept in a single indexed segment file instead of a directory per version. */
+    public static boolean useDescriptorSegments() {
+        return getBoolean(DESCRIPTOR_SEGMENTS_ENV_NAME, DESCRIPTOR_SEGMENTS_PROP_NAME);
+    }
+
+    /** Cached descriptors not used for this long are evicted, 0 disables. */
+    public static Duration getDescriptorCacheMaxAge() {
+        return Duration.ofDays(getLong(DESCRIPTOR_CACHE_MAX_AGE_ENV_NAME, DESCRIPTOR_CACHE_MAX_AGE_PROP_NAME, 30));
+    }
+
+    /** Least recently used descriptors are evicted beyond this many package versions, 0 disables. */
+    public static long getDescriptorCacheMaxEntries() {
+        return getLong(DESCRIPTOR_CACHE_MAX_ENTRIES_ENV_NAME, DESCRIPTOR_CACHE_MAX_ENTRIES_PROP_NAME, 0);
+    }
+
+    /** Least recently used descriptors are evicted beyond this many bytes on disk, 0 disables. */
+    public static long getDescriptorCacheMaxDiskBytes() {
+        return getLong(DESCRIPTOR_CACHE_MAX_DISK_ENV_NAME, DESCRIPTOR_CACHE_MAX_DISK_PROP_NAME, 0);
+    }
+
+    /** Number of threads serving requests that block on the upstream registry. */
+    public static int getWorkerThreads() {
+        return Math.toIntExact(getLong(WORKER_THREADS_ENV_NAME, WORKER_THREADS_PROP_NAME, 64));
+    }
+
+    /** Whether to serve blocking requests on virtual threads, only honoured on runtimes that have them. */
+    public static boolean useVirtualThreads() {
+        return getBoolean(VIRTUAL_THREADS_ENV_NAME, VIRTUAL_THREADS_PROP_NAME);
+    }
+
+    /** Whether package.json lookups are answered from the packument of the package, fetched once for all versions. */
+    public static boolean usePackuments() {
+        return getBoolean(PACKUMENTS_ENV_NAME, PACKUMENTS_PROP_NAME);
+    }
+
+    /** Whether to negotiate HTTP/2 with upstream registries, registries that don't support it are served HTTP/1.1. */
+    public static boolean useUpstreamHttp2() {
+        return Optional.ofNullable(System.getenv(UPSTREAM_HTTP2_ENV_NAME))
+                .or(() -> Optional.ofNullable(System.getProperty(UPSTREAM_HTTP2_PROP_NAME)))
+                .map(Boolean::parseBoolean)
+                .orElse(true);
+    }
+
+    /** Maximum number of connections each shim I/O thread keeps open to the upstream registry when proxying. */
+    public static int getUpstreamConnectionsPerThread() {
+        return Math.toIntExact(getLong(UPSTREAM_CONNECTIONS_ENV_NAME, UPSTREAM_CONNECTIONS_PROP_NAME, 20));
+    }
+
+    /** How long surplus upstream connections are kept alive while idle. */
+    public static Duration getUpstreamIdleTimeout() {
+        return Duration.ofSeconds(getLong(UPSTREAM_IDLE_TIMEOUT_ENV_NAME, UPSTREAM_IDLE_TIMEOUT_PROP_NAME, 60));
+    }
+
+    /** Number of descriptors fetched concurrently when warming the cache from lockfiles, 0 disables prefetching. */
+    public static int getPrefetchParallelism() {
+        return Math.toIntExact(getLong(PREFETCH_PARALLELISM_ENV_NAME, PREFETCH_PARALLELISM_PROP_NAME, 8));
+    }
+
+    /**
+     * Maximum number of publish tasks uploading npm publications at the same time. Only a cap, uploads only run in
+     * parallel when Gradle runs the publish tasks in parallel.
+     */
+    public static int getPublishParallelism() {
+        return Math.toIntExact(getLong(PUBLISH_PARALLELISM_ENV_NAME, PUBLISH_PARALLELISM_PROP_NAME, 8));
+    }
+
+    /** Whether the npm shim summarises what it served at the end of every build instead of only at info level. */
+    public static boolean logShimMetrics() {
+        return getBoolean(SHIM_METRICS_ENV_NAME, SHIM_METRICS_PROP_NAME);
+    }
+
+    private static boolean getBoolean(String envName, String propName) {
+        return Optional.ofNullable(System.getenv(envName))
+                .or(() -> Optional.ofNullable(System.getProperty(propName)))
+                .map(Boolean::parseBoolean)
+                .orElse(false);
+    }
+
+    private static long getLong(String envName, String propName, long defaultValue) {
+        return Optional.ofNullable(System.getenv(envName))
+                .or(() -> Optional.ofNullable(System.getProperty(propName)))
+                .map(Long::valueOf)
+                .orElse(defaultValue);
+    }
+
+    private static Path getRootCacheDir() {
+        return Paths.get(Optional.ofNullable(System.getenv(GRADLE_TYPESCRIPT_DIR_ENV_NAME))
+                        .or(() -> Optional.ofNullable(System.getProperty(GRADLE_TYPESCRIPT_DIR_PROP_NAME)))
+                        .map(t -> t.endsWith("/") ? t.substring(0, t.length() - 1) : t)
+                        .orElseGet(() -> System.getProperty("user.home") + "/.gradle-typeScript"))
+                .resolve("cache");
+    }
 }
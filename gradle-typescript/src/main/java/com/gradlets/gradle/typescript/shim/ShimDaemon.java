@@ -0,0 +1,101 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.gradlets.gradle.typescript.shim.NpmArtifactoryShim.ShimServer;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Entry point of a standalone shim process shared by all gradle daemons on a host, see {@link ShimDaemonClient}.
+ * Publishes its port through a port file and exits once it hasn't served a request for the configured idle timeout.
+ */
+public final class ShimDaemon {
+    private static final Logger log = LoggerFactory.getLogger(ShimDaemon.class);
+
+    public static void main(String[] args) throws IOException {
+        String uri = args[0];
+        Path portFile = Paths.get(args[1]);
+        Path lockFile = Paths.get(args[2]);
+        int preferredPort = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+
+        AtomicLong lastRequestNanos = new AtomicLong(System.nanoTime());
+        ShimServer server = start(uri, preferredPort, () -> lastRequestNanos.set(System.nanoTime()));
+        String port = Integer.toString(server.getUri().getPort());
+        Path tempFile = Files.createTempFile(portFile.getParent(), portFile.getFileName().toString(), ".tmp");
+        Files.writeString(tempFile, port, StandardCharsets.UTF_8);
+        Files.move(tempFile, portFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        long idleTimeoutNanos = ShimConfiguration.getShimDaemonIdleTimeout().toNanos();
+        ScheduledExecutorService idleChecker = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("npm-shim-idle").build());
+        idleChecker.scheduleWithFixedDelay(
+                () -> {
+                    if (System.nanoTime() - lastRequestNanos.get() > idleTimeoutNanos) {
+                        log.info("Stopping npm shim daemon after being idle for {}", idleTimeoutNanos);
+                        unpublish(portFile, lockFile, port);
+                        server.close();
+                        idleChecker.shutdown();
+                    }
+                },
+                1,
+                1,
+                TimeUnit.MINUTES);
+    }
+
+    // Restarted daemons try to come back on the port builds already know, but must not fail if it was taken meanwhile
+    private static ShimServer start(String uri, int preferredPort, Runnable onRequest) {
+        if (preferredPort != 0) {
+            try {
+                return NpmArtifactoryShim.startServer(uri, preferredPort, onRequest);
+            } catch (RuntimeException e) {
+                log.warn("Failed to start npm shim daemon on port {}, picking another one", preferredPort, e);
+            }
+        }
+        return NpmArtifactoryShim.startServer(uri, 0, onRequest);
+    }
+
+    // Clients look up daemons while holding the lock, so none can pick up our port while we are going away
+    private static void unpublish(Path portFile, Path lockFile, String port) {
+        try (FileChannel lockChannel =
+                        FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock _lock = lockChannel.lock()) {
+            // A replacement daemon might have been started if we stopped responding
+            if (Files.exists(portFile) && Files.readString(portFile, StandardCharsets.UTF_8).equals(port)) {
+                Files.delete(portFile);
+            }
+        } catch (IOException e) {
+            log.warn("Failed to remove npm shim daemon port file", e);
+        }
+    }
+
+    private ShimDaemon() {}
+}
@@ -0,0 +1,341 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.gradlets.gradle.typescript.ObjectMappers;
+import com.gradlets.gradle.typescript.shim.NpmArtifactoryShim.ShimServer;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIoException;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Connects builds to the {@link ShimDaemon} of an upstream registry, starting one if none is running. Daemons are
+ * found through a port file under {@link ShimConfiguration#getShimDaemonDir()}, guarded by a lock file so that
+ * concurrent builds never start more than one daemon per registry.
+ *
+ * <p>Daemons run with the shim configuration and the plugin jars of the build that started them, so both are part of
+ * what identifies a daemon and builds that differ in either never share one. Connected builds ping their daemon
+ * periodically, which keeps it from idling out under them, and start it again on the same port if it went away.
+ */
+public final class ShimDaemonClient {
+    private static final Logger log = LoggerFactory.getLogger(ShimDaemonClient.class);
+
+    private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(30);
+    private static final Duration HEARTBEAT_INTERVAL = Duration.ofSeconds(30);
+    private static final String ENV_PREFIX = "GRADLE_TYPESCRIPT_";
+    private static final HttpClient HTTP_CLIENT =
+            HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(2)).build();
+    private static final ScheduledExecutorService HEARTBEATS = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder()
+                    .setNameFormat("npm-shim-heartbeat")
+                    .setDaemon(true)
+                    .build());
+
+    public static ShimServer connect(String uri) throws IOException {
+        Path daemonDir = ShimConfiguration.getShimDaemonDir();
+        Files.createDirectories(daemonDir);
+        String classpath = classpath();
+        String name = daemonName(uri, forwardedProperties(), forwardedEnvironment(), classpath);
+        return new DaemonShimServer(uri, daemonDir, name, classpath, findOrStart(uri, daemonDir, name, classpath, 0));
+    }
+
+    /** Identifies the daemon of a registry for the given configuration and plugin jars. */
+    @VisibleForTesting
+    static String daemonName(
+            String uri, Map<String, String> properties, Map<String, String> environment, String classpath) {
+        Hasher hasher = Hashing.sha256().newHasher().putString(uri, StandardCharsets.UTF_8);
+        for (Map<String, String> settings : List.of(properties, environment)) {
+            new TreeMap<>(settings).forEach((key, value) -> hasher.putChar('\0')
+                    .putString(key, StandardCharsets.UTF_8)
+                    .putChar('=')
+                    .putString(value, StandardCharsets.UTF_8));
+        }
+        // Jars of snapshot builds of the plugin are replaced in place
+        for (String entry : Splitter.on(File.pathSeparator).omitEmptyStrings().split(classpath)) {
+            File file = new File(entry);
+            hasher.putChar('\0')
+                    .putString(entry, StandardCharsets.UTF_8)
+                    .putLong(file.length())
+                    .putLong(file.lastModified());
+        }
+        return hasher.hash().toString().substring(0, 16);
+    }
+
+    // File locks are held by the whole JVM, threads of this process have to take turns
+    private static synchronized URI findOrStart(
+            String uri, Path daemonDir, String name, String classpath, int preferredPort) throws IOException {
+        Path portFile = daemonDir.resolve(name + ".port");
+        Path lockFile = daemonDir.resolve(name + ".lock");
+
+        try (FileChannel lockChannel =
+                        FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock _lock = lockChannel.lock()) {
+            Optional<URI> running = readUri(portFile).filter(ShimDaemonClient::isAlive);
+            return running.isPresent()
+                    ? running.get()
+                    : start(uri, portFile, lockFile, daemonDir.resolve(name + ".log"), classpath, preferredPort);
+        }
+    }
+
+    private static URI start(
+            String uri, Path portFile, Path lockFile, Path logFile, String classpath, int preferredPort)
+            throws IOException {
+        Files.deleteIfExists(portFile);
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        forwardedProperties().forEach((property, value) -> command.add("-D" + property + "=" + value));
+        command.add("-cp");
+        command.add(classpath);
+        command.add(ShimDaemon.class.getName());
+        command.add(uri);
+        command.add(portFile.toString());
+        command.add(lockFile.toString());
+        command.add(Integer.toString(preferredPort));
+
+        rotateLog(logFile);
+        Process process = new ProcessBuilder(command)
+                .redirectErrorStream(true)
+                .redirectOutput(logFile.toFile())
+                .start();
+        process.getOutputStream().close();
+
+        long deadline = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        while (System.nanoTime() < deadline && process.isAlive()) {
+            Optional<URI> started = readUri(portFile);
+            if (started.isPresent()) {
+                return started.get();
+            }
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        process.destroy();
+        throw new SafeIoException(
+                "Failed to start npm shim daemon", SafeArg.of("logFile", logFile.toAbsolutePath().toString()));
+    }
+
+    /** Keeps the log of the previous daemon next to the one about to start, instead of appending to it forever. */
+    @VisibleForTesting
+    static void rotateLog(Path logFile) throws IOException {
+        if (Files.exists(logFile)) {
+            Files.move(
+                    logFile,
+                    logFile.resolveSibling(logFile.getFileName() + ".1"),
+                    StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    // Everything that configures the shim, the daemon inherits the environment and gets these properties passed
+    private static SortedMap<String, String> forwardedProperties() {
+        SortedMap<String, String> properties = new TreeMap<>();
+        for (String property : System.getProperties().stringPropertyNames()) {
+            if (property.startsWith("gradle.typeScript.") || property.startsWith("javax.net.ssl.")) {
+                properties.put(property, System.getProperty(property));
+            }
+        }
+        return properties;
+    }
+
+    private static SortedMap<String, String> forwardedEnvironment() {
+        SortedMap<String, String> environment = new TreeMap<>();
+        System.getenv().forEach((name, value) -> {
+            if (name.startsWith(ENV_PREFIX)) {
+                environment.put(name, value);
+            }
+        });
+        return environment;
+    }
+
+    private static Optional<URI> readUri(Path portFile) throws IOException {
+        try {
+            return Optional.of(URI.create("http://localhost:" + Files.readString(portFile, StandardCharsets.UTF_8)));
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        }
+    }
+
+    private static boolean isAlive(URI shimUri) {
+        try {
+            return HTTP_CLIENT
+                            .send(
+                                    HttpRequest.newBuilder(shimUri.resolve("/__shim/ping"))
+                                            .timeout(Duration.ofSeconds(2))
+                                            .build(),
+                                    HttpResponse.BodyHandlers.discarding())
+                            .statusCode()
+                    == 200;
+        } catch (IOException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    // The plugin's own jars and its dependencies, plus slf4j which gradle provides to plugins. Tests load the plugin
+    // from the application class path instead
+    private static String classpath() throws IOException {
+        if (!(ShimDaemon.class.getClassLoader() instanceof URLClassLoader)) {
+            if (ShimDaemon.class.getClassLoader() == ClassLoader.getSystemClassLoader()) {
+                return System.getProperty("java.class.path");
+            }
+            throw new SafeIoException("Unable to determine the classpath of the npm shim");
+        }
+        Set<URL> urls = new LinkedHashSet<>(List.of(((URLClassLoader) ShimDaemon.class.getClassLoader()).getURLs()));
+        urls.add(LoggerFactory.class.getProtectionDomain().getCodeSource().getLocation());
+        try {
+            List<String> entries = new ArrayList<>();
+            for (URL url : urls) {
+                entries.add(Paths.get(url.toURI()).toString());
+            }
+            return String.join(File.pathSeparator, entries);
+        } catch (URISyntaxException e) {
+            throw new IOException("Unable to determine the classpath of the npm shim", e);
+        }
+    }
+
+    @VisibleForTesting
+    static final class DaemonShimServer implements ShimServer {
+        private final String registryUri;
+        private final Path daemonDir;
+        private final String name;
+        private final String classpath;
+        // Builds bake this into their repositories, so restarted daemons have to come back on the same port
+        private final URI uri;
+        private final ScheduledFuture<?> heartbeat;
+
+        DaemonShimServer(String registryUri, Path daemonDir, String name, String classpath, URI uri) {
+            this.registryUri = registryUri;
+            this.daemonDir = daemonDir;
+            this.name = name;
+            this.classpath = classpath;
+            this.uri = uri;
+            this.heartbeat = HEARTBEATS.scheduleWithFixedDelay(
+                    this::ensureRunning,
+                    HEARTBEAT_INTERVAL.toMillis(),
+                    HEARTBEAT_INTERVAL.toMillis(),
+                    TimeUnit.MILLISECONDS);
+        }
+
+        /** Pings the daemon, which counts as activity, and starts it again if it doesn't answer. */
+        @VisibleForTesting
+        void ensureRunning() {
+            if (isAlive(uri)) {
+                return;
+            }
+            try {
+                URI restarted = findOrStart(registryUri, daemonDir, name, classpath, uri.getPort());
+                if (restarted.equals(uri)) {
+                    log.info("Restarted npm shim daemon for {} on {}", registryUri, uri);
+                } else {
+                    log.warn(
+                            "npm shim daemon for {} moved from {} to {}, npm dependencies of this build will fail to "
+                                    + "resolve",
+                            registryUri,
+                            uri,
+                            restarted);
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("Failed to restart npm shim daemon for {}", registryUri, e);
+            }
+        }
+
+        @Override
+        public URI getUri() {
+            return uri;
+        }
+
+        @Override
+        public void prefetch(Collection<Path> lockfiles) {
+            String body = lockfiles.stream().map(Path::toString).collect(Collectors.joining("\n"));
+            HTTP_CLIENT.sendAsync(
+                    HttpRequest.newBuilder(uri.resolve("/__shim/prefetch"))
+                            .POST(HttpRequest.BodyPublishers.ofString(body))
+                            .build(),
+                    HttpResponse.BodyHandlers.discarding());
+        }
+
+        @Override
+        public Optional<MetricsSnapshot> metrics() {
+            try {
+                HttpResponse<String> response = HTTP_CLIENT.send(
+                        HttpRequest.newBuilder(uri.resolve("/__metrics"))
+                                .timeout(Duration.ofSeconds(2))
+                                .build(),
+                        HttpResponse.BodyHandlers.ofString());
+                return response.statusCode() == 200
+                        ? Optional.of(ObjectMappers.MAPPER.readValue(response.body(), MetricsSnapshot.class))
+                        : Optional.empty();
+            } catch (IOException e) {
+                return Optional.empty();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return Optional.empty();
+            }
+        }
+
+        // The daemon outlives builds and shuts itself down once idle, the build only stops keeping it alive
+        @Override
+        public void close() {
+            heartbeat.cancel(false);
+        }
+    }
+
+    private ShimDaemonClient() {}
+}
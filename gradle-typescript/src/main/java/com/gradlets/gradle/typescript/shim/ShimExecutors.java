@@ -0,0 +1,50 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Executors for the work the shim must keep off its I/O threads, mostly blocking calls to the upstream registry. */
+final class ShimExecutors {
+    private static final Logger log = LoggerFactory.getLogger(ShimExecutors.class);
+
+    static ExecutorService newWorkerExecutor() {
+        if (ShimConfiguration.useVirtualThreads()) {
+            try {
+                // Looked up reflectively since we compile against a release without virtual threads
+                return (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+            } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+                log.info("Virtual threads are not available, falling back to platform threads", e);
+            }
+        }
+        return Executors.newFixedThreadPool(
+                ShimConfiguration.getWorkerThreads(),
+                new ThreadFactoryBuilder()
+                        .setNameFormat("npm-shim-worker-%d")
+                        .setDaemon(true)
+                        .build());
+    }
+
+    private ShimExecutors() {}
+}
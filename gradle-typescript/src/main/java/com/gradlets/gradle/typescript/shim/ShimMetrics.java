@@ -0,0 +1,172 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim;
+
+import java.util.Locale;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Timers and counters of a single shim, cheap enough to update on every request. Timers bucket latencies by powers of
+ * two so percentiles can be estimated without keeping samples, and count operations in flight.
+ */
+public final class ShimMetrics {
+    public static final String DESCRIPTOR_CACHE_MEMORY_HITS = "descriptorCache.memoryHits";
+    public static final String DESCRIPTOR_CACHE_DISK_HITS = "descriptorCache.diskHits";
+    // Descriptors that had to be generated from the registry's package.json
+    public static final String DESCRIPTOR_CACHE_MISSES = "descriptorCache.misses";
+    public static final String DESCRIPTOR_CACHE_STORES = "descriptorCache.stores";
+    public static final String DESCRIPTOR_CACHE_NOT_FOUND_HITS = "descriptorCache.notFoundHits";
+
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+    public Timer timer(String name) {
+        return timers.computeIfAbsent(name, _name -> new Timer());
+    }
+
+    public void increment(String name) {
+        counters.computeIfAbsent(name, _name -> new LongAdder()).increment();
+    }
+
+    public MetricsSnapshot snapshot() {
+        MetricsSnapshot.Builder builder = MetricsSnapshot.builder();
+        counters.forEach((name, counter) -> builder.putCounters(name, counter.sum()));
+        timers.forEach((name, timer) -> builder.putTimers(name, timer.snapshot()));
+        return builder.build();
+    }
+
+    /** Renders a snapshot for the build log, one line for the descriptor cache and one per timer. */
+    public static String summary(MetricsSnapshot snapshot) {
+        long memoryHits = snapshot.counters().getOrDefault(DESCRIPTOR_CACHE_MEMORY_HITS, 0L);
+        long diskHits = snapshot.counters().getOrDefault(DESCRIPTOR_CACHE_DISK_HITS, 0L);
+        long misses = snapshot.counters().getOrDefault(DESCRIPTOR_CACHE_MISSES, 0L);
+        long lookups = memoryHits + diskHits + misses;
+        StringBuilder summary = new StringBuilder()
+                .append(String.format(
+                        Locale.ROOT,
+                        "descriptor cache: %.1f%% hit ratio, %d memory hits, %d disk hits, %d misses, %d known missing",
+                        lookups == 0 ? 0.0 : 100.0 * (memoryHits + diskHits) / lookups,
+                        memoryHits,
+                        diskHits,
+                        misses,
+                        snapshot.counters().getOrDefault(DESCRIPTOR_CACHE_NOT_FOUND_HITS, 0L)));
+        new TreeMap<>(snapshot.timers())
+                .forEach((name, timer) -> summary.append(String.format(
+                        Locale.ROOT,
+                        "%n%s: %d calls, %d in flight, mean %.1fms, p50 %.1fms, p95 %.1fms, p99 %.1fms, max %.1fms",
+                        name,
+                        timer.count(),
+                        timer.active(),
+                        timer.meanMillis(),
+                        timer.p50Millis(),
+                        timer.p95Millis(),
+                        timer.p99Millis(),
+                        timer.maxMillis())));
+        return summary.toString();
+    }
+
+    public static final class Timer {
+        // Bucket i holds latencies below 2^i microseconds, the last one everything slower than about half a minute
+        private static final int BUCKETS = 26;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLong active = new AtomicLong();
+
+        /** Starts timing an operation, which counts as in flight until the returned context is stopped. */
+        public Context start() {
+            active.incrementAndGet();
+            return new Context(this, System.nanoTime());
+        }
+
+        public <T> T time(Supplier<T> operation) {
+            Context context = start();
+            try {
+                return operation.get();
+            } finally {
+                context.stop();
+            }
+        }
+
+        void record(long nanos) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+            buckets.incrementAndGet(bucket);
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        MetricsSnapshot.TimerSnapshot snapshot() {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            double maxMillis = toMillis(maxNanos.get());
+            return MetricsSnapshot.TimerSnapshot.builder()
+                    .count(total)
+                    .active(active.get())
+                    .meanMillis(total == 0 ? 0 : toMillis(totalNanos.sum()) / total)
+                    .p50Millis(percentile(counts, total, 0.5, maxMillis))
+                    .p95Millis(percentile(counts, total, 0.95, maxMillis))
+                    .p99Millis(percentile(counts, total, 0.99, maxMillis))
+                    .maxMillis(maxMillis)
+                    .build();
+        }
+
+        private static double percentile(long[] counts, long total, double quantile, double maxMillis) {
+            long rank = (long) Math.ceil(total * quantile);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank && seen > 0) {
+                    // Upper bound of the bucket, but never more than the slowest operation we've seen
+                    return Math.min((1L << i) / 1000.0, maxMillis);
+                }
+            }
+            return 0;
+        }
+
+        private static double toMillis(long nanos) {
+            return nanos / 1_000_000.0;
+        }
+    }
+
+    public static final class Context {
+        private final Timer timer;
+        private final long startNanos;
+
+        private Context(Timer timer, long startNanos) {
+            this.timer = timer;
+            this.startNanos = startNanos;
+        }
+
+        public void stop() {
+            timer.record(System.nanoTime() - startNanos);
+            timer.active.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.hash.HashingInputStream;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.MoreFiles;
+import com.gradlets.gradle.typescript.shim.clients.PackageJson;
+import com.palantir.dialogue.Response;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIoException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Optional;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Tarballs downloaded by the shim, shared by every build on this machine. Tarballs are stored by the digest the
+ * registry publishes for them, so registries serving different contents under the same coordinates never share a
+ * tarball. Downloads are verified against that digest before they become visible in the cache, and cached tarballs
+ * again before they are served.
+ *
+ * <p>Registries may restrict who can download a tarball, so serving one from the cache still asks the registry whether
+ * the request's credentials may download it. Positive answers are remembered for a while.
+ */
+final class TarballCache {
+    private static final Logger log = LoggerFactory.getLogger(TarballCache.class);
+
+    private static final String SHA512_PREFIX = "sha512-";
+    private static final Duration AUTHORIZATION_TTL = Duration.ofMinutes(10);
+    private static final int MAX_AUTHORIZATIONS = 10_000;
+
+    private final Path cacheDir;
+    // Hashes of tarball urls and the credentials the registry allowed to download them
+    private final Cache<HashCode, Boolean> authorizations = CacheBuilder.newBuilder()
+            .maximumSize(MAX_AUTHORIZATIONS)
+            .expireAfterWrite(AUTHORIZATION_TTL)
+            .build();
+
+    TarballCache(Path cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    Path getOrDownload(PackageJson packageJson, Optional<String> authorization) throws IOException {
+        PackageJson.Dist dist = packageJson.dist();
+        String digest = BaseEncoding.base16().lowerCase().encode(expectedDigest(dist));
+        Path tarball = cacheDir.resolve(digestName(dist))
+                .resolve(digest.substring(0, 2))
+                .resolve(digest.substring(2) + ".tgz");
+        if (Files.exists(tarball)) {
+            if (isIntact(dist, tarball)) {
+                checkAuthorized(dist, authorization);
+                return tarball;
+            }
+            log.warn(
+                    "Cached tarball of {}@{} is corrupt, downloading it again",
+                    packageJson.name(),
+                    packageJson.version());
+            Files.deleteIfExists(tarball);
+        }
+
+        try (Response response = UpstreamTransport.fetchFile(dist.tarball(), false, authorization);
+                InputStream body = response.body()) {
+            if (response.code() != 200) {
+                throw new SafeIoException("Failed to download tarball", SafeArg.of("statusCode", response.code()));
+            }
+
+            Files.createDirectories(tarball.getParent());
+            Path tempFile = Files.createTempFile(tarball.getParent(), packageJson.version(), ".tmp");
+            try {
+                HashingInputStream hashingBody = new HashingInputStream(digest(dist), body);
+                Files.copy(hashingBody, tempFile, StandardCopyOption.REPLACE_EXISTING);
+                verify(dist, hashingBody.hash().asBytes());
+                Files.move(tempFile, tarball, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+        authorizations.put(authorizationKey(dist, authorization), true);
+        return tarball;
+    }
+
+    private void checkAuthorized(PackageJson.Dist dist, Optional<String> authorization) throws IOException {
+        HashCode key = authorizationKey(dist, authorization);
+        if (authorizations.getIfPresent(key) != null) {
+            return;
+        }
+        try (Response response = UpstreamTransport.fetchFile(dist.tarball(), true, authorization)) {
+            if (response.code() != 200) {
+                throw new SafeIoException(
+                        "Registry refused access to cached tarball", SafeArg.of("statusCode", response.code()));
+            }
+        }
+        authorizations.put(key, true);
+    }
+
+    private static HashCode authorizationKey(PackageJson.Dist dist, Optional<String> authorization) {
+        return Hashing.sha256()
+                .newHasher()
+                .putString(dist.tarball(), StandardCharsets.UTF_8)
+                .putChar('\n')
+                .putString(authorization.orElse(""), StandardCharsets.UTF_8)
+                .hash();
+    }
+
+    private static boolean isIntact(PackageJson.Dist dist, Path tarball) throws IOException {
+        try {
+            return Arrays.equals(
+                    MoreFiles.asByteSource(tarball).hash(digest(dist)).asBytes(), expectedDigest(dist));
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private static HashFunction digest(PackageJson.Dist dist) {
+        return sha512Integrity(dist).isPresent() ? Hashing.sha512() : Hashing.sha1();
+    }
+
+    private static String digestName(PackageJson.Dist dist) {
+        return sha512Integrity(dist).isPresent() ? "sha512" : "sha1";
+    }
+
+    private static byte[] expectedDigest(PackageJson.Dist dist) throws IOException {
+        try {
+            return sha512Integrity(dist).isPresent()
+                    ? BaseEncoding.base64().decode(sha512Integrity(dist).get())
+                    : BaseEncoding.base16().lowerCase().decode(dist.shasum().toLowerCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new SafeIoException("Registry published a malformed tarball digest", e);
+        }
+    }
+
+    private static void verify(PackageJson.Dist dist, byte[] digest) throws IOException {
+        if (!Arrays.equals(expectedDigest(dist), digest)) {
+            throw new SafeIoException(
+                    "Tarball does not match the digest published by the registry",
+                    SafeArg.of("expected", sha512Integrity(dist).orElseGet(dist::shasum)),
+                    SafeArg.of("actual", BaseEncoding.base16().lowerCase().encode(digest)));
+        }
+    }
+
+    // Integrity may list several digests separated by whitespace, we only verify sha512 ones
+    private static Optional<String> sha512Integrity(PackageJson.Dist dist) {
+        return dist.integrity().flatMap(integrity -> {
+            for (String candidate : integrity.trim().split("\\s+")) {
+                if (candidate.startsWith(SHA512_PREFIX)) {
+                    return Optional.of(candidate.substring(SHA512_PREFIX.length()));
+                }
+            }
+            return Optional.empty();
+        });
+    }
+}
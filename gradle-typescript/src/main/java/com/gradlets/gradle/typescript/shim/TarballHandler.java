@@ -0,0 +1,110 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.gradlets.gradle.typescript.shim.clients.PackageJson;
+import io.undertow.io.IoCallback;
+import io.undertow.io.Sender;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/** Serves tarball requests from the local {@link TarballCache}, handing anything it can't serve to the proxy. */
+final class TarballHandler implements HttpHandler {
+    private static final Logger log = LoggerFactory.getLogger(TarballHandler.class);
+    private static final int MAX_REMEMBERED_VERSIONS = 10_000;
+
+    private final TarballCache tarballCache;
+    private final PackageJsonLoader packageJsonLoader;
+    private final Executor executor;
+    private final HttpHandler next;
+    // Published versions never change, so their digests only need to be looked up once
+    private final Cache<ModuleIdentifier, PackageJson> packageJsons =
+            CacheBuilder.newBuilder().maximumSize(MAX_REMEMBERED_VERSIONS).build();
+
+    TarballHandler(
+            TarballCache tarballCache, PackageJsonLoader packageJsonLoader, Executor executor, HttpHandler next) {
+        this.tarballCache = tarballCache;
+        this.packageJsonLoader = packageJsonLoader;
+        this.executor = executor;
+        this.next = next;
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        Optional<ModuleIdentifier> artifact = IvyPatterns.parseArtifactPath(exchange.getRelativePath());
+        if (!exchange.getRequestMethod().equals(Methods.GET) || artifact.isEmpty()) {
+            next.handleRequest(exchange);
+            return;
+        }
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(executor, this);
+            return;
+        }
+
+        Path tarball;
+        try {
+            PackageJson packageJson = packageJsons.get(
+                    artifact.get(),
+                    () -> packageJsonLoader.getPackageJson(
+                            artifact.get().packageName(), artifact.get().packageVersion()));
+            tarball = tarballCache.getOrDownload(
+                    packageJson, Optional.ofNullable(exchange.getRequestHeaders().getFirst(Headers.AUTHORIZATION)));
+        } catch (IOException | ExecutionException | RuntimeException e) {
+            log.info("Failed to cache tarball of {}, proxying it instead", artifact.get(), e);
+            exchange.dispatch(exchange.getIoThread(), next);
+            return;
+        }
+
+        FileChannel channel = FileChannel.open(tarball, StandardOpenOption.READ);
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "application/octet-stream");
+        exchange.setResponseContentLength(channel.size());
+        exchange.getResponseSender().transferFrom(channel, new IoCallback() {
+            @Override
+            public void onComplete(HttpServerExchange completedExchange, Sender sender) {
+                closeQuietly(channel);
+                IoCallback.END_EXCHANGE.onComplete(completedExchange, sender);
+            }
+
+            @Override
+            public void onException(HttpServerExchange failedExchange, Sender sender, IOException exception) {
+                closeQuietly(channel);
+                IoCallback.END_EXCHANGE.onException(failedExchange, sender, exception);
+            }
+        });
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.debug("Failed to close tarball", e);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim;
+
+import com.google.common.hash.Hashing;
+import com.google.common.net.HttpHeaders;
+import com.gradlets.gradle.typescript.shim.clients.NpmRepository;
+import com.palantir.conjure.java.api.config.service.PartialServiceConfiguration;
+import com.palantir.conjure.java.api.config.service.ServicesConfigBlock;
+import com.palantir.conjure.java.api.config.service.UserAgent;
+import com.palantir.conjure.java.api.config.service.UserAgent.Agent;
+import com.palantir.conjure.java.api.config.ssl.SslConfiguration;
+import com.palantir.conjure.java.api.config.ssl.SslConfiguration.StoreType;
+import com.palantir.dialogue.Response;
+import com.palantir.dialogue.clients.DialogueClients;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIoException;
+import com.palantir.logsafe.exceptions.SafeRuntimeException;
+import com.palantir.refreshable.Refreshable;
+import com.palantir.refreshable.SettableRefreshable;
+import io.undertow.UndertowOptions;
+import io.undertow.protocols.ssl.UndertowXnioSsl;
+import io.undertow.server.handlers.proxy.LoadBalancingProxyClient;
+import io.undertow.server.handlers.proxy.ProxyClient;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
+import java.security.NoSuchProviderException;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.xnio.OptionMap;
+import org.xnio.Xnio;
+
+/**
+ * Clients the shim uses to talk to upstream registries. They are shared by every shim in the process so that
+ * connections, and the TLS sessions behind them, are reused across registries' lookups, tarball downloads and
+ * proxied requests. Lookups and downloads go through one Dialogue client per registry host, requests the shim proxies
+ * as they are through one undertow proxy client per registry. HTTP/2 is negotiated wherever the registry supports it.
+ */
+final class UpstreamTransport {
+    private static final UserAgent USER_AGENT = UserAgent.of(Agent.of(
+            "npm-shim",
+            Optional.ofNullable(UpstreamTransport.class.getPackage().getImplementationVersion())
+                    .orElse("0.0.0")));
+
+    private static final SettableRefreshable<ServicesConfigBlock> SERVICES =
+            Refreshable.create(ServicesConfigBlock.empty());
+    private static final DialogueClients.ReloadingFactory CLIENTS =
+            DialogueClients.create(SERVICES).withUserAgent(USER_AGENT);
+
+    private static final int MAX_REDIRECTS = 5;
+    private static final Set<Integer> REDIRECTS = Set.of(301, 302, 303, 307, 308);
+
+    // Proxied requests to a registry share one pool of connections, whichever shim accepted them
+    private static final ConcurrentMap<String, ProxyClient> PROXY_CLIENTS = new ConcurrentHashMap<>();
+
+    /**
+     * Requests a file a registry links to, such as a tarball, following redirects. Credentials are only sent to the
+     * host they were meant for. Returns the final response whatever its status, callers have to close it.
+     */
+    static Response fetchFile(String url, boolean headersOnly, Optional<String> authorization) throws IOException {
+        URI origin = URI.create(url);
+        URI uri = origin;
+        for (int redirects = 0; ; redirects++) {
+            Optional<String> credentials = sameOrigin(uri, origin) ? authorization : Optional.empty();
+            NpmRepository repository = npmRepository(uri.getScheme() + "://" + uri.getRawAuthority());
+            String file = uri.getRawPath() + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery());
+            Response response =
+                    headersOnly ? repository.headFile(file, credentials) : repository.getFile(file, credentials);
+            Optional<String> location = response.getFirstHeader(HttpHeaders.LOCATION);
+            if (!REDIRECTS.contains(response.code()) || location.isEmpty()) {
+                return response;
+            }
+            response.close();
+            if (redirects == MAX_REDIRECTS) {
+                throw new SafeIoException("Too many redirects", SafeArg.of("maxRedirects", MAX_REDIRECTS));
+            }
+            uri = uri.resolve(location.get());
+        }
+    }
+
+    private static boolean sameOrigin(URI uri, URI origin) {
+        return uri.getScheme().equalsIgnoreCase(origin.getScheme())
+                && Objects.equals(uri.getRawAuthority(), origin.getRawAuthority());
+    }
+
+    static NpmRepository npmRepository(String baseUrl) {
+        String serviceName = "npm-"
+                + Hashing.sha256()
+                        .hashString(baseUrl, StandardCharsets.UTF_8)
+                        .toString()
+                        .substring(0, 16);
+        synchronized (SERVICES) {
+            if (!SERVICES.current().services().containsKey(serviceName)) {
+                SERVICES.update(ServicesConfigBlock.builder()
+                        .from(SERVICES.current())
+                        .putServices(
+                                serviceName,
+                                PartialServiceConfiguration.builder()
+                                        .addUris(baseUrl)
+                                        .enableHttp2(ShimConfiguration.useUpstreamHttp2())
+                                        .security(SslConfiguration.builder()
+                                                .trustStorePath(trustStorePath())
+                                                .trustStoreType(storeType())
+                                                .build())
+                                        .build())
+                        .build());
+            }
+        }
+        return CLIENTS.get(NpmRepository.class, serviceName);
+    }
+
+    static ProxyClient proxyClient(String uri) {
+        return PROXY_CLIENTS.computeIfAbsent(uri, UpstreamTransport::createProxyClient);
+    }
+
+    private static ProxyClient createProxyClient(String uri) {
+        int connectionsPerThread = ShimConfiguration.getUpstreamConnectionsPerThread();
+        try {
+            return new LoadBalancingProxyClient()
+                    .addHost(
+                            URI.create(uri),
+                            null,
+                            new UndertowXnioSsl(Xnio.getInstance(), OptionMap.EMPTY),
+                            OptionMap.create(UndertowOptions.ENABLE_HTTP2, ShimConfiguration.useUpstreamHttp2()))
+                    .setConnectionsPerThread(connectionsPerThread)
+                    // Connections beyond the soft limit are closed once they've been idle for the ttl
+                    .setSoftMaxConnectionsPerThread(Math.max(1, connectionsPerThread / 4))
+                    .setTtl(Math.toIntExact(
+                            ShimConfiguration.getUpstreamIdleTimeout().toMillis()));
+        } catch (NoSuchAlgorithmException | NoSuchProviderException | KeyManagementException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static StoreType storeType() {
+        return Optional.ofNullable(System.getProperty("javax.net.ssl.trustStoreType"))
+                .map(StoreType::valueOf)
+                .orElse(StoreType.JKS);
+    }
+
+    private static Path trustStorePath() {
+        return Optional.ofNullable(System.getProperty("javax.net.ssl.trustStore"))
+                .map(Paths::get)
+                .orElseGet(() -> Optional.ofNullable(System.getProperty("java.home"))
+                        .map(javaHome -> Paths.get(javaHome, "lib", "security", "cacerts"))
+                        .orElseThrow(() -> new SafeRuntimeException("Unable to find trustStore")));
+    }
+
+    private UpstreamTransport() {}
+}
@@ -0,0 +1,105 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.palantir.conjure.java.api.errors.UnknownRemoteException;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.util.Headers;
+import io.undertow.util.Methods;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Answers the directory listings Gradle requests to resolve dynamic versions, {@code /[module]/}, with the released
+ * versions in the packument of the package. Anything else is handed to the next handler.
+ *
+ * <p>Prereleases are left out: npm ranges only match them when they name a prerelease of the same major.minor.patch,
+ * while Gradle would pick {@code 2.0.0-rc.1} for {@code [1.1.0,2.0.0)}. Ranges admitting nothing but prereleases are
+ * pinned to the one they name when descriptors are created instead, see {@code IvyDescriptors}.
+ */
+final class VersionListingHandler implements HttpHandler {
+    private static final Logger log = LoggerFactory.getLogger(VersionListingHandler.class);
+
+    private final PackageJsonLoader packageJsonLoader;
+    private final Executor executor;
+    private final HttpHandler next;
+
+    VersionListingHandler(PackageJsonLoader packageJsonLoader, Executor executor, HttpHandler next) {
+        this.packageJsonLoader = packageJsonLoader;
+        this.executor = executor;
+        this.next = next;
+    }
+
+    @Override
+    public void handleRequest(HttpServerExchange exchange) throws Exception {
+        Optional<String> packageName = IvyPatterns.parseModuleListingPath(exchange.getRelativePath());
+        if (!exchange.getRequestMethod().equals(Methods.GET) || packageName.isEmpty()) {
+            next.handleRequest(exchange);
+            return;
+        }
+        if (exchange.isInIoThread()) {
+            exchange.dispatch(executor, this);
+            return;
+        }
+
+        Set<String> versions;
+        try {
+            versions = packageJsonLoader.getVersions(packageName.get());
+        } catch (RuntimeException e) {
+            if (Throwables.getCausalChain(e).stream()
+                    .anyMatch(cause -> cause instanceof UnknownRemoteException
+                            && ((UnknownRemoteException) cause).getStatus() == 404)) {
+                exchange.setStatusCode(404);
+            } else {
+                log.error("Failed to list versions of npm package", e);
+                exchange.setStatusCode(500);
+            }
+            return;
+        }
+
+        exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/html; charset=UTF-8");
+        exchange.getResponseSender().send(createListing(versions));
+    }
+
+    @VisibleForTesting
+    static String createListing(Set<String> versions) {
+        StringBuilder listing = new StringBuilder("<html><body>\n");
+        for (String version : versions) {
+            if (isPrerelease(version)) {
+                continue;
+            }
+            listing.append("<a href=\"")
+                    .append(version)
+                    .append("/\">")
+                    .append(version)
+                    .append("/</a>\n");
+        }
+        return listing.append("</body></html>").toString();
+    }
+
+    // Build metadata follows a '+' and may contain hyphens too
+    private static boolean isPrerelease(String version) {
+        int buildStart = version.indexOf('+');
+        return (buildStart < 0 ? version : version.substring(0, buildStart)).indexOf('-') >= 0;
+    }
+}
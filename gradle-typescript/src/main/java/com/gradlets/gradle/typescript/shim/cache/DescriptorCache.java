@@ -16,93 +16,215 @@
 
 package com.gradlets.gradle.typescript.shim.cache;
 
-import com.palantir.logsafe.SafeArg;
-import com.palantir.logsafe.exceptions.SafeRuntimeException;
-import java.io.IOException;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.Hashing;
+import com.gradlets.gradle.typescript.shim.ShimConfiguration;
+import com.gradlets.gradle.typescript.shim.ShimMetrics;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.attribute.PosixFilePermission;
-import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Optional;
-import java.util.Set;
 
 public final class DescriptorCache {
+    // A single file holding the sha1 checksum on its first line followed by the descriptor, replaced atomically so
+    // readers in other processes never see a partial or mismatched entry
+    private static final String ENTRY_NAME = "descriptor.entry";
+    // Layout of older shims, still read but no longer written
     private static final String IVY_DESCRIPTOR_NAME = "descriptor.ivy";
     private static final String IVY_SHA_NAME = "descriptor.ivy.sha1";
-    private final Path cacheLocation;
+    // Followed by a hash of the registry, holds the time until which the package is known to be missing from that
+    // registry in epoch milliseconds. The files of the cache are shared by the shims of all registries.
+    private static final String NOT_FOUND_PREFIX = "not-found-";
+    // npm package names can't start with an underscore, so this never collides with a package directory
+    private static final String SEGMENT_FILE_NAME = "_segments/descriptors.segment";
 
-    public DescriptorCache(Path cacheLocation) {
-        this.cacheLocation = cacheLocation;
+    private final DescriptorStore store;
+    private final Cache<NpmArtifactKey, CachedDescriptor> inMemory;
+    // Packages might get published after we saw them missing, don't remember that forever
+    private final Duration notFoundTtl;
+    private final String notFoundName;
+    private final Cache<NpmArtifactKey, Instant> notFound;
+    private final ShimMetrics metrics;
+
+    public DescriptorCache(Path cacheLocation, String registryUrl, ShimMetrics metrics) {
+        this(
+                createStore(cacheLocation),
+                registryUrl,
+                ShimConfiguration.getDescriptorCacheMaxWeight(),
+                ShimConfiguration.getDescriptorCacheMaxSize(),
+                ShimConfiguration.getNotFoundTtl(),
+                metrics);
+    }
+
+    DescriptorCache(Path cacheLocation, String registryUrl, long maxWeight, long maxSize, Duration notFoundTtl) {
+        this(
+                new DirectoryDescriptorStore(cacheLocation),
+                registryUrl,
+                maxWeight,
+                maxSize,
+                notFoundTtl,
+                new ShimMetrics());
+    }
+
+    DescriptorCache(
+            DescriptorStore store,
+            String registryUrl,
+            long maxWeight,
+            long maxSize,
+            Duration notFoundTtl,
+            ShimMetrics metrics) {
+        this.store = store;
+        this.metrics = metrics;
+        this.notFoundTtl = notFoundTtl;
+        this.notFoundName = NOT_FOUND_PREFIX
+                + Hashing.sha256()
+                        .hashString(registryUrl, StandardCharsets.UTF_8)
+                        .toString()
+                        .substring(0, 16);
+        this.inMemory = CacheBuilder.newBuilder()
+                .maximumWeight(maxWeight)
+                .<NpmArtifactKey, CachedDescriptor>weigher((_key, descriptor) ->
+                        descriptor.ivyDescriptor().get().length()
+                                + descriptor.ivySha1Checksum().get().length())
+                .build();
+        this.notFound = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(notFoundTtl)
+                .build();
+    }
+
+    // The segment store takes over the entries of the directory layout when it is first opened
+    private static DescriptorStore createStore(Path cacheLocation) {
+        DirectoryDescriptorStore directoryStore = new DirectoryDescriptorStore(cacheLocation);
+        return ShimConfiguration.useDescriptorSegments()
+                ? SegmentDescriptorStore.open(cacheLocation.resolve(SEGMENT_FILE_NAME), directoryStore)
+                : directoryStore;
     }
 
     public void storeMetadata(CachedDescriptor descriptor) {
-        Path cacheDir = resolveCacheDir(descriptor.getCacheKey());
-        Path ivyFilePath = cacheDir.resolve(IVY_DESCRIPTOR_NAME);
-        if (!Files.exists(ivyFilePath)) {
-            writeToFile(ivyFilePath, descriptor.ivyDescriptor().get().getBytes(StandardCharsets.UTF_8));
-            writeToFile(
-                    cacheDir.resolve(IVY_SHA_NAME),
-                    descriptor.ivySha1Checksum().get().getBytes(StandardCharsets.UTF_8));
-        }
+        store.write(
+                descriptor.getCacheKey(),
+                ENTRY_NAME,
+                descriptor.ivySha1Checksum().get() + "\n" + descriptor.ivyDescriptor().get());
+        metrics.increment(ShimMetrics.DESCRIPTOR_CACHE_STORES);
+        inMemory.put(descriptor.getCacheKey(), resolved(descriptor.getCacheKey(), descriptor));
+        notFound.invalidate(descriptor.getCacheKey());
+        store.delete(descriptor.getCacheKey(), notFoundName);
     }
 
     public Optional<CachedDescriptor> getMetadata(NpmArtifactKey metadataKey) {
-        Path cacheDir = resolveCacheDir(metadataKey);
-        Path ivyFilePath = cacheDir.resolve(IVY_DESCRIPTOR_NAME);
-        Path ivySha1ChecksumPath = cacheDir.resolve(IVY_SHA_NAME);
-        if (!Files.exists(ivyFilePath) || !Files.exists(ivySha1ChecksumPath)) {
+        CachedDescriptor cached = inMemory.getIfPresent(metadataKey);
+        if (cached != null) {
+            metrics.increment(ShimMetrics.DESCRIPTOR_CACHE_MEMORY_HITS);
+            return Optional.of(cached);
+        }
+
+        Optional<CachedDescriptor> descriptor = readEntry(metadataKey).or(() -> readLegacy(metadataKey));
+        descriptor.ifPresent(value -> {
+            metrics.increment(ShimMetrics.DESCRIPTOR_CACHE_DISK_HITS);
+            inMemory.put(metadataKey, value);
+        });
+        return descriptor;
+    }
+
+    private Optional<CachedDescriptor> readEntry(NpmArtifactKey metadataKey) {
+        Optional<String> entry = store.read(metadataKey, ENTRY_NAME);
+        if (entry.isEmpty()) {
+            return Optional.empty();
+        }
+        int separator = entry.get().indexOf('\n');
+        if (separator < 0) {
+            return Optional.empty();
+        }
+        return verified(metadataKey, entry.get().substring(separator + 1), entry.get().substring(0, separator));
+    }
+
+    private Optional<CachedDescriptor> readLegacy(NpmArtifactKey metadataKey) {
+        Optional<String> ivyDescriptor = store.read(metadataKey, IVY_DESCRIPTOR_NAME);
+        Optional<String> ivySha1Checksum = store.read(metadataKey, IVY_SHA_NAME);
+        if (ivyDescriptor.isEmpty() || ivySha1Checksum.isEmpty()) {
             return Optional.empty();
         }
+        Optional<CachedDescriptor> descriptor = verified(metadataKey, ivyDescriptor.get(), ivySha1Checksum.get());
+        // Migrate to the single file entry so later reads don't depend on two separate writes having completed
+        descriptor.ifPresent(value ->
+                store.write(metadataKey, ENTRY_NAME, ivySha1Checksum.get() + "\n" + ivyDescriptor.get()));
+        return descriptor;
+    }
 
+    // Entries torn by a crash or a racing writer of an older shim are treated as missing and get regenerated
+    @SuppressWarnings("deprecation")
+    private static Optional<CachedDescriptor> verified(
+            NpmArtifactKey metadataKey, String ivyDescriptor, String ivySha1Checksum) {
+        String actualChecksum = Hashing.sha1()
+                .hashBytes(ivyDescriptor.getBytes(StandardCharsets.UTF_8))
+                .toString();
+        if (!actualChecksum.equals(ivySha1Checksum.trim())) {
+            return Optional.empty();
+        }
         return Optional.of(CachedDescriptor.builder()
                 .cacheKey(metadataKey)
-                .ivyDescriptor(() -> readStringContents(ivyFilePath))
-                .ivySha1Checksum(() -> readStringContents(ivySha1ChecksumPath))
+                .ivyDescriptor(() -> ivyDescriptor)
+                .ivySha1Checksum(() -> actualChecksum)
                 .build());
     }
 
-    private static String readStringContents(Path filePath) {
-        try {
-            return Files.readString(filePath, StandardCharsets.UTF_8);
-        } catch (IOException e) {
-            throw new SafeRuntimeException(
-                    "Failed to read file from {}", e, SafeArg.of("filePath", filePath.toString()));
+    /** Remembers that the registry has no package for the given key, other shims of that registry see it too. */
+    public void storeNotFound(NpmArtifactKey metadataKey) {
+        if (notFoundTtl.isZero()) {
+            return;
         }
+        Instant expiry = Instant.now().plus(notFoundTtl);
+        notFound.put(metadataKey, expiry);
+        store.write(metadataKey, notFoundName, Long.toString(expiry.toEpochMilli()));
     }
 
-    private static void writeToFile(Path outputPath, byte[] contents) {
-        try {
-            Files.write(outputPath, contents);
-        } catch (IOException e) {
-            throw new SafeRuntimeException(
-                    "Unable to store under outputPath {}", e, SafeArg.of("outputPath", outputPath.toString()));
+    public boolean isNotFound(NpmArtifactKey metadataKey) {
+        if (notFoundTtl.isZero()) {
+            return false;
+        }
+        Instant now = Instant.now();
+        Instant expiry = notFound.getIfPresent(metadataKey);
+        if (expiry != null) {
+            if (!expiry.isAfter(now)) {
+                return false;
+            }
+            metrics.increment(ShimMetrics.DESCRIPTOR_CACHE_NOT_FOUND_HITS);
+            return true;
         }
+
+        Optional<Instant> persistedExpiry =
+                store.read(metadataKey, notFoundName).flatMap(DescriptorCache::parseExpiry);
+        if (persistedExpiry.isEmpty()) {
+            return false;
+        }
+        if (!persistedExpiry.get().isAfter(now)) {
+            store.delete(metadataKey, notFoundName);
+            return false;
+        }
+        notFound.put(metadataKey, persistedExpiry.get());
+        metrics.increment(ShimMetrics.DESCRIPTOR_CACHE_NOT_FOUND_HITS);
+        return true;
     }
 
-    private Path resolveCacheDir(NpmArtifactKey cacheKey) {
-        Path storeDir = cacheLocation.resolve(cacheKey.packageName()).resolve(cacheKey.version());
-        boolean exists = Files.exists(storeDir);
-        if (!exists) {
-            try {
-                Files.createDirectories(
-                        storeDir,
-                        PosixFilePermissions.asFileAttribute(Set.of(
-                                PosixFilePermission.OWNER_EXECUTE,
-                                PosixFilePermission.OWNER_READ,
-                                PosixFilePermission.OWNER_WRITE,
-                                PosixFilePermission.GROUP_EXECUTE,
-                                PosixFilePermission.GROUP_READ,
-                                PosixFilePermission.OTHERS_EXECUTE,
-                                PosixFilePermission.OTHERS_READ)));
-            } catch (IOException e) {
-                throw new SafeRuntimeException(
-                        "Unable to create directory to store metadata, packageName {}, version {}",
-                        e,
-                        SafeArg.of("packageName", cacheKey.packageName()),
-                        SafeArg.of("version", cacheKey.version()));
-            }
+    private static Optional<Instant> parseExpiry(String contents) {
+        try {
+            return Optional.of(Instant.ofEpochMilli(Long.parseLong(contents.trim())));
+        } catch (NumberFormatException e) {
+            // Partially written by a concurrent writer, treat as missing
+            return Optional.empty();
         }
-        return storeDir;
+    }
+
+    private static CachedDescriptor resolved(NpmArtifactKey metadataKey, CachedDescriptor descriptor) {
+        String ivyDescriptor = descriptor.ivyDescriptor().get();
+        String ivySha1Checksum = descriptor.ivySha1Checksum().get();
+        return CachedDescriptor.builder()
+                .cacheKey(metadataKey)
+                .ivyDescriptor(() -> ivyDescriptor)
+                .ivySha1Checksum(() -> ivySha1Checksum)
+                .build();
     }
 }
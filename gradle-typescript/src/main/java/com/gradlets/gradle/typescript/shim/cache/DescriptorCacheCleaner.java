@@ -0,0 +1,239 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim.cache;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.gradlets.gradle.typescript.shim.ShimConfiguration;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeRuntimeException;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Evicts cached descriptors of package versions that haven't been used for a while, then the least recently used ones
+ * until the cache fits its entry and size budgets. Mirrors Gradle's own cache cleanup, builds sweep at most once a day
+ * and only one process sweeps at a time.
+ */
+public final class DescriptorCacheCleaner {
+    private static final Logger log = LoggerFactory.getLogger(DescriptorCacheCleaner.class);
+
+    private static final Duration SWEEP_INTERVAL = Duration.ofDays(1);
+    // Versions used this recently are never evicted, concurrent builds might be reading them. Reads only refresh the
+    // access time every so often, so the last read might be that much later than it says
+    private static final Duration MIN_RETENTION =
+            Duration.ofHours(1).plus(DirectoryDescriptorStore.ACCESS_TIME_GRANULARITY);
+    // Evicted versions are moved here before being deleted, so readers never see them partially deleted
+    private static final String EVICTED_DIR_NAME = "_evicted";
+
+    private final List<Path> cacheDirs;
+    private final Path cleanupFile;
+    private final Duration maxAge;
+    private final long maxEntries;
+    private final long maxDiskBytes;
+
+    DescriptorCacheCleaner(
+            List<Path> cacheDirs, Path cleanupFile, Duration maxAge, long maxEntries, long maxDiskBytes) {
+        this.cacheDirs = cacheDirs;
+        this.cleanupFile = cleanupFile;
+        this.maxAge = maxAge;
+        this.maxEntries = maxEntries;
+        this.maxDiskBytes = maxDiskBytes;
+    }
+
+    public static DescriptorCacheCleaner create() {
+        return new DescriptorCacheCleaner(
+                ShimConfiguration.getDescriptorCacheDirs(),
+                ShimConfiguration.getDescriptorCacheCleanupFile(),
+                ShimConfiguration.getDescriptorCacheMaxAge(),
+                ShimConfiguration.getDescriptorCacheMaxEntries(),
+                ShimConfiguration.getDescriptorCacheMaxDiskBytes());
+    }
+
+    /** Cleans up unless the cache was cleaned up within the last day. */
+    public void cleanIfDue() {
+        if (isEnabled() && isDue()) {
+            clean();
+        }
+    }
+
+    /** Cleans up now, returns the number of evicted package versions. Skipped if another process is cleaning up. */
+    public int clean() {
+        if (!isEnabled()) {
+            return 0;
+        }
+        try {
+            Files.createDirectories(cleanupFile.getParent());
+            try (FileChannel channel =
+                            FileChannel.open(cleanupFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    FileLock lock = channel.tryLock()) {
+                if (lock == null) {
+                    log.debug("Descriptor cache is being cleaned up by another process");
+                    return 0;
+                }
+                int evicted = evict(Instant.now());
+                Files.setLastModifiedTime(cleanupFile, FileTime.from(Instant.now()));
+                return evicted;
+            }
+        } catch (IOException e) {
+            throw new SafeRuntimeException(
+                    "Failed to clean up descriptor cache", e, SafeArg.of("cleanupFile", cleanupFile.toString()));
+        }
+    }
+
+    private boolean isEnabled() {
+        return !maxAge.isZero() || maxEntries > 0 || maxDiskBytes > 0;
+    }
+
+    private boolean isDue() {
+        try {
+            return Files.getLastModifiedTime(cleanupFile)
+                    .toInstant()
+                    .isBefore(Instant.now().minus(SWEEP_INTERVAL));
+        } catch (NoSuchFileException e) {
+            return true;
+        } catch (IOException e) {
+            log.debug("Failed to read last descriptor cache cleanup time", e);
+            return false;
+        }
+    }
+
+    private int evict(Instant now) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        for (Path cacheDir : cacheDirs) {
+            // Left behind by sweeps that didn't finish
+            Path evictedDir = cacheDir.resolve(EVICTED_DIR_NAME);
+            if (Files.exists(evictedDir)) {
+                MoreFiles.deleteRecursively(evictedDir, RecursiveDeleteOption.ALLOW_INSECURE);
+            }
+            collectEntries(cacheDir, entries);
+        }
+        entries.sort(Comparator.comparing(entry -> entry.lastAccess));
+
+        Instant retainedAfter = now.minus(MIN_RETENTION);
+        Instant expiredBefore = maxAge.isZero() ? Instant.MIN : now.minus(maxAge);
+        long remainingEntries = entries.size();
+        long remainingBytes = entries.stream().mapToLong(entry -> entry.bytes).sum();
+        int evicted = 0;
+        // Least recently used first, so nothing after the first entry we keep would be evicted either
+        for (Entry entry : entries) {
+            boolean overBudget = (maxEntries > 0 && remainingEntries > maxEntries)
+                    || (maxDiskBytes > 0 && remainingBytes > maxDiskBytes);
+            if (entry.lastAccess.isAfter(retainedAfter)
+                    || (!entry.lastAccess.isBefore(expiredBefore) && !overBudget)) {
+                break;
+            }
+            if (evict(entry)) {
+                evicted++;
+            }
+            remainingEntries--;
+            remainingBytes -= entry.bytes;
+        }
+        if (evicted > 0) {
+            log.info(
+                    "Evicted {} cached npm package versions, {} remain taking {} bytes",
+                    evicted,
+                    remainingEntries,
+                    remainingBytes);
+        }
+        return evicted;
+    }
+
+    private static boolean evict(Entry entry) throws IOException {
+        Path evictedDir = entry.cacheDir.resolve(EVICTED_DIR_NAME);
+        Path evictedPath = evictedDir.resolve(UUID.randomUUID().toString());
+        try {
+            Files.createDirectories(evictedDir);
+            Files.move(entry.versionDir, evictedPath);
+        } catch (NoSuchFileException e) {
+            // Evicted by someone else, maybe a user clearing the cache by hand
+            return false;
+        }
+        MoreFiles.deleteRecursively(evictedPath, RecursiveDeleteOption.ALLOW_INSECURE);
+        // Remove the package, and its scope, if this was their last version
+        for (Path dir = entry.versionDir.getParent(); !dir.equals(entry.cacheDir); dir = dir.getParent()) {
+            try {
+                Files.delete(dir);
+            } catch (DirectoryNotEmptyException | NoSuchFileException e) {
+                break;
+            }
+        }
+        return true;
+    }
+
+    // Versions live in <package>/<version>, scoped packages in @<scope>/<package>/<version>
+    private static void collectEntries(Path cacheDir, List<Entry> entries) throws IOException {
+        for (Path packageDir : listDirectories(cacheDir)) {
+            String name = packageDir.getFileName().toString();
+            // Not packages, npm package names can't start with these
+            if (name.startsWith("_") || name.startsWith(".")) {
+                continue;
+            }
+            List<Path> packageDirs = name.startsWith("@") ? listDirectories(packageDir) : List.of(packageDir);
+            for (Path dir : packageDirs) {
+                for (Path versionDir : listDirectories(dir)) {
+                    try {
+                        entries.add(new Entry(cacheDir, versionDir));
+                    } catch (NoSuchFileException e) {
+                        // Evicted since we listed it
+                    }
+                }
+            }
+        }
+    }
+
+    private static List<Path> listDirectories(Path dir) throws IOException {
+        try (Stream<Path> children = Files.list(dir)) {
+            return children.filter(Files::isDirectory).collect(Collectors.toList());
+        } catch (NoSuchFileException e) {
+            return List.of();
+        }
+    }
+
+    private static final class Entry {
+        private final Path cacheDir;
+        private final Path versionDir;
+        private final Instant lastAccess;
+        private final long bytes;
+
+        Entry(Path cacheDir, Path versionDir) throws IOException {
+            this.cacheDir = cacheDir;
+            this.versionDir = versionDir;
+            this.lastAccess = Files.getLastModifiedTime(versionDir).toInstant();
+            try (Stream<Path> files = Files.list(versionDir)) {
+                this.bytes = files.mapToLong(file -> file.toFile().length()).sum();
+            }
+        }
+    }
+}
@@ -16,38 +16,123 @@
 
 package com.gradlets.gradle.typescript.shim.cache;
 
+import com.google.common.base.Throwables;
 import com.google.common.hash.Hashing;
 import com.gradlets.gradle.typescript.shim.PackageJsonLoader;
+import com.gradlets.gradle.typescript.shim.ShimMetrics;
+import com.gradlets.gradle.typescript.shim.clients.PackageJson;
+import com.palantir.conjure.java.api.errors.UnknownRemoteException;
 import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
 
 public final class DescriptorLoader {
 
     private final DescriptorCache ivyDescriptorCache;
     private final PackageJsonLoader packageJsonLoader;
+    private final Function<PackageJson, String> descriptorFactory;
+    private final ShimMetrics metrics;
+    private final ShimMetrics.Timer generateTimer;
+    // Misses being loaded from the registry, concurrent requests for the same key wait for the first one
+    private final ConcurrentMap<NpmArtifactKey, CompletableFuture<CachedDescriptor>> inFlight =
+            new ConcurrentHashMap<>();
 
     public DescriptorLoader(DescriptorCache ivyDescriptorCache, PackageJsonLoader packageJsonLoader) {
+        this(
+                ivyDescriptorCache,
+                packageJsonLoader,
+                packageJson -> IvyDescriptors.createDescriptor("npm", packageJson),
+                new ShimMetrics());
+    }
+
+    /** Descriptors are created from package.json by the given factory, the cache must only hold descriptors it made. */
+    public DescriptorLoader(
+            DescriptorCache ivyDescriptorCache,
+            PackageJsonLoader packageJsonLoader,
+            Function<PackageJson, String> descriptorFactory,
+            ShimMetrics metrics) {
         this.ivyDescriptorCache = ivyDescriptorCache;
         this.packageJsonLoader = packageJsonLoader;
+        this.descriptorFactory = descriptorFactory;
+        this.metrics = metrics;
+        this.generateTimer = metrics.timer("descriptor.generate");
     }
 
-    @SuppressWarnings("deprecation")
     public CachedDescriptor getIvyDescriptor(String packageName, String packageVersion) {
         NpmArtifactKey cacheKey = NpmArtifactKey.builder()
                 .packageName(packageName)
                 .version(packageVersion)
                 .build();
-        return ivyDescriptorCache.getMetadata(cacheKey).orElseGet(() -> {
-            String ivyDescriptor = IvyDescriptors.createDescriptor(
-                    "npm", packageJsonLoader.getPackageJson(packageName, packageVersion));
-            CachedDescriptor cachedDescriptor = CachedDescriptor.builder()
-                    .ivySha1Checksum(() -> Hashing.sha1()
-                            .hashBytes(ivyDescriptor.getBytes(StandardCharsets.UTF_8))
-                            .toString())
-                    .cacheKey(cacheKey)
-                    .ivyDescriptor(() -> ivyDescriptor)
-                    .build();
-            ivyDescriptorCache.storeMetadata(cachedDescriptor);
-            return cachedDescriptor;
-        });
+        Optional<CachedDescriptor> cached = ivyDescriptorCache.getMetadata(cacheKey);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        // Only misses can be known to be missing, hits don't pay for the lookup
+        if (ivyDescriptorCache.isNotFound(cacheKey)) {
+            throw new UnknownRemoteException(404, "Package not found");
+        }
+        return loadOnce(cacheKey);
+    }
+
+    private CachedDescriptor loadOnce(NpmArtifactKey cacheKey) {
+        CompletableFuture<CachedDescriptor> load = new CompletableFuture<>();
+        CompletableFuture<CachedDescriptor> existingLoad = inFlight.putIfAbsent(cacheKey, load);
+        if (existingLoad != null) {
+            return await(existingLoad);
+        }
+
+        try {
+            // The previous load of this key might have completed between our cache lookup and registering this one
+            CachedDescriptor descriptor =
+                    ivyDescriptorCache.getMetadata(cacheKey).orElseGet(() -> createDescriptor(cacheKey));
+            load.complete(descriptor);
+            return descriptor;
+        } catch (Throwable t) {
+            // Errors too, waiters would otherwise block on this load forever
+            load.completeExceptionally(t);
+            throw t;
+        } finally {
+            inFlight.remove(cacheKey, load);
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private CachedDescriptor createDescriptor(NpmArtifactKey cacheKey) {
+        metrics.increment(ShimMetrics.DESCRIPTOR_CACHE_MISSES);
+        PackageJson packageJson = loadPackageJson(cacheKey, cacheKey.packageName(), cacheKey.version());
+        String ivyDescriptor = generateTimer.time(() -> descriptorFactory.apply(packageJson));
+        CachedDescriptor cachedDescriptor = CachedDescriptor.builder()
+                .ivySha1Checksum(() -> Hashing.sha1()
+                        .hashBytes(ivyDescriptor.getBytes(StandardCharsets.UTF_8))
+                        .toString())
+                .cacheKey(cacheKey)
+                .ivyDescriptor(() -> ivyDescriptor)
+                .build();
+        ivyDescriptorCache.storeMetadata(cachedDescriptor);
+        return cachedDescriptor;
+    }
+
+    private static CachedDescriptor await(CompletableFuture<CachedDescriptor> load) {
+        try {
+            return load.join();
+        } catch (CompletionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw e;
+        }
+    }
+
+    private PackageJson loadPackageJson(NpmArtifactKey cacheKey, String packageName, String packageVersion) {
+        try {
+            return packageJsonLoader.getPackageJson(packageName, packageVersion);
+        } catch (UnknownRemoteException e) {
+            if (e.getStatus() == 404) {
+                ivyDescriptorCache.storeNotFound(cacheKey);
+            }
+            throw e;
+        }
     }
 }
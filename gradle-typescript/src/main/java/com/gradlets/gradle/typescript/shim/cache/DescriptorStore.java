@@ -0,0 +1,29 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim.cache;
+
+import java.util.Optional;
+
+/** Persistent storage of the files {@link DescriptorCache} keeps for each npm package version. */
+interface DescriptorStore {
+    Optional<String> read(NpmArtifactKey key, String name);
+
+    /** Replaces the named file of the given key, concurrent readers see either the previous or the new contents. */
+    void write(NpmArtifactKey key, String name, String contents);
+
+    void delete(NpmArtifactKey key, String name);
+}
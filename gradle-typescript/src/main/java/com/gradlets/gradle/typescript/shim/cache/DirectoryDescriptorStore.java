@@ -0,0 +1,222 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim.cache;
+
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeRuntimeException;
+import java.io.IOException;
+import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores the files of each package version in a directory of their own, {@code <package>/<version>/<name>}. The
+ * modification time of the version directory tracks when it was last used, {@link DescriptorCacheCleaner} evicts by it.
+ */
+final class DirectoryDescriptorStore implements DescriptorStore {
+    private static final Logger log = LoggerFactory.getLogger(DirectoryDescriptorStore.class);
+
+    // Reads only refresh the access time of versions that haven't been used for this long, so hits rarely write
+    static final Duration ACCESS_TIME_GRANULARITY = Duration.ofMinutes(10);
+
+    private final Path cacheLocation;
+
+    DirectoryDescriptorStore(Path cacheLocation) {
+        this.cacheLocation = cacheLocation;
+    }
+
+    @Override
+    public Optional<String> read(NpmArtifactKey key, String name) {
+        Path filePath = cacheLocation.resolve(key.packageName()).resolve(key.version()).resolve(name);
+        try {
+            String contents = Files.readString(filePath, StandardCharsets.UTF_8);
+            markAccessed(filePath.getParent());
+            return Optional.of(contents);
+        } catch (NoSuchFileException e) {
+            return Optional.empty();
+        } catch (IOException e) {
+            throw new SafeRuntimeException(
+                    "Failed to read file from {}", e, SafeArg.of("filePath", filePath.toString()));
+        }
+    }
+
+    // Written to a temporary file first and renamed into place, so concurrent readers see the old or new contents
+    @Override
+    public void write(NpmArtifactKey key, String name, String contents) {
+        byte[] bytes = contents.getBytes(StandardCharsets.UTF_8);
+        Path outputPath = resolveCacheDir(key).resolve(name);
+        try {
+            try {
+                writeToFile(outputPath, bytes);
+            } catch (NoSuchFileException e) {
+                // The version was evicted while we were writing, start over in a fresh directory
+                writeToFile(resolveCacheDir(key).resolve(name), bytes);
+            }
+        } catch (IOException e) {
+            throw new SafeRuntimeException(
+                    "Unable to store under outputPath {}", e, SafeArg.of("outputPath", outputPath.toString()));
+        }
+    }
+
+    private static void writeToFile(Path outputPath, byte[] contents) throws IOException {
+        // Temporary files are private by default, entries are readable by everyone like their directories
+        Path tempFile = Files.createTempFile(
+                outputPath.getParent(),
+                outputPath.getFileName() + "-",
+                ".tmp",
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-r--r--")));
+        try {
+            Files.write(tempFile, contents);
+            Files.move(tempFile, outputPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Override
+    public void delete(NpmArtifactKey key, String name) {
+        Path filePath = cacheLocation.resolve(key.packageName()).resolve(key.version()).resolve(name);
+        try {
+            Files.deleteIfExists(filePath);
+        } catch (IOException e) {
+            throw new SafeRuntimeException(
+                    "Failed to delete file {}", e, SafeArg.of("filePath", filePath.toString()));
+        }
+    }
+
+    /**
+     * Moves every file of this store into the target, removing the directories of migrated versions. Files that can't
+     * be read are dropped, the cache regenerates them.
+     */
+    void migrateTo(FileConsumer target) throws IOException {
+        for (Path packageDir : listDirectories(cacheLocation)) {
+            String name = packageDir.getFileName().toString();
+            // Not packages, npm package names can't start with these
+            if (name.startsWith("_") || name.startsWith(".")) {
+                continue;
+            }
+            List<Path> packageDirs = name.startsWith("@") ? listDirectories(packageDir) : List.of(packageDir);
+            for (Path dir : packageDirs) {
+                String packageName = cacheLocation.relativize(dir).toString().replace('\\', '/');
+                for (Path versionDir : listDirectories(dir)) {
+                    NpmArtifactKey key = NpmArtifactKey.builder()
+                            .packageName(packageName)
+                            .version(versionDir.getFileName().toString())
+                            .build();
+                    for (Path file : listFiles(versionDir)) {
+                        String fileName = file.getFileName().toString();
+                        if (fileName.endsWith(".tmp")) {
+                            continue;
+                        }
+                        try {
+                            target.accept(key, fileName, Files.readString(file, StandardCharsets.UTF_8));
+                        } catch (NoSuchFileException | MalformedInputException e) {
+                            log.debug("Dropping unreadable descriptor cache file {}", file, e);
+                        }
+                    }
+                    MoreFiles.deleteRecursively(versionDir, RecursiveDeleteOption.ALLOW_INSECURE);
+                }
+                deleteIfEmpty(dir);
+            }
+            deleteIfEmpty(packageDir);
+        }
+    }
+
+    private static List<Path> listDirectories(Path dir) throws IOException {
+        try (Stream<Path> children = Files.list(dir)) {
+            return children.filter(Files::isDirectory).collect(Collectors.toList());
+        } catch (NoSuchFileException e) {
+            return List.of();
+        }
+    }
+
+    private static List<Path> listFiles(Path dir) throws IOException {
+        try (Stream<Path> children = Files.list(dir)) {
+            return children.filter(Files::isRegularFile).collect(Collectors.toList());
+        } catch (NoSuchFileException e) {
+            return List.of();
+        }
+    }
+
+    // Other processes might have created versions in the meantime, those stay
+    private static void deleteIfEmpty(Path dir) throws IOException {
+        try {
+            Files.deleteIfExists(dir);
+        } catch (DirectoryNotEmptyException e) {
+            log.debug("Keeping {}, it is not empty", dir);
+        }
+    }
+
+    // Shared caches might hold versions other users wrote, those just age as if they weren't read
+    private static void markAccessed(Path versionDir) {
+        try {
+            long now = System.currentTimeMillis();
+            if (Files.getLastModifiedTime(versionDir).toMillis() < now - ACCESS_TIME_GRANULARITY.toMillis()) {
+                Files.setLastModifiedTime(versionDir, FileTime.fromMillis(now));
+            }
+        } catch (IOException e) {
+            log.debug("Failed to record access to {}", versionDir, e);
+        }
+    }
+
+    private Path resolveCacheDir(NpmArtifactKey cacheKey) {
+        Path storeDir = cacheLocation.resolve(cacheKey.packageName()).resolve(cacheKey.version());
+        boolean exists = Files.exists(storeDir);
+        if (!exists) {
+            try {
+                Files.createDirectories(
+                        storeDir,
+                        PosixFilePermissions.asFileAttribute(Set.of(
+                                PosixFilePermission.OWNER_EXECUTE,
+                                PosixFilePermission.OWNER_READ,
+                                PosixFilePermission.OWNER_WRITE,
+                                PosixFilePermission.GROUP_EXECUTE,
+                                PosixFilePermission.GROUP_READ,
+                                PosixFilePermission.OTHERS_EXECUTE,
+                                PosixFilePermission.OTHERS_READ)));
+            } catch (IOException e) {
+                throw new SafeRuntimeException(
+                        "Unable to create directory to store metadata, packageName {}, version {}",
+                        e,
+                        SafeArg.of("packageName", cacheKey.packageName()),
+                        SafeArg.of("version", cacheKey.version()));
+            }
+        }
+        return storeDir;
+    }
+
+    interface FileConsumer {
+        void accept(NpmArtifactKey key, String name, String contents) throws IOException;
+    }
+}
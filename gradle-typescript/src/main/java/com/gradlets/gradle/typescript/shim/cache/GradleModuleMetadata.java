@@ -0,0 +1,117 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim.cache;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.gradlets.gradle.typescript.ObjectMappers;
+import com.gradlets.gradle.typescript.TypeScriptAttributes;
+import com.gradlets.gradle.typescript.shim.clients.PackageJson;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeIllegalStateException;
+import java.util.Map;
+
+/**
+ * Creates Gradle Module Metadata for npm packages. Unlike Ivy descriptors it keeps peer and optional dependencies, as
+ * dependency constraints, and the location of bundled type declarations.
+ *
+ * <p>npm only checks that peers and optional dependencies match their ranges, it never installs newer versions for
+ * them. Their constraints therefore only require versions as a Gradle range, when version ranges are enabled and the
+ * npm range has no alternatives, and otherwise merely prefer the version pinned descriptors would pick.
+ */
+public final class GradleModuleMetadata {
+    private static final String FORMAT_VERSION = "1.1";
+    // Declared by the variant when the package bundles type declarations, the value is their entry point
+    private static final String TYPES_ATTRIBUTE = "com.gradlets.npm.types";
+
+    public static String createDescriptor(String group, PackageJson packageJson, boolean versionRanges) {
+        String module = sanitizeName(packageJson.name());
+        ObjectNode root = ObjectMappers.MAPPER.createObjectNode();
+        root.put("formatVersion", FORMAT_VERSION);
+
+        ObjectNode component = root.putObject("component");
+        component.put("group", group);
+        component.put("module", module);
+        component.put("version", packageJson.version());
+        component.putObject("attributes").put("org.gradle.status", "release");
+
+        ObjectNode variant = root.putArray("variants").addObject();
+        variant.put("name", "npmApi");
+        ObjectNode attributes = variant.putObject("attributes");
+        attributes.put("org.gradle.category", "library");
+        attributes.put("org.gradle.usage", TypeScriptAttributes.TYPESCRIPT_API);
+        packageJson.types().ifPresent(types -> attributes.put(TYPES_ATTRIBUTE, types));
+
+        addDependencies(variant.putArray("dependencies"), packageJson.dependencies(), versionRanges);
+        ArrayNode constraints = variant.putArray("dependencyConstraints");
+        addConstraints(constraints, packageJson.peerDependencies(), versionRanges);
+        addConstraints(constraints, packageJson.optionalDependencies(), versionRanges);
+
+        // Artifacts live next to the module directory, see IvyPatterns.IVY_ARTIFACT_PATTERN
+        String fileName = module.substring(module.lastIndexOf('/') + 1) + "-" + packageJson.version() + ".tgz";
+        ObjectNode file = variant.putArray("files").addObject();
+        file.put("name", fileName);
+        file.put("url", "../-/" + module + "-" + packageJson.version() + ".tgz");
+        file.put("sha1", packageJson.dist().shasum());
+
+        try {
+            return ObjectMappers.MAPPER.writeValueAsString(root);
+        } catch (JsonProcessingException e) {
+            throw new SafeIllegalStateException(
+                    "Failed to write module metadata", e, SafeArg.of("package", packageJson.name()));
+        }
+    }
+
+    private static void addDependencies(ArrayNode target, Map<String, String> dependencies, boolean versionRanges) {
+        dependencies.forEach((name, version) -> {
+            ObjectNode dependency = target.addObject();
+            dependency.put("group", "npm");
+            dependency.put("module", sanitizeName(name));
+            dependency
+                    .putObject("version")
+                    .put(
+                            "requires",
+                            versionRanges
+                                    ? IvyDescriptors.translateConstraint(version)
+                                    : IvyDescriptors.sanitizeConstraint(version));
+        });
+    }
+
+    private static void addConstraints(ArrayNode target, Map<String, String> constraints, boolean versionRanges) {
+        constraints.forEach((name, version) -> {
+            ObjectNode constraint = target.addObject();
+            constraint.put("group", "npm");
+            constraint.put("module", sanitizeName(name));
+            boolean singleRange = NpmVersionRange.parse(version.trim())
+                    .map(alternatives -> alternatives.size() == 1)
+                    .orElse(false);
+            if (versionRanges && singleRange) {
+                constraint.putObject("version").put("requires", IvyDescriptors.translateConstraint(version));
+            } else {
+                IvyDescriptors.pinnedVersion(version)
+                        .ifPresent(pinned -> constraint.putObject("version").put("prefers", pinned));
+            }
+        });
+    }
+
+    private static String sanitizeName(String name) {
+        return name.startsWith("@") ? name.substring(1) : name;
+    }
+
+    private GradleModuleMetadata() {}
+}
@@ -16,97 +16,184 @@
 
 package com.gradlets.gradle.typescript.shim.cache;
 
-import com.google.common.annotations.VisibleForTesting;
-import com.google.common.collect.ImmutableList;
+import com.gradlets.gradle.typescript.shim.cache.NpmVersionRange.Interval;
+import com.gradlets.gradle.typescript.shim.cache.NpmVersionRange.Version;
 import com.gradlets.gradle.typescript.shim.clients.PackageJson;
 import com.palantir.logsafe.SafeArg;
 import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 public final class IvyDescriptors {
-    private static final String VERSION = "\\d+(?:\\.\\d+)?(?:\\.\\d+)?(?:-\\w+(?:\\.\\d+))?";
-    private static final Pattern SEMVER = Pattern.compile("^[~^]?(" + VERSION + ")$");
-    private static final Pattern GTE_VERSION = Pattern.compile(">?=\\s?(" + VERSION + ")");
-    private static final Pattern EQUAL_TO = Pattern.compile("==\\s?(" + VERSION + ")");
-    private static final Pattern LENIENT_SEMVER = Pattern.compile("^[~^]?([^>=]+)$");
-    private static final ImmutableList<ConstraintAdapter> CONSTRAINT_ADAPTERS = ImmutableList.of(
-            new VariableReplacingConstraintAdapter(),
-            new RegexConstraintAdapter(SEMVER),
-            new RegexConstraintAdapter(GTE_VERSION),
-            new RegexConstraintAdapter(EQUAL_TO),
-            new RegexConstraintAdapter(LENIENT_SEMVER));
+    private static final int INITIAL_BUFFER_SIZE = 4096;
 
     public static String createDescriptor(String group, PackageJson packageJson) {
-        String sanitizedName = sanitizeName(packageJson.name());
-        return "<ivy-module version=\"2.0\" xmlns:e=\"http://ant.apache.org/ivy/extra\""
-                + " xmlns:m=\"http://ant.apache.org/ivy/maven\">\n"
-                + String.format(
-                        "<info organisation=\"%s\" module=\"%s\" revision=\"%s\"/>\n",
-                        group, sanitizedName, packageJson.version())
-                + "<publications>\n"
-                + String.format("<artifact name=\"%s\" ext=\"tgz\" conf=\"default\" type=\"tgz\"/>\n", sanitizedName)
-                + "</publications>\n"
-                + createDependencies(packageJson)
-                + "</ivy-module>";
+        return createDescriptor(group, packageJson, false);
     }
 
-    private static String createDependencies(PackageJson packageJson) {
-        return packageJson.dependencies().entrySet().stream()
-                .map(entry -> String.format(
-                        "<dependency org=\"npm\" name=\"%s\" rev=\"%s\" conf=\"default\"/>",
-                        sanitizeName(entry.getKey()), sanitizeConstraint(entry.getValue())))
-                .collect(Collectors.joining("\n", "<dependencies>\n", "\n</dependencies>\n"));
+    /**
+     * Creates the descriptor of the given package. Dependencies are pinned to a single version unless versionRanges is
+     * set, in which case their npm ranges are translated to Gradle version ranges.
+     */
+    public static String createDescriptor(String group, PackageJson packageJson, boolean versionRanges) {
+        StringBuilder buffer = new StringBuilder(INITIAL_BUFFER_SIZE);
+        writeDescriptor(buffer, group, packageJson, versionRanges);
+        return buffer.toString();
+    }
+
+    private static void writeDescriptor(
+            StringBuilder out, String group, PackageJson packageJson, boolean versionRanges) {
+        out.append("<ivy-module version=\"2.0\" xmlns:e=\"http://ant.apache.org/ivy/extra\"")
+                .append(" xmlns:m=\"http://ant.apache.org/ivy/maven\">\n");
+        out.append("<info organisation=\"");
+        appendAttribute(out, group);
+        out.append("\" module=\"");
+        appendName(out, packageJson.name());
+        out.append("\" revision=\"");
+        appendAttribute(out, packageJson.version());
+        out.append("\"/>\n");
+        out.append("<publications>\n<artifact name=\"");
+        appendName(out, packageJson.name());
+        out.append("\" ext=\"tgz\" conf=\"default\" type=\"tgz\"/>\n</publications>\n");
+        out.append("<dependencies>\n");
+        boolean first = true;
+        for (Map.Entry<String, String> dependency : packageJson.dependencies().entrySet()) {
+            if (!first) {
+                out.append('\n');
+            }
+            first = false;
+            out.append("<dependency org=\"npm\" name=\"");
+            appendName(out, dependency.getKey());
+            out.append("\" rev=\"");
+            appendAttribute(
+                    out,
+                    versionRanges
+                            ? translateConstraint(dependency.getValue())
+                            : sanitizeConstraint(dependency.getValue()));
+            out.append("\" conf=\"default\"/>");
+        }
+        out.append("\n</dependencies>\n</ivy-module>");
     }
 
-    @VisibleForTesting
     static String sanitizeConstraint(String version) {
-        return CONSTRAINT_ADAPTERS.stream()
-                .flatMap(adapter -> adapter.convert(version).stream())
-                .findFirst()
-                .orElseThrow(() ->
-                        new SafeIllegalArgumentException("Unsupported constraint", SafeArg.of("constraint", version)));
+        String constraint = version.trim();
+        Optional<Interval> newest = NpmVersionRange.parse(constraint).flatMap(IvyDescriptors::newestLowerBound);
+        if (newest.isPresent()) {
+            // There is no lowest version above an exclusive bound that we could pin without listing versions
+            if (!newest.get().lowerInclusive()) {
+                throw new SafeIllegalArgumentException("Unsupported constraint", SafeArg.of("constraint", version));
+            }
+            return newest.get().lower().get().toString();
+        }
+        // Dist tags, urls, "*" and other specifiers without a lower bound are passed through as is
+        if (constraint.isEmpty() || constraint.indexOf('>') >= 0 || constraint.indexOf('=') >= 0) {
+            throw new SafeIllegalArgumentException("Unsupported constraint", SafeArg.of("constraint", version));
+        }
+        return constraint;
     }
 
-    private static String sanitizeName(String name) {
-        return name.startsWith("@") ? name.substring(1) : name;
+    /** The version pinned descriptors depend on for the constraint, if it has an inclusive lower bound. */
+    static Optional<String> pinnedVersion(String version) {
+        return NpmVersionRange.parse(version.trim())
+                .flatMap(IvyDescriptors::newestLowerBound)
+                .filter(Interval::lowerInclusive)
+                .map(interval -> interval.lower().get().toString());
     }
 
-    private IvyDescriptors() {}
+    static String translateConstraint(String version) {
+        String constraint = version.trim();
+        Optional<List<Interval>> range = NpmVersionRange.parse(constraint);
+        if (range.isPresent()) {
+            return gradleRange(range.get());
+        }
+        return sanitizeConstraint(constraint);
+    }
+
+    // Gradle ranges can't express unions, we keep the alternative that allows the most recent versions
+    private static String gradleRange(List<Interval> alternatives) {
+        Interval newest = alternatives.get(0);
+        for (Interval alternative : alternatives.subList(1, alternatives.size())) {
+            if (compareUpperBounds(alternative, newest) > 0) {
+                newest = alternative;
+            }
+        }
 
-    interface ConstraintAdapter {
-        Optional<String> convert(String constraint);
+        Optional<Version> lower = newest.lower();
+        Optional<Version> upper = newest.upper();
+        if (lower.isEmpty() && upper.isEmpty()) {
+            return "+";
+        }
+        if (lower.isPresent() && lower.equals(upper) && newest.lowerInclusive() && newest.upperInclusive()) {
+            return lower.get().canonical();
+        }
+        // Version listings leave out prereleases, so a range that admits nothing but prereleases can only resolve to
+        // the one it names. Ranges that also admit releases, like ^16.0.0-0, resolve to those.
+        if (lower.isPresent() && lower.get().isPrerelease() && !admitsRelease(newest)) {
+            return lower.get().canonical();
+        }
+        return (newest.lowerInclusive() ? "[" : "(")
+                + lower.map(Version::canonical).orElse("")
+                + ","
+                + upper.map(Version::canonical).orElse("")
+                + (newest.upperInclusive() ? "]" : ")");
     }
 
-    private static class RegexConstraintAdapter implements ConstraintAdapter {
-        private final Pattern pattern;
+    private static boolean admitsRelease(Interval interval) {
+        if (interval.upper().isEmpty()) {
+            return true;
+        }
+        int result = interval.lower().get().release().compareTo(interval.upper().get());
+        return result < 0 || (result == 0 && interval.upperInclusive());
+    }
 
-        RegexConstraintAdapter(Pattern pattern) {
-            this.pattern = pattern;
+    private static int compareUpperBounds(Interval left, Interval right) {
+        if (left.upper().isEmpty() || right.upper().isEmpty()) {
+            return Boolean.compare(left.upper().isEmpty(), right.upper().isEmpty());
         }
+        int result = left.upper().get().compareTo(right.upper().get());
+        return result != 0 ? result : Boolean.compare(left.upperInclusive(), right.upperInclusive());
+    }
 
-        @Override
-        public Optional<String> convert(String constraint) {
-            Matcher matcher = pattern.matcher(constraint);
-            if (matcher.find()) {
-                return Optional.of(matcher.group(1));
+    // Pinned descriptors have a single revision per dependency, we pick the lowest version of the alternative that
+    // allows the most recent versions
+    private static Optional<Interval> newestLowerBound(List<Interval> alternatives) {
+        Interval newest = null;
+        for (Interval alternative : alternatives) {
+            if (alternative.lower().isPresent()
+                    && (newest == null
+                            || alternative.lower().get().compareTo(newest.lower().get()) > 0)) {
+                newest = alternative;
             }
-            return Optional.empty();
         }
+        return Optional.ofNullable(newest);
     }
 
-    private static final class VariableReplacingConstraintAdapter implements ConstraintAdapter {
-        private static final Pattern PATTERN = Pattern.compile("^[~^]?(\\d+(?:\\.(?:\\d+|x))?(?:\\.(?:\\d+|x))?)$");
+    private static void appendName(StringBuilder out, String name) {
+        appendAttribute(out, name.startsWith("@") ? name.substring(1) : name);
+    }
 
-        @Override
-        public Optional<String> convert(String constraint) {
-            Matcher matcher = PATTERN.matcher(constraint);
-            if (matcher.matches()) {
-                return Optional.of(matcher.group(1).replace("x", "0"));
+    private static void appendAttribute(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char character = value.charAt(i);
+            switch (character) {
+                case '&':
+                    out.append("&amp;");
+                    break;
+                case '<':
+                    out.append("&lt;");
+                    break;
+                case '>':
+                    out.append("&gt;");
+                    break;
+                case '"':
+                    out.append("&quot;");
+                    break;
+                default:
+                    out.append(character);
             }
-            return Optional.empty();
         }
     }
+
+    private IvyDescriptors() {}
 }
@@ -0,0 +1,464 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Parser for npm's semver ranges, a set of alternatives separated by {@code ||} each of which is either a hyphen range
+ * or the intersection of whitespace separated comparators. Every alternative is reduced to a single interval.
+ */
+final class NpmVersionRange {
+    private static final int WILDCARD = -1;
+
+    private NpmVersionRange() {}
+
+    /** Returns one interval per alternative of the range, or empty if the input isn't a semver range. */
+    static Optional<List<Interval>> parse(String range) {
+        List<Interval> intervals = new ArrayList<>();
+        int start = 0;
+        while (start <= range.length()) {
+            int end = range.indexOf("||", start);
+            if (end < 0) {
+                end = range.length();
+            }
+            Interval interval = parseAlternative(range, start, end);
+            if (interval == null) {
+                return Optional.empty();
+            }
+            intervals.add(interval);
+            start = end + 2;
+        }
+        return Optional.of(intervals);
+    }
+
+    private static Interval parseAlternative(String range, int start, int end) {
+        List<String> tokens = tokenize(range, start, end);
+        if (tokens.size() == 3 && tokens.get(1).equals("-")) {
+            Partial from = Partial.parse(tokens.get(0), 0);
+            Partial to = Partial.parse(tokens.get(2), 0);
+            if (from == null || to == null) {
+                return null;
+            }
+            return Interval.ANY.withLower(from.floor(), true).intersect(upTo(to, true));
+        }
+
+        Interval interval = Interval.ANY;
+        for (int i = 0; i < tokens.size(); i++) {
+            String token = tokens.get(i);
+            int operatorLength = operatorLength(token);
+            // Operators might be separated from their version by whitespace, as in ">= 1.0.0"
+            if (operatorLength == token.length() && operatorLength > 0 && i + 1 < tokens.size()) {
+                token = token + tokens.get(++i);
+            }
+            Interval comparator = parseComparator(token, operatorLength);
+            if (comparator == null) {
+                return null;
+            }
+            interval = interval.intersect(comparator);
+        }
+        return interval;
+    }
+
+    private static Interval parseComparator(String token, int operatorLength) {
+        Partial partial = Partial.parse(token, operatorLength);
+        if (partial == null) {
+            return null;
+        }
+        String operator = token.substring(0, operatorLength);
+        switch (operator) {
+            case "^":
+                return Interval.ANY.withLower(partial.floor(), true).intersect(caretCeiling(partial));
+            case "~":
+            case "~>":
+                return Interval.ANY
+                        .withLower(partial.floor(), true)
+                        .intersect(exclusiveCeiling(partial, partial.minor == WILDCARD ? 0 : 1));
+            case ">=":
+                return partial.isWildcard() ? Interval.ANY : Interval.ANY.withLower(partial.floor(), true);
+            case ">":
+                return greaterThan(partial);
+            case "<=":
+                return upTo(partial, true);
+            case "<":
+                return Interval.ANY.withUpper(partial.floor(), false);
+            default:
+                // Bare versions and "=" match exactly, up to their wildcards
+                if (partial.isExact()) {
+                    return Interval.ANY.withLower(partial.floor(), true).withUpper(partial.floor(), true);
+                }
+                if (partial.isWildcard()) {
+                    return Interval.ANY;
+                }
+                return Interval.ANY.withLower(partial.floor(), true).intersect(upTo(partial, true));
+        }
+    }
+
+    // Partial versions cover everything their wildcards match, so "<=1.2" is "<1.3.0"
+    private static Interval upTo(Partial partial, boolean inclusive) {
+        if (partial.isExact()) {
+            return Interval.ANY.withUpper(partial.floor(), inclusive);
+        }
+        if (partial.isWildcard()) {
+            return Interval.ANY;
+        }
+        return exclusiveCeiling(partial, partial.specifiedComponents() - 1);
+    }
+
+    // Partial versions exclude everything their wildcards match, so ">1.2" is ">=1.3.0"
+    private static Interval greaterThan(Partial partial) {
+        if (partial.isExact()) {
+            return Interval.ANY.withLower(partial.floor(), false);
+        }
+        if (partial.isWildcard()) {
+            return Interval.ANY;
+        }
+        return Interval.ANY.withLower(ceiling(partial, partial.specifiedComponents() - 1), true);
+    }
+
+    private static Interval caretCeiling(Partial partial) {
+        if (partial.major != 0 || partial.minor == WILDCARD) {
+            return exclusiveCeiling(partial, 0);
+        }
+        if (partial.minor != 0 || partial.patch == WILDCARD) {
+            return exclusiveCeiling(partial, 1);
+        }
+        return exclusiveCeiling(partial, 2);
+    }
+
+    private static Interval exclusiveCeiling(Partial partial, int component) {
+        if (partial.major == WILDCARD) {
+            return Interval.ANY;
+        }
+        return Interval.ANY.withUpper(ceiling(partial, component), false);
+    }
+
+    // The lowest version above the partial once the given component is incremented
+    private static Version ceiling(Partial partial, int component) {
+        if (component == 0) {
+            return new Version(partial.major + 1, 0, 0, null, null);
+        } else if (component == 1) {
+            return new Version(partial.major, Math.max(partial.minor, 0) + 1, 0, null, null);
+        } else {
+            return new Version(partial.major, partial.minor, Math.max(partial.patch, 0) + 1, null, null);
+        }
+    }
+
+    private static int operatorLength(String token) {
+        if (token.startsWith(">=") || token.startsWith("<=") || token.startsWith("==")) {
+            return 2;
+        }
+        if (token.startsWith(">") || token.startsWith("<") || token.startsWith("=")) {
+            return 1;
+        }
+        if (token.startsWith("^") || token.startsWith("~")) {
+            // "~>" is an alias of "~"
+            return token.startsWith("~>") ? 2 : 1;
+        }
+        return 0;
+    }
+
+    private static List<String> tokenize(String range, int start, int end) {
+        List<String> tokens = new ArrayList<>();
+        int tokenStart = -1;
+        for (int i = start; i < end; i++) {
+            if (Character.isWhitespace(range.charAt(i))) {
+                if (tokenStart >= 0) {
+                    tokens.add(range.substring(tokenStart, i));
+                    tokenStart = -1;
+                }
+            } else if (tokenStart < 0) {
+                tokenStart = i;
+            }
+        }
+        if (tokenStart >= 0) {
+            tokens.add(range.substring(tokenStart, end));
+        }
+        return tokens;
+    }
+
+    /** A version as written in a range, with any of its components possibly missing or wildcards. */
+    private static final class Partial {
+        private final int major;
+        private final int minor;
+        private final int patch;
+        private final String prerelease;
+        private final int written;
+
+        private Partial(int major, int minor, int patch, String prerelease, int written) {
+            this.major = major;
+            this.minor = minor;
+            this.patch = patch;
+            this.prerelease = prerelease;
+            this.written = written;
+        }
+
+        static Partial parse(String token, int offset) {
+            int index = offset;
+            if (index < token.length() && (token.charAt(index) == 'v' || token.charAt(index) == '=')) {
+                index++;
+            }
+            int[] components = {WILDCARD, WILDCARD, WILDCARD};
+            int component = 0;
+            int length = token.length();
+            // Empty versions are left as wildcards and match anything
+            while (component < 3 && index < length) {
+                char current = token.charAt(index);
+                if (current == 'x' || current == 'X' || current == '*') {
+                    index++;
+                } else if (current >= '0' && current <= '9') {
+                    int value = 0;
+                    while (index < length && token.charAt(index) >= '0' && token.charAt(index) <= '9') {
+                        value = value * 10 + (token.charAt(index) - '0');
+                        index++;
+                    }
+                    components[component] = value;
+                } else {
+                    return null;
+                }
+                component++;
+                if (index < length && token.charAt(index) == '.' && component < 3) {
+                    index++;
+                } else {
+                    break;
+                }
+            }
+            // Once a component is a wildcard every following one is too
+            for (int i = 1; i < 3; i++) {
+                if (components[i - 1] == WILDCARD) {
+                    components[i] = WILDCARD;
+                }
+            }
+
+            String prerelease = null;
+            if (index < length && token.charAt(index) == '-') {
+                int prereleaseStart = ++index;
+                while (index < length && isIdentifierChar(token.charAt(index))) {
+                    index++;
+                }
+                if (prereleaseStart == index) {
+                    return null;
+                }
+                prerelease = token.substring(prereleaseStart, index);
+            }
+            if (index < length && token.charAt(index) == '+') {
+                // Build metadata doesn't take part in version precedence
+                index++;
+                while (index < length && isIdentifierChar(token.charAt(index))) {
+                    index++;
+                }
+            }
+            if (index != length) {
+                return null;
+            }
+            return new Partial(components[0], components[1], components[2], prerelease, component);
+        }
+
+        private static boolean isIdentifierChar(char character) {
+            return (character >= '0' && character <= '9')
+                    || (character >= 'a' && character <= 'z')
+                    || (character >= 'A' && character <= 'Z')
+                    || character == '-'
+                    || character == '.';
+        }
+
+        boolean isExact() {
+            return patch != WILDCARD;
+        }
+
+        boolean isWildcard() {
+            return major == WILDCARD;
+        }
+
+        int specifiedComponents() {
+            return major == WILDCARD ? 0 : minor == WILDCARD ? 1 : patch == WILDCARD ? 2 : 3;
+        }
+
+        /** The lowest version matched, written with as many components as the range did, so "1.x" is "1.0". */
+        Version floor() {
+            StringBuilder text = new StringBuilder();
+            text.append(Math.max(major, 0));
+            if (written > 1) {
+                text.append('.').append(Math.max(minor, 0));
+            }
+            if (written > 2) {
+                text.append('.').append(Math.max(patch, 0));
+            }
+            if (prerelease != null) {
+                text.append('-').append(prerelease);
+            }
+            return new Version(Math.max(major, 0), Math.max(minor, 0), Math.max(patch, 0), prerelease, text.toString());
+        }
+    }
+
+    static final class Version implements Comparable<Version> {
+        private final int major;
+        private final int minor;
+        private final int patch;
+        private final String prerelease;
+        private final String text;
+
+        Version(int major, int minor, int patch, String prerelease, String text) {
+            this.major = major;
+            this.minor = minor;
+            this.patch = patch;
+            this.prerelease = prerelease;
+            this.text = text != null ? text : canonical();
+        }
+
+        boolean isPrerelease() {
+            return prerelease != null;
+        }
+
+        /** The release the version is a prerelease of, or the version itself if it is a release. */
+        Version release() {
+            return isPrerelease() ? new Version(major, minor, patch, null, null) : this;
+        }
+
+        /** The version with all three components, regardless of how it was written in the range. */
+        String canonical() {
+            return major + "." + minor + "." + patch + (prerelease != null ? "-" + prerelease : "");
+        }
+
+        @Override
+        public int compareTo(Version other) {
+            int result = Integer.compare(major, other.major);
+            if (result == 0) {
+                result = Integer.compare(minor, other.minor);
+            }
+            if (result == 0) {
+                result = Integer.compare(patch, other.patch);
+            }
+            if (result == 0) {
+                result = comparePrerelease(prerelease, other.prerelease);
+            }
+            return result;
+        }
+
+        // Releases sort after their prereleases, prerelease identifiers compare numerically where both are numbers
+        private static int comparePrerelease(String left, String right) {
+            if (left == null || right == null) {
+                return left == null ? (right == null ? 0 : 1) : -1;
+            }
+            String[] leftIds = left.split("\\.");
+            String[] rightIds = right.split("\\.");
+            for (int i = 0; i < Math.min(leftIds.length, rightIds.length); i++) {
+                boolean leftNumeric = isNumeric(leftIds[i]);
+                boolean rightNumeric = isNumeric(rightIds[i]);
+                int result;
+                if (leftNumeric && rightNumeric) {
+                    result = Long.compare(Long.parseLong(leftIds[i]), Long.parseLong(rightIds[i]));
+                } else if (leftNumeric || rightNumeric) {
+                    result = leftNumeric ? -1 : 1;
+                } else {
+                    result = leftIds[i].compareTo(rightIds[i]);
+                }
+                if (result != 0) {
+                    return result;
+                }
+            }
+            return Integer.compare(leftIds.length, rightIds.length);
+        }
+
+        private static boolean isNumeric(String identifier) {
+            if (identifier.isEmpty() || identifier.length() > 18) {
+                return false;
+            }
+            for (int i = 0; i < identifier.length(); i++) {
+                if (identifier.charAt(i) < '0' || identifier.charAt(i) > '9') {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Version && compareTo((Version) other) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            return (major * 31 + minor) * 31 + patch;
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /** Versions between two optional bounds, the intersection of the comparators of one alternative. */
+    static final class Interval {
+        static final Interval ANY = new Interval(null, false, null, false);
+
+        private final Version lower;
+        private final boolean lowerInclusive;
+        private final Version upper;
+        private final boolean upperInclusive;
+
+        private Interval(Version lower, boolean lowerInclusive, Version upper, boolean upperInclusive) {
+            this.lower = lower;
+            this.lowerInclusive = lowerInclusive;
+            this.upper = upper;
+            this.upperInclusive = upperInclusive;
+        }
+
+        Optional<Version> lower() {
+            return Optional.ofNullable(lower);
+        }
+
+        boolean lowerInclusive() {
+            return lowerInclusive;
+        }
+
+        Optional<Version> upper() {
+            return Optional.ofNullable(upper);
+        }
+
+        boolean upperInclusive() {
+            return upperInclusive;
+        }
+
+        Interval withLower(Version version, boolean inclusive) {
+            return new Interval(version, inclusive, upper, upperInclusive);
+        }
+
+        Interval withUpper(Version version, boolean inclusive) {
+            return new Interval(lower, lowerInclusive, version, inclusive);
+        }
+
+        Interval intersect(Interval other) {
+            Interval result = this;
+            if (other.lower != null) {
+                int comparison = lower == null ? -1 : lower.compareTo(other.lower);
+                if (comparison < 0 || (comparison == 0 && !other.lowerInclusive)) {
+                    result = result.withLower(other.lower, other.lowerInclusive);
+                }
+            }
+            if (other.upper != null) {
+                int comparison = upper == null ? 1 : upper.compareTo(other.upper);
+                if (comparison > 0 || (comparison == 0 && !other.upperInclusive)) {
+                    result = result.withUpper(other.upper, other.upperInclusive);
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,419 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim.cache;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.palantir.logsafe.SafeArg;
+import com.palantir.logsafe.exceptions.SafeRuntimeException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps every file of every package version as a record in one append-only segment file, instead of a directory per
+ * version. An in-memory hash index maps keys to record offsets, so lookups are a hash probe and a read of the memory
+ * mapped segment.
+ *
+ * <p>Records are {@code magic, key length, value length, key, value, crc32}, deletions are records with a value length
+ * of -1. Writers append under a lock file shared with other processes. Readers don't lock, they index whatever records
+ * other processes appended when they miss, and stop at records that are still being written or were torn by a crash.
+ * Once most of the segment is superseded records it is compacted into a new file that atomically replaces it, readers
+ * notice the replacement and reindex. A segment that would outgrow what can be mapped, 2GB, even once compacted is
+ * rolled over to an empty one, the cache regenerates the descriptors it held.
+ *
+ * <p>Files of the previous, directory per version, layout are moved into the segment once when it is first opened,
+ * so the segment alone knows which files exist and misses never touch the file system.
+ *
+ * <p>Files already indexed are served without looking for newer records, the same staleness the in-memory cache in
+ * front of this store has.
+ */
+final class SegmentDescriptorStore implements DescriptorStore {
+    private static final Logger log = LoggerFactory.getLogger(SegmentDescriptorStore.class);
+
+    private static final int MAGIC = 0x4e504d31;
+    private static final int HEADER_BYTES = 12;
+    private static final int CRC_BYTES = 4;
+    // The checksum covers everything after the magic number
+    private static final int CRC_START = 4;
+    private static final int TOMBSTONE = -1;
+    // Segments below this size aren't worth compacting
+    private static final long MIN_COMPACTION_BYTES = 1024 * 1024;
+    // Segments are mapped as a whole and byte buffers are int indexed
+    private static final long MAX_SEGMENT_BYTES = Integer.MAX_VALUE;
+    // File locks are held by the whole process, threads and stores of the same segment take turns on these first
+    private static final ConcurrentMap<Path, Object> PROCESS_LOCKS = new ConcurrentHashMap<>();
+
+    private final Path segmentFile;
+    private final Path lockFile;
+    private final long maxSegmentBytes;
+    private final Object processLock;
+
+    // Guarded by this
+    private final Map<String, Long> index = new HashMap<>();
+    private FileChannel channel;
+    private Object fileKey;
+    private MappedByteBuffer mapped;
+    private long indexedBytes;
+    private long liveBytes;
+
+    private SegmentDescriptorStore(Path segmentFile, long maxSegmentBytes) {
+        this.segmentFile = segmentFile;
+        this.lockFile = segmentFile.resolveSibling(segmentFile.getFileName() + ".lock");
+        this.maxSegmentBytes = maxSegmentBytes;
+        this.processLock = PROCESS_LOCKS.computeIfAbsent(segmentFile.toAbsolutePath(), _path -> new Object());
+    }
+
+    static SegmentDescriptorStore open(Path segmentFile, DirectoryDescriptorStore previousStore) {
+        return open(segmentFile, previousStore, MAX_SEGMENT_BYTES);
+    }
+
+    @VisibleForTesting
+    static SegmentDescriptorStore open(Path segmentFile, DirectoryDescriptorStore previousStore, long maxSegmentBytes) {
+        try {
+            Files.createDirectories(segmentFile.getParent());
+        } catch (IOException e) {
+            throw new SafeRuntimeException(
+                    "Unable to create segment directory", e, SafeArg.of("segmentFile", segmentFile.toString()));
+        }
+        SegmentDescriptorStore store = new SegmentDescriptorStore(segmentFile, maxSegmentBytes);
+        store.migrateFrom(previousStore);
+        return store;
+    }
+
+    @Override
+    public Optional<String> read(NpmArtifactKey key, String name) {
+        String indexKey = indexKey(key, name);
+        synchronized (this) {
+            try {
+                Long offset = index.get(indexKey);
+                if (offset == null) {
+                    refresh();
+                    offset = index.get(indexKey);
+                }
+                return offset == null ? Optional.empty() : readValue(offset);
+            } catch (IOException e) {
+                throw new SafeRuntimeException(
+                        "Failed to read descriptor segment", e, SafeArg.of("segmentFile", segmentFile.toString()));
+            }
+        }
+    }
+
+    @Override
+    public void write(NpmArtifactKey key, String name, String contents) {
+        append(indexKey(key, name), contents.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void delete(NpmArtifactKey key, String name) {
+        if (read(key, name).isPresent()) {
+            append(indexKey(key, name), null);
+        }
+    }
+
+    // Done once per segment, recorded by a marker file next to it
+    private void migrateFrom(DirectoryDescriptorStore previousStore) {
+        Path marker = segmentFile.resolveSibling(segmentFile.getFileName() + ".migrated");
+        if (Files.exists(marker)) {
+            return;
+        }
+        withWriteLock(() -> {
+            if (!Files.exists(marker)) {
+                previousStore.migrateTo((key, name, contents) ->
+                        appendLocked(indexKey(key, name), contents.getBytes(StandardCharsets.UTF_8)));
+                Files.createFile(marker);
+            }
+            return null;
+        });
+    }
+
+    /** Rewrites the segment without superseded records. */
+    @VisibleForTesting
+    void compact() {
+        withWriteLock(() -> {
+            compactLocked();
+            return null;
+        });
+    }
+
+    @VisibleForTesting
+    synchronized long size() throws IOException {
+        return channel == null ? 0 : channel.size();
+    }
+
+    private void append(String indexKey, byte[] value) {
+        withWriteLock(() -> {
+            appendLocked(indexKey, value);
+            return null;
+        });
+    }
+
+    // Must hold the write lock
+    private void appendLocked(String indexKey, byte[] value) throws IOException {
+        boolean torn = refresh();
+        if (torn) {
+            // Records after a torn one would never be indexed, start over from the intact records instead
+            compactLocked();
+        }
+        ByteBuffer record = encode(indexKey, value);
+        if (indexedBytes + record.limit() > maxSegmentBytes) {
+            makeRoom(record.limit());
+        }
+        long offset = indexedBytes;
+        while (record.hasRemaining()) {
+            channel.write(record, offset + record.position());
+        }
+        index(indexKey, offset, record.limit());
+        indexedBytes = offset + record.limit();
+
+        if (indexedBytes > MIN_COMPACTION_BYTES && liveBytes * 2 < indexedBytes) {
+            compactLocked();
+        }
+    }
+
+    private <T> T withWriteLock(IoSupplier<T> action) {
+        synchronized (processLock) {
+            try (FileChannel lockChannel =
+                            FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    FileLock _lock = lockChannel.lock()) {
+                synchronized (this) {
+                    return action.get();
+                }
+            } catch (IOException e) {
+                throw new SafeRuntimeException(
+                        "Failed to write descriptor segment", e, SafeArg.of("segmentFile", segmentFile.toString()));
+            }
+        }
+    }
+
+    // Must hold the write lock
+    private void makeRoom(int recordBytes) throws IOException {
+        compactLocked();
+        if (indexedBytes + recordBytes <= maxSegmentBytes) {
+            return;
+        }
+        if (recordBytes > maxSegmentBytes) {
+            throw new SafeRuntimeException(
+                    "Descriptor is too large for the segment", SafeArg.of("recordBytes", recordBytes));
+        }
+        log.info("Descriptor segment {} is full, starting over with an empty one", segmentFile);
+        replaceWith(List.of());
+    }
+
+    // Must hold the write lock
+    private void compactLocked() throws IOException {
+        replaceWith(new ArrayList<>(index.entrySet()));
+    }
+
+    // Must hold the write lock
+    private void replaceWith(List<Map.Entry<String, Long>> records) throws IOException {
+        Path tempFile = Files.createTempFile(
+                segmentFile.getParent(),
+                segmentFile.getFileName() + "-",
+                ".tmp",
+                PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-r--r--")));
+        try {
+            try (FileChannel output = FileChannel.open(tempFile, StandardOpenOption.WRITE)) {
+                for (Map.Entry<String, Long> record : records) {
+                    ByteBuffer encoded = encode(record.getKey(), readBytes(record.getValue()).orElse(null));
+                    while (encoded.hasRemaining()) {
+                        output.write(encoded);
+                    }
+                }
+                output.force(true);
+            }
+            Files.move(tempFile, segmentFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        refresh();
+    }
+
+    /**
+     * Indexes records appended since the last refresh, reopening the segment if it was replaced by a compaction.
+     * Returns whether the segment ends with an incomplete record.
+     */
+    private boolean refresh() throws IOException {
+        boolean replaced;
+        try {
+            Object currentFileKey = Files.readAttributes(segmentFile, BasicFileAttributes.class)
+                    .fileKey();
+            // Filesystems without file keys can't tell a compacted segment apart, they only ever see appends
+            replaced = currentFileKey != null && !currentFileKey.equals(fileKey);
+        } catch (NoSuchFileException e) {
+            replaced = true;
+        }
+        if (channel == null || replaced) {
+            reopen();
+        }
+
+        long size = channel.size();
+        if (size <= indexedBytes) {
+            return false;
+        }
+        remap(size);
+        long position = indexedBytes;
+        while (true) {
+            int length = validRecordLength(position, size);
+            if (length < 0) {
+                break;
+            }
+            index(readKey(position), position, length);
+            position += length;
+        }
+        indexedBytes = position;
+        return position < size;
+    }
+
+    private void reopen() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+        channel = FileChannel.open(
+                segmentFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        fileKey = Files.readAttributes(segmentFile, BasicFileAttributes.class).fileKey();
+        mapped = null;
+        index.clear();
+        indexedBytes = 0;
+        liveBytes = 0;
+    }
+
+    private void remap(long size) throws IOException {
+        if (mapped == null || mapped.capacity() < size) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    // Records appended by this store aren't mapped until they are first read
+    private void ensureMapped(long end) throws IOException {
+        if (mapped == null || mapped.capacity() < end) {
+            remap(channel.size());
+        }
+    }
+
+    private void index(String indexKey, long offset, int length) throws IOException {
+        Long previous = index.put(indexKey, offset);
+        if (previous != null) {
+            liveBytes -= recordLength(previous);
+        }
+        liveBytes += length;
+    }
+
+    // Length of the record at the given offset, or -1 if it isn't complete and intact
+    private int validRecordLength(long offset, long size) {
+        if (offset + HEADER_BYTES > size) {
+            return -1;
+        }
+        ByteBuffer buffer = mapped.duplicate();
+        buffer.position(Math.toIntExact(offset));
+        int magic = buffer.getInt();
+        int keyLength = buffer.getInt();
+        int valueLength = buffer.getInt();
+        if (magic != MAGIC || keyLength < 0 || valueLength < TOMBSTONE) {
+            return -1;
+        }
+        long length = (long) HEADER_BYTES + keyLength + Math.max(valueLength, 0) + CRC_BYTES;
+        if (offset + length > size) {
+            return -1;
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer payload = mapped.duplicate();
+        payload.position(Math.toIntExact(offset + CRC_START));
+        payload.limit(Math.toIntExact(offset + length - CRC_BYTES));
+        crc.update(payload);
+        if ((int) crc.getValue() != mapped.getInt(Math.toIntExact(offset + length - CRC_BYTES))) {
+            return -1;
+        }
+        return Math.toIntExact(length);
+    }
+
+    private int recordLength(long offset) throws IOException {
+        ensureMapped(offset + HEADER_BYTES);
+        int keyLength = mapped.getInt(Math.toIntExact(offset + 4));
+        int valueLength = mapped.getInt(Math.toIntExact(offset + 8));
+        return HEADER_BYTES + keyLength + Math.max(valueLength, 0) + CRC_BYTES;
+    }
+
+    private String readKey(long offset) {
+        int keyLength = mapped.getInt(Math.toIntExact(offset + 4));
+        return new String(bytesAt(offset + HEADER_BYTES, keyLength), StandardCharsets.UTF_8);
+    }
+
+    private Optional<String> readValue(long offset) throws IOException {
+        return readBytes(offset).map(value -> new String(value, StandardCharsets.UTF_8));
+    }
+
+    private Optional<byte[]> readBytes(long offset) throws IOException {
+        ensureMapped(offset + recordLength(offset));
+        int keyLength = mapped.getInt(Math.toIntExact(offset + 4));
+        int valueLength = mapped.getInt(Math.toIntExact(offset + 8));
+        if (valueLength == TOMBSTONE) {
+            return Optional.empty();
+        }
+        return Optional.of(bytesAt(offset + HEADER_BYTES + keyLength, valueLength));
+    }
+
+    private byte[] bytesAt(long offset, int length) {
+        byte[] bytes = new byte[length];
+        ByteBuffer buffer = mapped.duplicate();
+        buffer.position(Math.toIntExact(offset));
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static ByteBuffer encode(String indexKey, byte[] value) {
+        byte[] key = indexKey.getBytes(StandardCharsets.UTF_8);
+        int valueLength = value == null ? TOMBSTONE : value.length;
+        ByteBuffer record = ByteBuffer.allocate(HEADER_BYTES + key.length + Math.max(valueLength, 0) + CRC_BYTES);
+        record.putInt(MAGIC).putInt(key.length).putInt(valueLength).put(key);
+        if (value != null) {
+            record.put(value);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), CRC_START, record.position() - CRC_START);
+        record.putInt((int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    private static String indexKey(NpmArtifactKey key, String name) {
+        return key.packageName() + "/" + key.version() + "/" + name;
+    }
+
+    private interface IoSupplier<T> {
+        T get() throws IOException;
+    }
+}
@@ -16,15 +16,33 @@
 
 package com.gradlets.gradle.typescript.shim.clients;
 
+import com.google.common.net.HttpHeaders;
 import com.palantir.dialogue.Channel;
 import com.palantir.dialogue.ConjureRuntime;
 import com.palantir.dialogue.Deserializer;
 import com.palantir.dialogue.Request;
+import com.palantir.dialogue.Response;
 import com.palantir.dialogue.TypeMarker;
+import java.util.Optional;
 
 public interface NpmRepository {
     PackageJson getPackageJson(String packageName, String packageVersion);
 
+    /**
+     * Fetches the abbreviated packument of the given package, conditionally on it having changed when validators of
+     * a previous response are passed.
+     */
+    PackumentResponse getPackument(String packageName, Optional<String> etag, Optional<String> lastModified);
+
+    /**
+     * Requests a file the registry links to, such as a tarball, by its raw path and query. Returns the response
+     * whatever its status, callers have to close it.
+     */
+    Response getFile(String file, Optional<String> authorization);
+
+    /** Like {@link #getFile}, but only requests the headers. */
+    Response headFile(String file, Optional<String> authorization);
+
     static NpmRepository of(Channel channel, ConjureRuntime runtime) {
         return new NpmRepository() {
             private final Deserializer<PackageJson> getPackageJsonDeserializer =
@@ -43,6 +61,41 @@ public interface NpmRepository {
                                         request.build(),
                                         getPackageJsonDeserializer));
             }
+
+            @Override
+            public PackumentResponse getPackument(
+                    String packageName, Optional<String> etag, Optional<String> lastModified) {
+                Request.Builder request = Request.builder();
+                request.putPathParams("packageName", packageName);
+                etag.ifPresent(value -> request.putHeaderParams(HttpHeaders.IF_NONE_MATCH, value));
+                lastModified.ifPresent(value -> request.putHeaderParams(HttpHeaders.IF_MODIFIED_SINCE, value));
+                return runtime.clients()
+                        .block(runtime.clients()
+                                .call(
+                                        channel,
+                                        NpmRepositoryEndpoints.getPackument,
+                                        request.build(),
+                                        PackumentDeserializer.INSTANCE));
+            }
+
+            @Override
+            public Response getFile(String file, Optional<String> authorization) {
+                return runtime.clients()
+                        .block(channel.execute(NpmRepositoryEndpoints.getFile, fileRequest(file, authorization)));
+            }
+
+            @Override
+            public Response headFile(String file, Optional<String> authorization) {
+                return runtime.clients()
+                        .block(channel.execute(NpmRepositoryEndpoints.headFile, fileRequest(file, authorization)));
+            }
+
+            private Request fileRequest(String file, Optional<String> authorization) {
+                Request.Builder request = Request.builder();
+                request.putPathParams("file", file);
+                authorization.ifPresent(value -> request.putHeaderParams(HttpHeaders.AUTHORIZATION, value));
+                return request.build();
+            }
         };
     }
 }
@@ -20,6 +20,8 @@ import com.palantir.dialogue.Endpoint;
 import com.palantir.dialogue.HttpMethod;
 import com.palantir.dialogue.PathTemplate;
 import com.palantir.dialogue.UrlBuilder;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Optional;
 
@@ -50,6 +52,90 @@ enum NpmRepositoryEndpoints implements Endpoint {
             return "getPackageJson";
         }
 
+        @Override
+        public String version() {
+            return VERSION;
+        }
+    },
+
+    getPackument {
+        private final PathTemplate pathTemplate =
+                PathTemplate.builder().variable("packageName").build();
+
+        @Override
+        public void renderPath(Map<String, String> params, UrlBuilder url) {
+            pathTemplate.fill(params, url);
+        }
+
+        @Override
+        public HttpMethod httpMethod() {
+            return HttpMethod.GET;
+        }
+
+        @Override
+        public String serviceName() {
+            return "NpmRepository";
+        }
+
+        @Override
+        public String endpointName() {
+            return "getPackument";
+        }
+
+        @Override
+        public String version() {
+            return VERSION;
+        }
+    },
+
+    getFile {
+        @Override
+        public void renderPath(Map<String, String> params, UrlBuilder url) {
+            renderFile(params.get("file"), url);
+        }
+
+        @Override
+        public HttpMethod httpMethod() {
+            return HttpMethod.GET;
+        }
+
+        @Override
+        public String serviceName() {
+            return "NpmRepository";
+        }
+
+        @Override
+        public String endpointName() {
+            return "getFile";
+        }
+
+        @Override
+        public String version() {
+            return VERSION;
+        }
+    },
+
+    headFile {
+        @Override
+        public void renderPath(Map<String, String> params, UrlBuilder url) {
+            renderFile(params.get("file"), url);
+        }
+
+        @Override
+        public HttpMethod httpMethod() {
+            return HttpMethod.HEAD;
+        }
+
+        @Override
+        public String serviceName() {
+            return "NpmRepository";
+        }
+
+        @Override
+        public String endpointName() {
+            return "headFile";
+        }
+
         @Override
         public String version() {
             return VERSION;
@@ -59,4 +145,30 @@ enum NpmRepositoryEndpoints implements Endpoint {
     private static final String VERSION = Optional.ofNullable(
                     NpmRepositoryEndpoints.class.getPackage().getImplementationVersion())
             .orElse("0.0.0");
+
+    // Files are addressed by the raw path and query the registry linked to, which the url builder encodes again
+    private static void renderFile(String file, UrlBuilder url) {
+        int queryStart = file.indexOf('?');
+        String path = queryStart < 0 ? file : file.substring(0, queryStart);
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) {
+                url.pathSegment(decode(segment));
+            }
+        }
+        if (queryStart >= 0) {
+            for (String param : file.substring(queryStart + 1).split("&")) {
+                int separator = param.indexOf('=');
+                if (separator < 0) {
+                    url.queryParam(decode(param), "");
+                } else {
+                    url.queryParam(decode(param.substring(0, separator)), decode(param.substring(separator + 1)));
+                }
+            }
+        }
+    }
+
+    // Unlike form encoding, '+' stands for itself in urls
+    private static String decode(String value) {
+        return URLDecoder.decode(value.replace("+", "%2B"), StandardCharsets.UTF_8);
+    }
 }
@@ -16,10 +16,12 @@
 
 package com.gradlets.gradle.typescript.shim.clients;
 
+import com.fasterxml.jackson.annotation.JsonAlias;
 import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.gradlets.gradle.ImmutablesStyle;
 import java.util.Map;
+import java.util.Optional;
 import org.immutables.value.Value;
 
 @Value.Immutable
@@ -33,6 +35,14 @@ public interface PackageJson {
 
     Map<String, String> dependencies();
 
+    Map<String, String> peerDependencies();
+
+    Map<String, String> optionalDependencies();
+
+    /** Entry point of the type declarations bundled with the package, if any. */
+    @JsonAlias("typings")
+    Optional<String> types();
+
     Dist dist();
 
     static Builder builder() {
@@ -48,6 +58,9 @@ public interface PackageJson {
 
         String shasum();
 
+        /** Subresource integrity of the tarball, only reported by registries that compute stronger digests. */
+        Optional<String> integrity();
+
         static Builder builder() {
             return new Builder();
         }
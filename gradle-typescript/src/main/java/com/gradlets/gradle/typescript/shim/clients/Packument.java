@@ -0,0 +1,38 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim.clients;
+
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.gradlets.gradle.ImmutablesStyle;
+import java.util.Map;
+import org.immutables.value.Value;
+
+/** Package document listing the metadata of every published version of a package. */
+@Value.Immutable
+@ImmutablesStyle
+@JsonDeserialize(as = ImmutablePackument.class)
+public interface Packument {
+    String name();
+
+    Map<String, PackageJson> versions();
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    class Builder extends ImmutablePackument.Builder {}
+}
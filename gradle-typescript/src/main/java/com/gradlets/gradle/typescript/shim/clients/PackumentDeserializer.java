@@ -0,0 +1,59 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim.clients;
+
+import com.google.common.net.HttpHeaders;
+import com.gradlets.gradle.typescript.ObjectMappers;
+import com.palantir.conjure.java.api.errors.UnknownRemoteException;
+import com.palantir.dialogue.Deserializer;
+import com.palantir.dialogue.Response;
+import com.palantir.logsafe.exceptions.SafeRuntimeException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+// The registry serves abbreviated packuments with their own content type, which dialogue's json encoding rejects
+enum PackumentDeserializer implements Deserializer<PackumentResponse> {
+    INSTANCE;
+
+    private static final String ABBREVIATED_PACKUMENT = "application/vnd.npm.install-v1+json";
+
+    @Override
+    public PackumentResponse deserialize(Response response) {
+        try (Response unused = response) {
+            PackumentResponse.Builder builder = PackumentResponse.builder()
+                    .etag(response.getFirstHeader(HttpHeaders.ETAG))
+                    .lastModified(response.getFirstHeader(HttpHeaders.LAST_MODIFIED));
+            if (response.code() == 304) {
+                return builder.build();
+            }
+            if (response.code() != 200) {
+                throw new UnknownRemoteException(
+                        response.code(), new String(response.body().readAllBytes(), StandardCharsets.UTF_8));
+            }
+            return builder.packument(ObjectMappers.MAPPER.readValue(response.body(), Packument.class))
+                    .build();
+        } catch (IOException e) {
+            throw new SafeRuntimeException("Failed to read packument", e);
+        }
+    }
+
+    @Override
+    public Optional<String> accepts() {
+        return Optional.of(ABBREVIATED_PACKUMENT);
+    }
+}
@@ -0,0 +1,38 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim.clients;
+
+import com.gradlets.gradle.ImmutablesStyle;
+import java.util.Optional;
+import org.immutables.value.Value;
+
+@Value.Immutable
+@ImmutablesStyle
+public interface PackumentResponse {
+    /** Absent when the registry confirmed that the packument identified by the request validators is current. */
+    Optional<Packument> packument();
+
+    Optional<String> etag();
+
+    Optional<String> lastModified();
+
+    static Builder builder() {
+        return new Builder();
+    }
+
+    class Builder extends ImmutablePackumentResponse.Builder {}
+}
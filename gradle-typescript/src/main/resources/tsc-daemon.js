@@ -0,0 +1,157 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+// Long-lived compiler worker used by TypeScriptCompile when the compiler daemon is enabled. Every connection carries a
+// single JSON request ({"project": "/path/to/tsconfig.json"}) and receives a single JSON response once the client has
+// half-closed its side of the socket.
+const net = require("net");
+const path = require("path");
+const ts = require(process.argv[2]);
+
+// Shared between all projects so that declaration files of common dependencies are only parsed once
+const documentRegistry = ts.createDocumentRegistry();
+const services = new Map();
+
+const formatHost = {
+    getCanonicalFileName: fileName => fileName,
+    getCurrentDirectory: ts.sys.getCurrentDirectory,
+    getNewLine: () => ts.sys.newLine,
+};
+
+function parseConfig(project) {
+    const configFile = ts.readConfigFile(project, ts.sys.readFile);
+    if (configFile.error) {
+        return { errors: [configFile.error] };
+    }
+    return ts.parseJsonConfigFileContent(configFile.config, ts.sys, path.dirname(project), undefined, project);
+}
+
+function getService(project, parsedConfig) {
+    let state = services.get(project);
+    if (state === undefined) {
+        state = { parsedConfig };
+        const host = {
+            getCompilationSettings: () => state.parsedConfig.options,
+            getScriptFileNames: () => state.parsedConfig.fileNames,
+            getProjectReferences: () => state.parsedConfig.projectReferences,
+            getScriptVersion: fileName => {
+                const modified = ts.sys.getModifiedTime(fileName);
+                return modified === undefined ? "0" : String(modified.getTime());
+            },
+            getScriptSnapshot: fileName => {
+                const text = ts.sys.readFile(fileName);
+                return text === undefined ? undefined : ts.ScriptSnapshot.fromString(text);
+            },
+            getCurrentDirectory: () => path.dirname(project),
+            getDefaultLibFileName: options => ts.getDefaultLibFilePath(options),
+            fileExists: ts.sys.fileExists,
+            readFile: ts.sys.readFile,
+            readDirectory: ts.sys.readDirectory,
+            directoryExists: ts.sys.directoryExists,
+            getDirectories: ts.sys.getDirectories,
+            realpath: ts.sys.realpath,
+            useCaseSensitiveFileNames: () => ts.sys.useCaseSensitiveFileNames,
+        };
+        state.service = ts.createLanguageService(host, documentRegistry);
+        services.set(project, state);
+    }
+    state.parsedConfig = parsedConfig;
+    return state.service;
+}
+
+function modifiedTime(fileName) {
+    const modified = ts.sys.getModifiedTime(fileName);
+    return modified === undefined ? undefined : modified.getTime();
+}
+
+// Emits through a builder program when the project is incremental, so that only affected files are emitted and the
+// tsbuildinfo gradle keeps between builds is read and written just like tsc does
+function emitIncrementally(project, parsedConfig, program) {
+    const options = parsedConfig.options;
+    const state = services.get(project);
+    const buildInfoFile = options.tsBuildInfoFile;
+    const buildInfoTime = modifiedTime(buildInfoFile);
+    let oldBuilder;
+    if (buildInfoTime === undefined) {
+        // Outputs were wiped along with the build info, everything has to be emitted again
+        oldBuilder = undefined;
+    } else if (state.builder !== undefined && state.buildInfoTime === buildInfoTime) {
+        oldBuilder = state.builder;
+    } else {
+        // Someone else, e.g. a standalone tsc, compiled this project since we last did
+        oldBuilder = ts.readBuilderProgram(options, {
+            getCurrentDirectory: () => path.dirname(project),
+            readFile: ts.sys.readFile,
+            useCaseSensitiveFileNames: () => ts.sys.useCaseSensitiveFileNames,
+        });
+    }
+
+    const builder = ts.createEmitAndSemanticDiagnosticsBuilderProgram(
+        program, ts.createIncrementalCompilerHost(options), oldBuilder, parsedConfig.errors);
+    const emitResult = builder.emit();
+    const diagnostics = builder.getConfigFileParsingDiagnostics()
+        .concat(builder.getOptionsDiagnostics())
+        .concat(builder.getGlobalDiagnostics())
+        .concat(builder.getSyntacticDiagnostics())
+        .concat(builder.getSemanticDiagnostics())
+        .concat(emitResult.diagnostics);
+    state.builder = builder;
+    state.buildInfoTime = modifiedTime(buildInfoFile);
+    return diagnostics;
+}
+
+function compile(project) {
+    const parsedConfig = parseConfig(project);
+    if (parsedConfig.errors.length > 0) {
+        return { exitCode: 1, output: ts.formatDiagnostics(parsedConfig.errors, formatHost) };
+    }
+
+    const program = getService(project, parsedConfig).getProgram();
+    let diagnostics;
+    if (parsedConfig.options.incremental && parsedConfig.options.tsBuildInfoFile
+            && typeof ts.createEmitAndSemanticDiagnosticsBuilderProgram === "function") {
+        diagnostics = emitIncrementally(project, parsedConfig, program);
+    } else {
+        const emitResult = program.emit();
+        diagnostics = ts.getPreEmitDiagnostics(program).concat(emitResult.diagnostics);
+    }
+    diagnostics = ts.sortAndDeduplicateDiagnostics(diagnostics);
+    const hasErrors = diagnostics.some(diagnostic => diagnostic.category === ts.DiagnosticCategory.Error);
+    return { exitCode: hasErrors ? 1 : 0, output: ts.formatDiagnostics(diagnostics, formatHost) };
+}
+
+const server = net.createServer({ allowHalfOpen: true }, socket => {
+    const chunks = [];
+    socket.on("data", chunk => chunks.push(chunk));
+    socket.on("end", () => {
+        let response;
+        try {
+            response = compile(JSON.parse(Buffer.concat(chunks).toString("utf8")).project);
+        } catch (e) {
+            response = { exitCode: 1, output: String(e && e.stack ? e.stack : e) };
+        }
+        socket.end(JSON.stringify(response));
+    });
+    socket.on("error", () => socket.destroy());
+});
+
+server.listen(0, "127.0.0.1", () => {
+    process.stdout.write("listening " + server.address().port + "\n");
+});
+
+// The owning gradle daemon keeps our stdin open, exit as soon as it goes away
+process.stdin.on("end", () => process.exit(0));
+process.stdin.resume();
@@ -18,11 +18,15 @@ package com.gradlets.gradle.npm
 
 import static com.github.tomakehurst.wiremock.client.WireMock.aResponse
 import static com.github.tomakehurst.wiremock.client.WireMock.equalTo
+import static com.github.tomakehurst.wiremock.client.WireMock.get
 import static com.github.tomakehurst.wiremock.client.WireMock.put
+import static com.github.tomakehurst.wiremock.client.WireMock.putRequestedFor
 import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options
 
 import com.github.tomakehurst.wiremock.WireMockServer
+import com.google.common.hash.Hashing
+import com.google.common.io.BaseEncoding
 import nebula.test.IntegrationSpec
 
 class PublishToNpmRepositoryIntegrationSpec extends IntegrationSpec {
@@ -91,4 +95,70 @@ class PublishToNpmRepositoryIntegrationSpec extends IntegrationSpec {
         result.wasExecuted("publishTypescriptPublicationToNpmRepository")
         result.wasExecuted("publishTypescriptPublicationToSecondRepository")
     }
+
+    def 'skips versions that are already published'() {
+        when:
+        file("src/main/typescript/foo.ts") << '''
+            const foo = 10;
+        '''.stripIndent()
+        runTasksSuccessfully("distNpm")
+        def tarball = file("build/distributions/${moduleName}/${moduleName}-1.0.1.tgz")
+        wiremock.stubFor(get(urlMatching("/npm/.*/1.0.1"))
+                .willReturn(aResponse().withStatus(200).withBody("""
+                    {"dist": {"shasum": "${Hashing.sha1().hashBytes(tarball.bytes)}"}}
+                """)))
+
+        then:
+        def result = runTasksSuccessfully("publishTypescriptPublicationToSecondRepository")
+        result.standardOutput.contains("is already published to")
+        wiremock.verify(0, putRequestedFor(urlMatching("/npm/.*")))
+    }
+
+    def 'compares the integrity of published versions when the registry reports it'() {
+        when:
+        file("src/main/typescript/foo.ts") << '''
+            const foo = 10;
+        '''.stripIndent()
+        runTasksSuccessfully("distNpm")
+        def tarball = file("build/distributions/${moduleName}/${moduleName}-1.0.1.tgz")
+        def integrity = "sha512-" + BaseEncoding.base64().encode(Hashing.sha512().hashBytes(tarball.bytes).asBytes())
+        wiremock.stubFor(get(urlMatching("/npm/.*/1.0.1"))
+                .willReturn(aResponse().withStatus(200).withBody("""
+                    {"dist": {"shasum": "deadbeef", "integrity": "${integrity}"}}
+                """)))
+
+        then:
+        def result = runTasksSuccessfully("publishTypescriptPublicationToSecondRepository")
+        result.standardOutput.contains("is already published to")
+        wiremock.verify(0, putRequestedFor(urlMatching("/npm/.*")))
+    }
+
+    def 'publishes without checking for published versions when the token can only publish'() {
+        when:
+        file("src/main/typescript/foo.ts") << '''
+            const foo = 10;
+        '''.stripIndent()
+        wiremock.stubFor(get(urlMatching("/npm/.*/1.0.1")).willReturn(aResponse().withStatus(403)))
+        wiremock.stubFor(put(urlMatching("/npm/${moduleName}"))
+                .withHeader("Authorization", equalTo("Bearer notatoken"))
+                .willReturn(aResponse().withStatus(200)))
+
+        then:
+        runTasksSuccessfully("publishTypescriptPublicationToSecondRepository")
+        wiremock.verify(1, putRequestedFor(urlMatching("/npm/${moduleName}")))
+    }
+
+    def 'fails to publish versions already published with different contents'() {
+        when:
+        file("src/main/typescript/foo.ts") << '''
+            const foo = 10;
+        '''.stripIndent()
+        wiremock.stubFor(get(urlMatching("/npm/.*/1.0.1"))
+                .willReturn(aResponse().withStatus(200).withBody('{"dist": {"shasum": "deadbeef"}}')))
+
+        then:
+        def result = runTasksWithFailure("publishTypescriptPublicationToSecondRepository")
+        result.standardError.contains("Version is already published with different contents")
+        wiremock.verify(0, putRequestedFor(urlMatching("/npm/.*")))
+    }
 }
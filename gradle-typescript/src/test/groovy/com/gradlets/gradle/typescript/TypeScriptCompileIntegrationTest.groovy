@@ -17,6 +17,8 @@
 package com.gradlets.gradle.typescript
 
 import com.gradlets.gradle.Versions
+import java.nio.file.Files
+import java.nio.file.Path
 import nebula.test.IntegrationSpec
 import spock.lang.Unroll
 
@@ -62,6 +64,52 @@ class TypeScriptCompileIntegrationTest extends IntegrationSpec {
         fileExists('build/scripts/main/foo.d.ts')
     }
 
+    def 'removes outputs of deleted sources on incremental compilation'() {
+        when:
+        file("src/main/typescript/foo.ts") << '''
+            export const foo = 10;
+        '''.stripIndent()
+        file("src/main/typescript/bar.ts") << '''
+            export const bar = 20;
+        '''.stripIndent()
+        runTasksSuccessfully(':compileTypeScript')
+        file("src/main/typescript/bar.ts").delete()
+
+        then:
+        runTasksSuccessfully(':compileTypeScript')
+        fileExists('build/scripts/main/foo.js')
+        !fileExists('build/scripts/main/bar.js')
+        !fileExists('build/scripts/main/bar.d.ts')
+        fileExists('build/tsbuildinfo/main/tsconfig.tsbuildinfo')
+    }
+
+    def 'loads compiled scripts from the build cache'() {
+        when:
+        def buildCache = new File(projectDir.parentFile, "${moduleName}-build-cache")
+        buildCache.deleteDir()
+        settingsFile << """
+            buildCache {
+                local {
+                    directory = file('${buildCache.absolutePath}')
+                }
+            }
+        """.stripIndent()
+        file("src/main/typescript/foo.ts") << '''
+            export const foo = 10;
+        '''.stripIndent()
+        runTasksSuccessfully(':compileTypeScript', '--build-cache')
+        def relocated = new File(projectDir.parentFile, "${moduleName}-relocated")
+        relocated.deleteDir()
+        copyProject(projectDir, relocated)
+        projectDir = relocated
+
+        then:
+        def result = runTasksSuccessfully(':compileTypeScript', '--build-cache')
+        result.standardOutput.contains(':compileTypeScript FROM-CACHE')
+        fileExists('build/scripts/main/foo.js')
+        fileExists('build/scripts/main/foo.d.ts')
+    }
+
     def 'compiles test code with dependency on main'() {
         when:
         addSubproject('foo')
@@ -314,4 +362,17 @@ class TypeScriptCompileIntegrationTest extends IntegrationSpec {
         result.wasExecuted(':foo:compileTypeScript')
         result.wasExecuted(':bar:compileTypeScript')
     }
+
+    // Copies sources and build files only, as checking the project out again in another directory would
+    private static void copyProject(File source, File target) {
+        Path sourcePath = source.toPath()
+        Files.walk(sourcePath).withCloseable { paths ->
+            paths.filter { path ->
+                Path relative = sourcePath.relativize(path)
+                !relative.startsWith('build') && !relative.startsWith('.gradle')
+            }.forEach { path ->
+                Files.copy(path, target.toPath().resolve(sourcePath.relativize(path).toString()))
+            }
+        }
+    }
 }
@@ -0,0 +1,128 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.npm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class NpmModuleStoreTest {
+    private static final Path TARBALL = Paths.get("src/test/foo-artifact-1.0.0.tgz");
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void shares_extracted_files_between_outputs() throws IOException {
+        NpmModuleStore store = new NpmModuleStore(tempDir.resolve("store"), Duration.ofDays(30));
+        Path first = tempDir.resolve("first");
+        Path second = tempDir.resolve("second");
+
+        store.extract(TARBALL, first);
+        store.extract(TARBALL, second);
+
+        assertThat(first.resolve("package.json")).exists();
+        assertThat(first.resolve("lib/foo.d.ts")).hasSameTextualContentAs(second.resolve("lib/foo.d.ts"));
+        // Both outputs are hard links to the same file in the store
+        assertThat(Files.isSameFile(first.resolve("lib/foo.js"), second.resolve("lib/foo.js")))
+                .isTrue();
+        assertThat(listModules()).hasSize(1);
+    }
+
+    @Test
+    void concurrent_extractions_share_one_module() throws Exception {
+        NpmModuleStore store = new NpmModuleStore(tempDir.resolve("store"), Duration.ofDays(30));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Path>> outputs = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                Path output = tempDir.resolve("output-" + i);
+                outputs.add(executor.submit(() -> {
+                    start.await();
+                    store.extract(TARBALL, output);
+                    return output;
+                }));
+            }
+            start.countDown();
+            for (Future<Path> output : outputs) {
+                assertThat(output.get().resolve("lib/foo.d.ts")).exists();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(listModules()).hasSize(1);
+    }
+
+    @Test
+    void extracts_modules_again_when_their_files_were_modified() throws IOException {
+        NpmModuleStore store = new NpmModuleStore(tempDir.resolve("store"), Duration.ofDays(30));
+        Path first = tempDir.resolve("first");
+        Path second = tempDir.resolve("second");
+        store.extract(TARBALL, first);
+
+        Path file = first.resolve("lib/foo.js");
+        assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(file)))
+                .doesNotContain("w");
+        file.toFile().setWritable(true);
+        Files.writeString(file, "modified");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().plus(Duration.ofMinutes(1))));
+        store.extract(TARBALL, second);
+
+        assertThat(second.resolve("lib/foo.js")).content().isNotEqualTo("modified");
+        assertThat(Files.isSameFile(file, second.resolve("lib/foo.js"))).isFalse();
+    }
+
+    @Test
+    void evicts_modules_that_were_not_used_recently() throws IOException {
+        NpmModuleStore store = new NpmModuleStore(tempDir.resolve("store"), Duration.ofDays(30));
+        store.extract(TARBALL, tempDir.resolve("output"));
+        assertThat(store.cleanUp()).isZero();
+
+        for (Path module : listModules()) {
+            Files.setLastModifiedTime(module, FileTime.from(Instant.now().minus(Duration.ofDays(31))));
+        }
+
+        assertThat(store.cleanUp()).isOne();
+        assertThat(listModules()).isEmpty();
+        assertThat(tempDir.resolve("output/lib/foo.js")).exists();
+    }
+
+    private List<Path> listModules() throws IOException {
+        try (Stream<Path> files = Files.walk(tempDir.resolve("store"), 2)) {
+            return files.filter(path -> Files.exists(path.resolve("extracted"))).collect(Collectors.toList());
+        }
+    }
+}
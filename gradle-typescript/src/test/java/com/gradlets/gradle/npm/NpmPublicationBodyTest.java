@@ -0,0 +1,67 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.npm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.gradlets.gradle.typescript.ObjectMappers;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class NpmPublicationBodyTest {
+    private static final Map<String, Object> PACKAGE_JSON = Map.of(
+            "name", "@scope/foo", "version", "1.0.0", "readme", "# foo", "dependencies", Map.of("bar", "^2.0.0"));
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void writes_the_same_document_as_the_in_memory_publication() throws IOException {
+        byte[] tarball = new byte[100_003];
+        new Random(0).nextBytes(tarball);
+        Path tarballPath = Files.write(tempDir.resolve("foo.tgz"), tarball);
+        NpmPublicationBody body = new NpmPublicationBody(PACKAGE_JSON, "http://registry/", tarballPath);
+
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        body.writeTo(streamed);
+
+        assertThat(ObjectMappers.MAPPER.readTree(streamed.toByteArray()))
+                .isEqualTo(ObjectMappers.MAPPER.readTree(ObjectMappers.MAPPER.writeValueAsBytes(
+                        PackageJsons.packageJsonForPublication(PACKAGE_JSON, "http://registry/", tarball))));
+        assertThat(body.packageName()).isEqualTo("@scope/foo");
+    }
+
+    @Test
+    void can_be_written_again_for_retries() throws IOException {
+        Path tarballPath = Files.write(tempDir.resolve("foo.tgz"), new byte[] {1, 2, 3});
+        NpmPublicationBody body = new NpmPublicationBody(PACKAGE_JSON, "http://registry/", tarballPath);
+        ByteArrayOutputStream first = new ByteArrayOutputStream();
+        ByteArrayOutputStream second = new ByteArrayOutputStream();
+
+        body.writeTo(first);
+        body.writeTo(second);
+
+        assertThat(body.repeatable()).isTrue();
+        assertThat(second.toByteArray()).isEqualTo(first.toByteArray());
+    }
+}
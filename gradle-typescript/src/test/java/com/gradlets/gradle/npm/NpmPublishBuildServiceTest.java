@@ -0,0 +1,140 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.npm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.gradle.api.services.BuildServiceParameters;
+import org.junit.jupiter.api.Test;
+
+class NpmPublishBuildServiceTest {
+    private static final String REPOSITORY_URL = "http://localhost:4873/";
+
+    @Test
+    void retries_gateway_errors() {
+        TestUpload upload = new TestUpload(new NpmRegistryException(502, "Bad Gateway"));
+        try (NpmPublishBuildService service = new TestPublishBuildService()) {
+            assertThat(service.publish(REPOSITORY_URL, 1024, upload)).isTrue();
+        }
+
+        assertThat(upload.attempts).hasValue(2);
+        assertThat(upload.lookups).hasValue(2);
+    }
+
+    @Test
+    void retries_connection_errors() {
+        TestUpload upload = new TestUpload(new UncheckedIOException(new IOException("Connection reset")));
+        try (NpmPublishBuildService service = new TestPublishBuildService()) {
+            assertThat(service.publish(REPOSITORY_URL, 1024, upload)).isTrue();
+        }
+
+        assertThat(upload.attempts).hasValue(2);
+    }
+
+    @Test
+    void does_not_retry_uploads_that_went_through() {
+        TestUpload upload = new TestUpload(new NpmRegistryException(504, "Gateway Timeout"));
+        upload.published.add(false);
+        upload.published.add(true);
+        try (NpmPublishBuildService service = new TestPublishBuildService()) {
+            assertThat(service.publish(REPOSITORY_URL, 1024, upload)).isTrue();
+        }
+
+        assertThat(upload.attempts).hasValue(1);
+        assertThat(upload.lookups).hasValue(2);
+    }
+
+    @Test
+    void does_not_upload_publications_that_are_already_published() {
+        TestUpload upload = new TestUpload();
+        upload.published.add(true);
+        try (NpmPublishBuildService service = new TestPublishBuildService()) {
+            assertThat(service.publish(REPOSITORY_URL, 1024, upload)).isFalse();
+        }
+
+        assertThat(upload.attempts).hasValue(0);
+    }
+
+    @Test
+    void does_not_retry_other_server_errors() {
+        TestUpload upload = new TestUpload(new NpmRegistryException(500, "Internal Server Error"));
+        try (NpmPublishBuildService service = new TestPublishBuildService()) {
+            assertThatThrownBy(() -> service.publish(REPOSITORY_URL, 1024, upload))
+                    .isInstanceOf(NpmRegistryException.class);
+        }
+
+        assertThat(upload.attempts).hasValue(1);
+    }
+
+    @Test
+    void does_not_retry_client_errors() {
+        TestUpload upload = new TestUpload(new NpmRegistryException(409, "Conflict"));
+        try (NpmPublishBuildService service = new TestPublishBuildService()) {
+            assertThatThrownBy(() -> service.publish(REPOSITORY_URL, 1024, upload))
+                    .isInstanceOf(NpmRegistryException.class);
+        }
+
+        assertThat(upload.attempts).hasValue(1);
+    }
+
+    @Test
+    void backs_off_exponentially() {
+        assertThat(NpmPublishBuildService.backoff(1).toMillis()).isBetween(500L, 1000L);
+        assertThat(NpmPublishBuildService.backoff(3).toMillis()).isBetween(2000L, 4000L);
+    }
+
+    /** Fails with the given exceptions in turn, the registry doesn't have the publication unless told otherwise. */
+    private static final class TestUpload implements NpmPublishBuildService.Upload {
+        private final Deque<RuntimeException> failures;
+        private final Deque<Boolean> published = new ArrayDeque<>();
+        private final AtomicInteger attempts = new AtomicInteger();
+        private final AtomicInteger lookups = new AtomicInteger();
+
+        TestUpload(RuntimeException... failures) {
+            this.failures = new ArrayDeque<>(Arrays.asList(failures));
+        }
+
+        @Override
+        public boolean isPublished(NpmPublishService _client) {
+            lookups.incrementAndGet();
+            return Boolean.TRUE.equals(published.poll());
+        }
+
+        @Override
+        public void run(NpmPublishService _client) {
+            attempts.incrementAndGet();
+            RuntimeException failure = failures.poll();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private static final class TestPublishBuildService extends NpmPublishBuildService {
+        @Override
+        public BuildServiceParameters.None getParameters() {
+            return null;
+        }
+    }
+}
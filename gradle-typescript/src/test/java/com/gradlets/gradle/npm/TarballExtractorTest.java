@@ -0,0 +1,136 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.npm;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TarballExtractorTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void extracts_files_links_and_permissions() throws IOException {
+        byte[] largeFile = new byte[5 * 1024 * 1024];
+        Arrays.fill(largeFile, (byte) 'a');
+        Path tarball = tempDir.resolve("foo-1.0.0.tgz");
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+                new GzipCompressorOutputStream(Files.newOutputStream(tarball)))) {
+            // Hard link precedes its target in the archive on purpose
+            TarArchiveEntry link = new TarArchiveEntry("package/lib/alias.js", TarArchiveEntry.LF_LINK);
+            link.setLinkName("lib/foo.js");
+            tar.putArchiveEntry(link);
+            tar.closeArchiveEntry();
+            addFile(tar, "package/package.json", 0644, "{}".getBytes(StandardCharsets.UTF_8));
+            addFile(tar, "package/lib/foo.js", 0644, "foo".getBytes(StandardCharsets.UTF_8));
+            addFile(tar, "package/bin/cli.js", 0755, "cli".getBytes(StandardCharsets.UTF_8));
+            addFile(tar, "package/lib/large.js", 0644, largeFile);
+        }
+
+        Path output = tempDir.resolve("out");
+        TarballExtractor.extract(tarball, output);
+
+        assertThat(output.resolve("package.json")).hasContent("{}");
+        assertThat(output.resolve("lib/foo.js")).hasContent("foo");
+        assertThat(output.resolve("lib/alias.js")).hasContent("foo");
+        assertThat(Files.readAllBytes(output.resolve("lib/large.js"))).isEqualTo(largeFile);
+        assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(output.resolve("bin/cli.js"))))
+                .isEqualTo("rwxr-xr-x");
+    }
+
+    @Test
+    void restores_modes_that_differ_from_the_umask() throws IOException {
+        Path tarball = tempDir.resolve("foo-1.0.0.tgz");
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+                new GzipCompressorOutputStream(Files.newOutputStream(tarball)))) {
+            addFile(tar, "package/private.js", 0600, "private".getBytes(StandardCharsets.UTF_8));
+            addFile(tar, "package/public.js", 0644, "public".getBytes(StandardCharsets.UTF_8));
+        }
+
+        Path output = tempDir.resolve("out");
+        TarballExtractor.extract(tarball, output);
+
+        assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(output.resolve("private.js"))))
+                .isEqualTo("rw-------");
+        assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(output.resolve("public.js"))))
+                .isEqualTo("rw-r--r--");
+    }
+
+    @Test
+    void last_duplicate_entry_wins() throws IOException {
+        byte[] largeFile = new byte[5 * 1024 * 1024];
+        Arrays.fill(largeFile, (byte) 'b');
+        Path tarball = tempDir.resolve("foo-1.0.0.tgz");
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+                new GzipCompressorOutputStream(Files.newOutputStream(tarball)))) {
+            addFile(tar, "package/index.js", 0644, "first".getBytes(StandardCharsets.UTF_8));
+            addFile(tar, "package/index.js", 0755, "second".getBytes(StandardCharsets.UTF_8));
+            addFile(tar, "package/large.js", 0644, "small".getBytes(StandardCharsets.UTF_8));
+            addFile(tar, "package/large.js", 0644, largeFile);
+            TarArchiveEntry link = new TarArchiveEntry("package/alias.js", TarArchiveEntry.LF_LINK);
+            link.setLinkName("index.js");
+            tar.putArchiveEntry(link);
+            tar.closeArchiveEntry();
+            addFile(tar, "package/alias.js", 0644, "alias".getBytes(StandardCharsets.UTF_8));
+        }
+
+        Path output = tempDir.resolve("out");
+        TarballExtractor.extract(tarball, output);
+
+        assertThat(output.resolve("index.js")).hasContent("second");
+        assertThat(PosixFilePermissions.toString(Files.getPosixFilePermissions(output.resolve("index.js"))))
+                .isEqualTo("rwxr-xr-x");
+        assertThat(Files.readAllBytes(output.resolve("large.js"))).isEqualTo(largeFile);
+        assertThat(output.resolve("alias.js")).hasContent("alias");
+    }
+
+    @Test
+    void fails_when_an_entry_cannot_be_written() throws IOException {
+        Path tarball = tempDir.resolve("foo-1.0.0.tgz");
+        try (TarArchiveOutputStream tar = new TarArchiveOutputStream(
+                new GzipCompressorOutputStream(Files.newOutputStream(tarball)))) {
+            addFile(tar, "package/lib/foo.js", 0644, "foo".getBytes(StandardCharsets.UTF_8));
+            // Clashes with the directory created for the previous entry
+            addFile(tar, "package/lib", 0644, "lib".getBytes(StandardCharsets.UTF_8));
+        }
+
+        assertThatThrownBy(() -> TarballExtractor.extract(tarball, tempDir.resolve("out")))
+                .isInstanceOf(IOException.class);
+    }
+
+    private static void addFile(TarArchiveOutputStream tar, String name, int mode, byte[] contents)
+            throws IOException {
+        TarArchiveEntry entry = new TarArchiveEntry(name);
+        entry.setMode(mode);
+        entry.setSize(contents.length);
+        tar.putArchiveEntry(entry);
+        tar.write(contents);
+        tar.closeArchiveEntry();
+    }
+}
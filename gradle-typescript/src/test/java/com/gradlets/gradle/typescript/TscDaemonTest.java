@@ -0,0 +1,76 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TscDaemonTest {
+    // Stands in for the real daemon: answers every request once the client half-closed, after running the given code
+    private static final String SERVER = "const net = require('net');\n"
+            + "const server = net.createServer({ allowHalfOpen: true }, socket => {\n"
+            + "    socket.on('data', () => {});\n"
+            + "    socket.on('end', () => { %s });\n"
+            + "});\n"
+            + "server.listen(0, '127.0.0.1', () => {\n"
+            + "    process.stdout.write('listening ' + server.address().port + '\\n');\n"
+            + "});\n"
+            + "process.stdin.on('end', () => process.exit(0));\n"
+            + "process.stdin.resume();\n";
+    private static final String RESPOND = "socket.end(JSON.stringify({ exitCode: 0, output: 'ok' }));";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void drains_output_of_chatty_daemons() throws IOException {
+        String chatter = "for (let i = 0; i < 20000; i++) { process.stdout.write('x'.repeat(100) + '\\n'); }";
+        try (TscDaemon daemon = start(chatter + String.format(SERVER, chatter + RESPOND), Duration.ofMinutes(1))) {
+            assertThat(daemon.compile(tempDir.resolve("tsconfig.json")).output()).isEqualTo("ok");
+            assertThat(daemon.compile(tempDir.resolve("tsconfig.json")).output()).isEqualTo("ok");
+        }
+    }
+
+    @Test
+    void fails_to_start_daemons_that_never_listen() throws IOException {
+        Path script = Files.writeString(tempDir.resolve("daemon.js"), "setInterval(() => {}, 1000);");
+        assertThatThrownBy(() -> TscDaemon.start(
+                        script, tempDir, tempDir.resolve("tsc.log"), Duration.ofMillis(500), Duration.ofMinutes(1)))
+                .isInstanceOf(IOException.class)
+                .hasMessageContaining("Failed to start tsc daemon");
+    }
+
+    @Test
+    void times_out_compiles_of_wedged_daemons() throws IOException {
+        try (TscDaemon daemon = start(String.format(SERVER, "while (true) {}"), Duration.ofMillis(500))) {
+            assertThatThrownBy(() -> daemon.compile(tempDir.resolve("tsconfig.json")))
+                    .isInstanceOf(IOException.class);
+        }
+    }
+
+    private TscDaemon start(String script, Duration compileTimeout) throws IOException {
+        Path scriptPath = Files.writeString(tempDir.resolve("daemon.js"), script);
+        return TscDaemon.start(scriptPath, tempDir, tempDir.resolve("tsc.log"), Duration.ofMinutes(1), compileTimeout);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class TscDiagnosticsTest {
+    private static final Path WORKING_DIR = Path.of("/tsc");
+    private static final Path FOO_CONFIG = Path.of("/foo/build/tmp/compileTypeScript/tsconfig.json");
+    private static final Path BAR_CONFIG = Path.of("/bar/build/tmp/compileTypeScript/tsconfig.json");
+    private static final Map<Path, Set<Path>> PROJECTS = Map.of(
+            FOO_CONFIG, Set.of(Path.of("/foo/src/main/typescript/index.ts")),
+            BAR_CONFIG, Set.of(Path.of("/bar/src/main/typescript/index.ts")));
+
+    @Test
+    void parses_diagnostics_with_continuation_lines() {
+        List<TscDiagnostics.Diagnostic> diagnostics = TscDiagnostics.parse(
+                WORKING_DIR,
+                "../foo/src/main/typescript/index.ts(1,7): error TS2322: Type 'number' is not assignable to 'Foo'.\n"
+                        + "  Type 'number' is not assignable to type 'string'.\n"
+                        + "error TS5023: Unknown compiler option 'foo'.\n");
+
+        assertThat(diagnostics).hasSize(2);
+        assertThat(diagnostics.get(0).file()).hasValue(Path.of("/foo/src/main/typescript/index.ts"));
+        assertThat(diagnostics.get(0).error()).isTrue();
+        assertThat(diagnostics.get(0).text()).contains("TS2322").contains("type 'string'");
+        assertThat(diagnostics.get(1).file()).isEmpty();
+        assertThat(diagnostics.get(1).text()).contains("TS5023");
+    }
+
+    @Test
+    void fails_only_projects_with_errors() {
+        Map<Path, TscDiagnostics.ProjectResult> results = TscDiagnostics.attribute(
+                1,
+                TscDiagnostics.parse(
+                        WORKING_DIR, "../foo/src/main/typescript/index.ts(1,7): error TS2322: Type mismatch.\n"),
+                PROJECTS);
+
+        assertThat(results.get(FOO_CONFIG).failed()).isTrue();
+        assertThat(results.get(FOO_CONFIG).output()).contains("TS2322");
+        assertThat(results.get(BAR_CONFIG).failed()).isFalse();
+        assertThat(results.get(BAR_CONFIG).undecided()).isFalse();
+        assertThat(results.get(BAR_CONFIG).output()).isEmpty();
+    }
+
+    @Test
+    void leaves_projects_undecided_on_unattributed_errors() {
+        Map<Path, TscDiagnostics.ProjectResult> results = TscDiagnostics.attribute(
+                1,
+                TscDiagnostics.parse(
+                        WORKING_DIR,
+                        "../foo/src/main/typescript/index.ts(1,7): error TS2322: Type mismatch.\n"
+                                + "/deps/types/index.d.ts(3,1): error TS1005: ';' expected.\n"),
+                PROJECTS);
+
+        assertThat(results.get(FOO_CONFIG).failed()).isTrue();
+        assertThat(results.get(FOO_CONFIG).undecided()).isFalse();
+        assertThat(results.get(BAR_CONFIG).undecided()).isTrue();
+    }
+
+    @Test
+    void leaves_projects_undecided_on_failures_without_errors() {
+        Map<Path, TscDiagnostics.ProjectResult> results = TscDiagnostics.attribute(1, List.of(), PROJECTS);
+
+        assertThat(results.get(FOO_CONFIG).undecided()).isTrue();
+        assertThat(results.get(BAR_CONFIG).undecided()).isTrue();
+    }
+
+    @Test
+    void passes_projects_of_successful_batches() {
+        Map<Path, TscDiagnostics.ProjectResult> results = TscDiagnostics.attribute(0, List.of(), PROJECTS);
+
+        assertThat(results.values()).allSatisfy(result -> {
+            assertThat(result.failed()).isFalse();
+            assertThat(result.undecided()).isFalse();
+        });
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class TypeScriptConfigsTest {
+    private static final Path ROOT = Path.of("/project/src/main/typescript");
+    private static final Path CONFIG_DIR = Path.of("/project/build/tmp/compileTypeScript");
+
+    @Test
+    void roots_sources_at_their_common_directory() {
+        assertThat(TypeScriptConfigs.commonSourceDirectory(
+                        Set.of(source("foo/index.ts"), source("foo/bar/bar.ts"), source("baz/baz.tsx"))))
+                .hasValue(ROOT);
+    }
+
+    @Test
+    void ignores_declaration_files_when_rooting_sources() {
+        assertThat(TypeScriptConfigs.commonSourceDirectory(Set.of(
+                        source("foo/index.ts"),
+                        source("types/a.d.ts"),
+                        source("types/b.d.mts"),
+                        source("types/c.d.cts"))))
+                .hasValue(ROOT.resolve("foo"));
+    }
+
+    @Test
+    void adds_task_options_to_the_validated_user_options() {
+        TsConfig tsConfig = TypeScriptConfigs.createGradleTsConfig(
+                CONFIG_DIR,
+                Path.of("/project/build/scripts/main"),
+                Set.of(source("foo/index.ts")),
+                Set.of(),
+                Set.of(),
+                Map.of("strict", true),
+                Map.of("incremental", true, "rootDir", "../../../src/main/typescript"));
+
+        assertThat(tsConfig.compilerOptions())
+                .containsEntry("strict", true)
+                .containsEntry("incremental", true)
+                .containsEntry("rootDir", "../../../src/main/typescript")
+                .containsEntry("outDir", "../../scripts/main");
+        assertThat(tsConfig.files()).containsExactly("../../../src/main/typescript/foo/index.ts");
+    }
+
+    @Test
+    void generates_the_same_config_wherever_the_project_is_checked_out() {
+        assertThat(tsConfigIn(Path.of("/elsewhere/checkout"))).isEqualTo(tsConfigIn(Path.of("/project")));
+    }
+
+    @Test
+    void rejects_user_options_the_task_owns() {
+        assertThatThrownBy(() -> TypeScriptConfigs.createGradleTsConfig(
+                        CONFIG_DIR,
+                        Path.of("/project/build/scripts/main"),
+                        Set.of(source("foo/index.ts")),
+                        Set.of(),
+                        Set.of(),
+                        Map.of("rootDir", "src"),
+                        Map.of()))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Users must not specify rootDir");
+    }
+
+    // Mirrors how TypeScriptCompile derives the task options from the project layout
+    private static TsConfig tsConfigIn(Path projectDir) {
+        Path configDir = projectDir.resolve("build/tmp/compileTypeScript");
+        Path sourceRoot = projectDir.resolve("src/main/typescript");
+        return TypeScriptConfigs.createGradleTsConfig(
+                configDir,
+                projectDir.resolve("build/scripts/main"),
+                Set.of(sourceRoot.resolve("foo/index.ts").toFile()),
+                Set.of(),
+                Set.of(),
+                Map.of("strict", true),
+                Map.of(
+                        "incremental",
+                        true,
+                        "tsBuildInfoFile",
+                        TypeScriptConfigs.toConfigPath(
+                                configDir, projectDir.resolve("build/tsbuildinfo/main/tsconfig.tsbuildinfo")),
+                        "rootDir",
+                        TypeScriptConfigs.toConfigPath(configDir, sourceRoot)));
+    }
+
+    private static File source(String path) {
+        return ROOT.resolve(path).toFile();
+    }
+}
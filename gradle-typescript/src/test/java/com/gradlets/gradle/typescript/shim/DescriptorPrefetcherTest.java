@@ -0,0 +1,61 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DescriptorPrefetcherTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void parses_versions_lock() throws IOException {
+        Path lockfile = Files.writeString(
+                tempDir.resolve("versions.lock"),
+                "# Run ./gradlew --write-locks to regenerate this file\n"
+                        + "com.google.guava:guava:31.1-jre (1 constraints: 0a05f935)\n"
+                        + "npm:conjure-client:2.4.1 (2 constraints: 1b2c3d4e)\n"
+                        + "npm:gradlets/test-service-api:0.0.1 (1 constraints: 5f6a7b8c)\n");
+
+        assertThat(DescriptorPrefetcher.parseLockfile(lockfile))
+                .containsExactly(
+                        ModuleIdentifier.of("conjure-client", "2.4.1"),
+                        ModuleIdentifier.of("@gradlets/test-service-api", "0.0.1"));
+    }
+
+    @Test
+    void parses_gradle_lockfile() throws IOException {
+        Path lockfile = Files.writeString(
+                tempDir.resolve("gradle.lockfile"),
+                "npm:react:16.8.3=deps,types\nempty=annotationProcessor\n");
+
+        assertThat(DescriptorPrefetcher.parseLockfile(lockfile))
+                .containsExactly(ModuleIdentifier.of("react", "16.8.3"));
+    }
+
+    @Test
+    void ignores_missing_lockfiles() {
+        assertThat(DescriptorPrefetcher.parseLockfile(tempDir.resolve("versions.lock")))
+                .isEmpty();
+    }
+}
@@ -54,6 +54,16 @@ class IvyPatternsTest {
         });
     }
 
+    @Test
+    void converts_module_listings() {
+        assertThat(IvyPatterns.parseModuleListingPath("/typescript/")).hasValue("typescript");
+        assertThat(IvyPatterns.parseModuleListingPath("/foundry/conjure-fe-lib/"))
+                .hasValue("@foundry/conjure-fe-lib");
+        assertThat(IvyPatterns.parseModuleListingPath("/typescript/-/")).isEmpty();
+        assertThat(IvyPatterns.parseModuleListingPath("/typescript/3.7.5/descriptor.ivy")).isEmpty();
+        assertThat(IvyPatterns.parseModuleListingPath("/")).isEmpty();
+    }
+
     private static String getPath(String packageName, String packageVersion) {
         return String.format("/%s/-/%s-%s.tgz", packageName, packageName, packageVersion);
     }
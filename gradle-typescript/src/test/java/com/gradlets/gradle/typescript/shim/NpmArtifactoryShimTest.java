@@ -0,0 +1,186 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.notFound;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.google.common.hash.Hashing;
+import com.gradlets.gradle.typescript.ObjectMappers;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class NpmArtifactoryShimTest {
+    private final WireMockServer wiremock = new WireMockServer(options().dynamicPort());
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+    private NpmArtifactoryShim.ShimServer shim;
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void before() {
+        System.setProperty(ShimConfiguration.GRADLE_TYPESCRIPT_DIR_PROP_NAME, tempDir.toString());
+        wiremock.start();
+        shim = NpmArtifactoryShim.startServer(wiremock.baseUrl(), 0, () -> {});
+    }
+
+    @AfterEach
+    void after() {
+        shim.close();
+        wiremock.stop();
+        System.clearProperty(ShimConfiguration.GRADLE_TYPESCRIPT_DIR_PROP_NAME);
+    }
+
+    @Test
+    void serves_descriptors_of_plain_packages() throws IOException, InterruptedException {
+        wiremock.stubFor(get(urlEqualTo("/foo/1.0.0")).willReturn(packageJson("foo", "1.0.0")));
+
+        HttpResponse<String> response = send("GET", "/foo/1.0.0/descriptor.ivy");
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.headers().firstValue("Content-Type")).hasValue("text/xml");
+        assertThat(response.body()).contains("module=\"foo\" revision=\"1.0.0\"");
+        assertThat(response.headers().firstValue("X-Checksum-Sha1")).hasValue(sha1(response.body()));
+    }
+
+    @Test
+    void serves_descriptors_of_scoped_packages() throws IOException, InterruptedException {
+        wiremock.stubFor(get(urlMatching("/.*scope.*bar/1\\.0\\.0")).willReturn(packageJson("@scope/bar", "1.0.0")));
+
+        HttpResponse<String> response = send("GET", "/scope/bar/1.0.0/descriptor.ivy");
+
+        assertThat(response.statusCode()).isEqualTo(200);
+        assertThat(response.body()).contains("revision=\"1.0.0\"");
+    }
+
+    @Test
+    void answers_head_requests_with_the_checksum_of_the_descriptor() throws IOException, InterruptedException {
+        wiremock.stubFor(get(urlEqualTo("/foo/1.0.0")).willReturn(packageJson("foo", "1.0.0")));
+
+        HttpResponse<String> head = send("HEAD", "/foo/1.0.0/descriptor.ivy");
+        HttpResponse<String> response = send("GET", "/foo/1.0.0/descriptor.ivy");
+
+        assertThat(head.statusCode()).isEqualTo(200);
+        assertThat(head.headers().firstValue("X-Checksum-Sha1")).hasValue(sha1(response.body()));
+    }
+
+    @Test
+    void serves_module_metadata_with_type_declarations() throws IOException, InterruptedException {
+        shim.close();
+        System.setProperty(ShimConfiguration.MODULE_METADATA_PROP_NAME, "true");
+        try {
+            shim = NpmArtifactoryShim.startServer(wiremock.baseUrl(), 0, () -> {});
+            wiremock.stubFor(get(urlEqualTo("/foo/1.0.0"))
+                    .willReturn(aResponse()
+                            .withHeader("Content-Type", "application/json")
+                            .withBody("{\"name\":\"foo\",\"version\":\"1.0.0\",\"typings\":\"index.d.ts\","
+                                    + "\"peerDependencies\":{\"react\":\"^16.8.0 || ^17.0.0\"},"
+                                    + "\"dist\":{\"tarball\":\"http://localhost/foo.tgz\",\"shasum\":\"abc\"}}")));
+
+            HttpResponse<String> response = send("GET", "/foo/1.0.0/descriptor.module");
+
+            assertThat(response.statusCode()).isEqualTo(200);
+            assertThat(response.headers().firstValue("Content-Type"))
+                    .hasValue("application/vnd.org.gradle.module+json");
+            JsonNode metadata = ObjectMappers.MAPPER.readTree(response.body());
+            assertThat(metadata.at("/variants/0/attributes/com.gradlets.npm.types").asText())
+                    .isEqualTo("index.d.ts");
+            assertThat(metadata.at("/variants/0/dependencyConstraints/0/version/prefers").asText())
+                    .isEqualTo("17.0.0");
+            assertThat(response.headers().firstValue("X-Checksum-Sha1")).hasValue(sha1(response.body()));
+        } finally {
+            System.clearProperty(ShimConfiguration.MODULE_METADATA_PROP_NAME);
+        }
+    }
+
+    @Test
+    void answers_missing_packages_with_not_found() throws IOException, InterruptedException {
+        wiremock.stubFor(get(urlEqualTo("/missing/1.0.0")).willReturn(notFound()));
+
+        assertThat(send("GET", "/missing/1.0.0/descriptor.ivy").statusCode()).isEqualTo(404);
+        assertThat(send("HEAD", "/missing/1.0.0/descriptor.ivy").statusCode()).isEqualTo(404);
+    }
+
+    @Test
+    void keeps_serving_requests_while_descriptors_load() throws IOException, InterruptedException {
+        // More slow lookups than the shim has I/O threads, none of them may hold one while waiting on the registry
+        List<CompletableFuture<HttpResponse<String>>> slowResponses = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            String name = "slow" + i;
+            wiremock.stubFor(get(urlEqualTo("/" + name + "/1.0.0"))
+                    .willReturn(packageJson(name, "1.0.0").withFixedDelay(2000)));
+            slowResponses.add(httpClient.sendAsync(
+                    request("GET", "/" + name + "/1.0.0/descriptor.ivy").build(),
+                    HttpResponse.BodyHandlers.ofString()));
+        }
+        Thread.sleep(200);
+
+        HttpResponse<String> ping = httpClient.send(
+                request("GET", "/__shim/ping").timeout(Duration.ofSeconds(1)).build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        assertThat(ping.body()).isEqualTo("ok");
+        for (CompletableFuture<HttpResponse<String>> response : slowResponses) {
+            assertThat(response.join().statusCode()).isEqualTo(200);
+        }
+    }
+
+    private HttpResponse<String> send(String method, String path) throws IOException, InterruptedException {
+        return httpClient.send(request(method, path).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpRequest.Builder request(String method, String path) {
+        return HttpRequest.newBuilder(URI.create(shim.getUri() + path))
+                .method(method, HttpRequest.BodyPublishers.noBody());
+    }
+
+    private static ResponseDefinitionBuilder packageJson(String name, String version) {
+        return aResponse()
+                .withHeader("Content-Type", "application/json")
+                .withBody(String.format(
+                        "{\"name\":\"%s\",\"version\":\"%s\",\"dist\":{\"tarball\":\"http://localhost/%s.tgz\","
+                                + "\"shasum\":\"abc\"}}",
+                        name, version, name));
+    }
+
+    @SuppressWarnings("deprecation")
+    private static String sha1(String content) {
+        return Hashing.sha1().hashString(content, StandardCharsets.UTF_8).toString();
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.exactly;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
+import com.gradlets.gradle.typescript.shim.clients.PackageJson;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class PackageJsonLoaderTest {
+    private final WireMockServer wiremock = new WireMockServer(options().dynamicPort());
+    private PackageJsonLoader loader;
+
+    @BeforeEach
+    void before() {
+        System.setProperty(ShimConfiguration.PACKUMENTS_PROP_NAME, "true");
+        wiremock.start();
+        wiremock.stubFor(get(urlEqualTo("/foo")).willReturn(packument("\"v1\"", "1.0.0")));
+        wiremock.stubFor(get(urlEqualTo("/foo/1.0.0")).willReturn(packageJson("1.0.0")));
+        wiremock.stubFor(get(urlEqualTo("/foo/2.0.0")).willReturn(packageJson("2.0.0")));
+        loader = new PackageJsonLoader(wiremock.baseUrl(), new ShimMetrics());
+    }
+
+    @AfterEach
+    void after() {
+        wiremock.stop();
+        System.clearProperty(ShimConfiguration.PACKUMENTS_PROP_NAME);
+    }
+
+    @Test
+    void serves_versions_from_the_packument() {
+        loader.getPackageJson("foo", "1.0.0");
+        PackageJson packageJson = loader.getPackageJson("foo", "1.0.0");
+
+        assertThat(packageJson.version()).isEqualTo("1.0.0");
+        assertThat(packageJson.dependencies()).containsEntry("bar", "^1.0.0");
+        wiremock.verify(exactly(1), getRequestedFor(urlEqualTo("/foo")));
+        wiremock.verify(exactly(0), getRequestedFor(urlEqualTo("/foo/1.0.0")));
+    }
+
+    @Test
+    void refreshes_the_packument_once_for_concurrently_missing_versions() throws Exception {
+        loader.getPackageJson("foo", "1.0.0");
+        wiremock.stubFor(get(urlEqualTo("/foo"))
+                .willReturn(packument("\"v2\"", "1.0.0", "2.0.0").withFixedDelay(500)));
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<PackageJson>> lookups = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                lookups.add(executor.submit(() -> {
+                    start.await();
+                    return loader.getPackageJson("foo", "2.0.0");
+                }));
+            }
+            start.countDown();
+            for (Future<PackageJson> lookup : lookups) {
+                assertThat(lookup.get().version()).isEqualTo("2.0.0");
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        wiremock.verify(exactly(2), getRequestedFor(urlEqualTo("/foo")));
+        wiremock.verify(exactly(0), getRequestedFor(urlEqualTo("/foo/2.0.0")));
+    }
+
+    @Test
+    void keeps_revalidated_packuments_and_falls_back_for_missing_versions() {
+        loader.getPackageJson("foo", "1.0.0");
+        wiremock.stubFor(get(urlEqualTo("/foo"))
+                .withHeader("If-None-Match", equalTo("\"v1\""))
+                .willReturn(aResponse().withStatus(304).withHeader("ETag", "\"v1\"")));
+
+        assertThat(loader.getPackageJson("foo", "2.0.0").version()).isEqualTo("2.0.0");
+
+        assertThat(loader.getVersions("foo")).containsExactly("1.0.0");
+        wiremock.verify(
+                exactly(1), getRequestedFor(urlEqualTo("/foo")).withHeader("If-None-Match", equalTo("\"v1\"")));
+        wiremock.verify(exactly(1), getRequestedFor(urlEqualTo("/foo/2.0.0")));
+    }
+
+    @Test
+    void loads_fields_missing_from_packuments_from_version_documents() {
+        PackageJson packageJson = loader.withFullDocuments().getPackageJson("foo", "1.0.0");
+
+        assertThat(packageJson.types()).hasValue("index.d.ts");
+        wiremock.verify(exactly(0), getRequestedFor(urlEqualTo("/foo")));
+    }
+
+    private static ResponseDefinitionBuilder packument(String etag, String... versions) {
+        return aResponse()
+                .withHeader("Content-Type", "application/vnd.npm.install-v1+json")
+                .withHeader("ETag", etag)
+                .withBody("{\"name\":\"foo\",\"versions\":{"
+                        + Stream.of(versions)
+                                .map(version -> "\"" + version + "\":" + versionJson(version, false))
+                                .collect(Collectors.joining(","))
+                        + "}}");
+    }
+
+    private static ResponseDefinitionBuilder packageJson(String version) {
+        return aResponse().withHeader("Content-Type", "application/json").withBody(versionJson(version, true));
+    }
+
+    private static String versionJson(String version, boolean types) {
+        return "{\"name\":\"foo\",\"version\":\"" + version + "\",\"dependencies\":{\"bar\":\"^1.0.0\"},"
+                + (types ? "\"types\":\"index.d.ts\"," : "")
+                + "\"dist\":{\"tarball\":\"http://localhost/foo/-/foo-" + version + ".tgz\",\"shasum\":\"abc\"}}";
+    }
+}
@@ -30,6 +30,9 @@ public final class ShimConfigurationTest {
     public void afterEach() {
         System.clearProperty(ShimConfiguration.GRADLE_TYPESCRIPT_DIR_PROP_NAME);
         System.clearProperty(ShimConfiguration.PROXY_PORT_PROP_NAME);
+        System.clearProperty(ShimConfiguration.MODULE_STORE_PROP_NAME);
+        System.clearProperty(ShimConfiguration.DESCRIPTOR_CACHE_WEIGHT_PROP_NAME);
+        System.clearProperty(ShimConfiguration.VERSION_RANGES_PROP_NAME);
     }
 
     @Test
@@ -77,4 +80,40 @@ public final class ShimConfigurationTest {
     public void testProxyPortDefault() {
         assertThat(ShimConfiguration.getProxyPort()).isEqualTo(7348);
     }
+
+    @Test
+    public void testModuleStoreDisabledByDefault() {
+        assertThat(ShimConfiguration.getModuleStoreDir()).isEmpty();
+    }
+
+    @Test
+    public void testModuleStoreProp() {
+        String cacheDir = "/a/b/c/d/";
+        System.setProperty(ShimConfiguration.GRADLE_TYPESCRIPT_DIR_PROP_NAME, cacheDir);
+        System.setProperty(ShimConfiguration.MODULE_STORE_PROP_NAME, "true");
+        assertThat(ShimConfiguration.getModuleStoreDir())
+                .hasValue(Paths.get(cacheDir).resolve("cache").resolve("modules"));
+    }
+
+    @Test
+    public void testDescriptorCacheWeightEnv(EnvironmentVariables env) {
+        env.set(ShimConfiguration.DESCRIPTOR_CACHE_WEIGHT_ENV_NAME, "1024");
+        System.setProperty(ShimConfiguration.DESCRIPTOR_CACHE_WEIGHT_PROP_NAME, "2048");
+        assertThat(ShimConfiguration.getDescriptorCacheMaxWeight()).isEqualTo(1024);
+    }
+
+    @Test
+    public void testDescriptorCacheWeightDefault() {
+        assertThat(ShimConfiguration.getDescriptorCacheMaxWeight()).isEqualTo(64 * 1024 * 1024);
+    }
+
+    @Test
+    public void testVersionRangesUseSeparateCacheDir() {
+        String cacheDir = "/a/b/c/d/";
+        System.setProperty(ShimConfiguration.GRADLE_TYPESCRIPT_DIR_PROP_NAME, cacheDir);
+        System.setProperty(ShimConfiguration.VERSION_RANGES_PROP_NAME, "true");
+        assertThat(ShimConfiguration.useVersionRanges()).isTrue();
+        assertThat(ShimConfiguration.getCacheDir())
+                .isEqualTo(Paths.get(cacheDir).resolve("cache").resolve("range-descriptors"));
+    }
 }
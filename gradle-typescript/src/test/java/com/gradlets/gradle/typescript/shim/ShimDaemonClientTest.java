@@ -0,0 +1,126 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.gradlets.gradle.typescript.shim.ShimDaemonClient.DaemonShimServer;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ShimDaemonClientTest {
+    private static final String REGISTRY = "https://registry.npmjs.org";
+
+    private final HttpClient httpClient = HttpClient.newHttpClient();
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void before() {
+        System.setProperty(ShimConfiguration.GRADLE_TYPESCRIPT_DIR_PROP_NAME, tempDir.toString());
+    }
+
+    @AfterEach
+    void after() {
+        ProcessHandle.current().children().forEach(ProcessHandle::destroyForcibly);
+        System.clearProperty(ShimConfiguration.GRADLE_TYPESCRIPT_DIR_PROP_NAME);
+    }
+
+    @Test
+    void names_daemons_by_registry_and_configuration() throws IOException {
+        Path jar = Files.writeString(tempDir.resolve("plugin.jar"), "v1", StandardCharsets.UTF_8);
+        String name = ShimDaemonClient.daemonName(REGISTRY, Map.of("a", "1"), Map.of(), jar.toString());
+
+        assertThat(ShimDaemonClient.daemonName(REGISTRY, Map.of("a", "1"), Map.of(), jar.toString()))
+                .isEqualTo(name);
+        assertThat(ShimDaemonClient.daemonName("https://other.registry", Map.of("a", "1"), Map.of(), jar.toString()))
+                .isNotEqualTo(name);
+        assertThat(ShimDaemonClient.daemonName(REGISTRY, Map.of("a", "2"), Map.of(), jar.toString()))
+                .isNotEqualTo(name);
+        assertThat(ShimDaemonClient.daemonName(REGISTRY, Map.of("a", "1"), Map.of("B", "1"), jar.toString()))
+                .isNotEqualTo(name);
+    }
+
+    @Test
+    void names_daemons_by_plugin_jars() throws IOException {
+        Path jar = Files.writeString(tempDir.resolve("plugin.jar"), "v1", StandardCharsets.UTF_8);
+        String name = ShimDaemonClient.daemonName(REGISTRY, Map.of(), Map.of(), jar.toString());
+
+        Files.writeString(jar, "v2 of the plugin", StandardCharsets.UTF_8);
+
+        assertThat(ShimDaemonClient.daemonName(REGISTRY, Map.of(), Map.of(), jar.toString()))
+                .isNotEqualTo(name);
+    }
+
+    @Test
+    void keeps_the_log_of_the_previous_daemon() throws IOException {
+        Path log = tempDir.resolve("daemon.log");
+        Files.writeString(log, "first", StandardCharsets.UTF_8);
+        ShimDaemonClient.rotateLog(log);
+        Files.writeString(log, "second", StandardCharsets.UTF_8);
+        ShimDaemonClient.rotateLog(log);
+
+        assertThat(log).doesNotExist();
+        assertThat(tempDir.resolve("daemon.log.1")).hasContent("second");
+    }
+
+    @Test
+    void shares_daemons_between_connections() throws IOException, InterruptedException {
+        try (NpmArtifactoryShim.ShimServer first = ShimDaemonClient.connect(REGISTRY);
+                NpmArtifactoryShim.ShimServer second = ShimDaemonClient.connect(REGISTRY)) {
+            assertThat(second.getUri()).isEqualTo(first.getUri());
+            assertThat(ping(first.getUri())).isEqualTo(200);
+        }
+    }
+
+    @Test
+    void restarts_daemons_on_the_same_port() throws IOException, InterruptedException {
+        try (NpmArtifactoryShim.ShimServer server = ShimDaemonClient.connect(REGISTRY)) {
+            ProcessHandle.current().children().forEach(daemon -> {
+                daemon.destroyForcibly();
+                daemon.onExit().join();
+            });
+
+            ((DaemonShimServer) server).ensureRunning();
+
+            assertThat(ping(server.getUri())).isEqualTo(200);
+        }
+    }
+
+    private int ping(URI shimUri) throws IOException, InterruptedException {
+        return httpClient
+                .send(
+                        HttpRequest.newBuilder(shimUri.resolve("/__shim/ping"))
+                                .timeout(Duration.ofSeconds(2))
+                                .build(),
+                        HttpResponse.BodyHandlers.discarding())
+                .statusCode();
+    }
+}
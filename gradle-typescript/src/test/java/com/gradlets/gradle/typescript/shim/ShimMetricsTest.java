@@ -0,0 +1,66 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import org.assertj.core.data.Offset;
+import org.junit.jupiter.api.Test;
+
+class ShimMetricsTest {
+    @Test
+    void estimates_percentiles_within_a_factor_of_two() {
+        ShimMetrics metrics = new ShimMetrics();
+        ShimMetrics.Timer timer = metrics.timer("route");
+        for (int i = 0; i < 99; i++) {
+            timer.record(TimeUnit.MILLISECONDS.toNanos(3));
+        }
+        timer.record(TimeUnit.MILLISECONDS.toNanos(500));
+
+        MetricsSnapshot.TimerSnapshot snapshot = metrics.snapshot().timers().get("route");
+        assertThat(snapshot.count()).isEqualTo(100);
+        assertThat(snapshot.p50Millis()).isBetween(3.0, 6.0);
+        assertThat(snapshot.p99Millis()).isBetween(3.0, 6.0);
+        assertThat(snapshot.maxMillis()).isEqualTo(500.0);
+        assertThat(snapshot.meanMillis()).isCloseTo(7.97, Offset.offset(0.01));
+    }
+
+    @Test
+    void counts_operations_in_flight() {
+        ShimMetrics metrics = new ShimMetrics();
+        ShimMetrics.Context context = metrics.timer("route").start();
+        assertThat(metrics.snapshot().timers().get("route").active()).isEqualTo(1);
+
+        context.stop();
+
+        assertThat(metrics.snapshot().timers().get("route").active()).isZero();
+        assertThat(metrics.snapshot().timers().get("route").count()).isEqualTo(1);
+    }
+
+    @Test
+    void summarises_descriptor_cache_hit_ratio() {
+        ShimMetrics metrics = new ShimMetrics();
+        metrics.increment(ShimMetrics.DESCRIPTOR_CACHE_MEMORY_HITS);
+        metrics.increment(ShimMetrics.DESCRIPTOR_CACHE_MEMORY_HITS);
+        metrics.increment(ShimMetrics.DESCRIPTOR_CACHE_DISK_HITS);
+        metrics.increment(ShimMetrics.DESCRIPTOR_CACHE_MISSES);
+
+        assertThat(ShimMetrics.summary(metrics.snapshot()))
+                .startsWith("descriptor cache: 75.0% hit ratio, 2 memory hits, 1 disk hits, 1 misses");
+    }
+}
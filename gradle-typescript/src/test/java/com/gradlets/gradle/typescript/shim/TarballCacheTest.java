@@ -0,0 +1,164 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.any;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.exactly;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.headRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+import com.gradlets.gradle.typescript.shim.clients.PackageJson;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class TarballCacheTest {
+    private static final byte[] TARBALL = "tarball".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] OTHER_TARBALL = "other tarball".getBytes(StandardCharsets.UTF_8);
+    private static final String TARBALL_PATH = "/foo/-/foo-1.0.0.tgz";
+
+    private final WireMockServer wiremock = new WireMockServer(options().dynamicPort());
+    private final WireMockServer otherRegistry = new WireMockServer(options().dynamicPort());
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void before() {
+        wiremock.start();
+        wiremock.stubFor(any(urlEqualTo(TARBALL_PATH))
+                .withHeader("Authorization", equalTo("Bearer token"))
+                .willReturn(aResponse().withBody(TARBALL)));
+        otherRegistry.start();
+    }
+
+    @AfterEach
+    void after() {
+        wiremock.stop();
+        otherRegistry.stop();
+    }
+
+    @Test
+    void downloads_verified_tarballs_once() throws IOException, InterruptedException {
+        TarballCache cache = new TarballCache(tempDir);
+
+        Path tarball = cache.getOrDownload(packageJson(wiremock, TARBALL), Optional.of("Bearer token"));
+        cache.getOrDownload(packageJson(wiremock, TARBALL), Optional.of("Bearer token"));
+
+        assertThat(tarball).hasBinaryContent(TARBALL);
+        wiremock.verify(exactly(1), getRequestedFor(urlEqualTo(TARBALL_PATH)));
+    }
+
+    @Test
+    void rejects_tarballs_not_matching_integrity() throws IOException {
+        TarballCache cache = new TarballCache(tempDir);
+        PackageJson packageJson = PackageJson.builder()
+                .from(packageJson(wiremock, TARBALL))
+                .dist(PackageJson.Dist.builder()
+                        .from(packageJson(wiremock, TARBALL).dist())
+                        .integrity(integrity(OTHER_TARBALL))
+                        .build())
+                .build();
+
+        assertThatThrownBy(() -> cache.getOrDownload(packageJson, Optional.of("Bearer token")))
+                .isInstanceOf(IOException.class);
+        try (Stream<Path> files = Files.walk(tempDir)) {
+            assertThat(files.filter(Files::isRegularFile)).isEmpty();
+        }
+    }
+
+    @Test
+    void does_not_serve_tarballs_of_other_registries_under_the_same_coordinates()
+            throws IOException, InterruptedException {
+        otherRegistry.stubFor(any(urlEqualTo(TARBALL_PATH)).willReturn(aResponse().withBody(OTHER_TARBALL)));
+        new TarballCache(tempDir).getOrDownload(packageJson(wiremock, TARBALL), Optional.of("Bearer token"));
+
+        Path tarball =
+                new TarballCache(tempDir).getOrDownload(packageJson(otherRegistry, OTHER_TARBALL), Optional.empty());
+
+        assertThat(tarball).hasBinaryContent(OTHER_TARBALL);
+        otherRegistry.verify(exactly(1), getRequestedFor(urlEqualTo(TARBALL_PATH)));
+    }
+
+    @Test
+    void asks_the_registry_before_serving_tarballs_downloaded_with_other_credentials()
+            throws IOException, InterruptedException {
+        otherRegistry.stubFor(any(urlEqualTo(TARBALL_PATH))
+                .withHeader("Authorization", equalTo("Bearer other"))
+                .willReturn(aResponse().withBody(TARBALL)));
+        otherRegistry.stubFor(any(urlEqualTo(TARBALL_PATH))
+                .withHeader("Authorization", equalTo("Bearer wrong"))
+                .willReturn(aResponse().withStatus(401)));
+        new TarballCache(tempDir).getOrDownload(packageJson(wiremock, TARBALL), Optional.of("Bearer token"));
+        TarballCache cache = new TarballCache(tempDir);
+
+        assertThatThrownBy(() -> cache.getOrDownload(packageJson(otherRegistry, TARBALL), Optional.of("Bearer wrong")))
+                .isInstanceOf(IOException.class);
+        assertThat(cache.getOrDownload(packageJson(otherRegistry, TARBALL), Optional.of("Bearer other")))
+                .hasBinaryContent(TARBALL);
+        cache.getOrDownload(packageJson(otherRegistry, TARBALL), Optional.of("Bearer other"));
+
+        otherRegistry.verify(exactly(0), getRequestedFor(urlEqualTo(TARBALL_PATH)));
+        otherRegistry.verify(
+                exactly(1),
+                headRequestedFor(urlEqualTo(TARBALL_PATH)).withHeader("Authorization", equalTo("Bearer other")));
+    }
+
+    @Test
+    void downloads_corrupted_tarballs_again() throws IOException, InterruptedException {
+        TarballCache cache = new TarballCache(tempDir);
+        Path tarball = cache.getOrDownload(packageJson(wiremock, TARBALL), Optional.of("Bearer token"));
+        Files.write(tarball, OTHER_TARBALL);
+
+        assertThat(cache.getOrDownload(packageJson(wiremock, TARBALL), Optional.of("Bearer token")))
+                .hasBinaryContent(TARBALL);
+        wiremock.verify(exactly(2), getRequestedFor(urlEqualTo(TARBALL_PATH)));
+    }
+
+    @SuppressWarnings("deprecation")
+    private static PackageJson packageJson(WireMockServer registry, byte[] contents) {
+        return PackageJson.builder()
+                .name("foo")
+                .version("1.0.0")
+                .dist(PackageJson.Dist.builder()
+                        .tarball(registry.baseUrl() + TARBALL_PATH)
+                        .shasum(Hashing.sha1().hashBytes(contents).toString())
+                        .integrity(integrity(contents))
+                        .build())
+                .build();
+    }
+
+    private static String integrity(byte[] contents) {
+        return "sha512-" + BaseEncoding.base64().encode(Hashing.sha512().hashBytes(contents).asBytes());
+    }
+}
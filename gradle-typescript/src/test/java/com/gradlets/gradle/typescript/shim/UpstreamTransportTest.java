@@ -0,0 +1,102 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.absent;
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.head;
+import static com.github.tomakehurst.wiremock.client.WireMock.temporaryRedirect;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.palantir.dialogue.Response;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class UpstreamTransportTest {
+    private final WireMockServer registry = new WireMockServer(options().dynamicPort());
+    private final WireMockServer cdn = new WireMockServer(options().dynamicPort());
+
+    @BeforeEach
+    void before() {
+        registry.start();
+        cdn.start();
+    }
+
+    @AfterEach
+    void after() {
+        registry.stop();
+        cdn.stop();
+    }
+
+    @Test
+    void shares_proxy_clients_per_registry() {
+        assertThat(UpstreamTransport.proxyClient(registry.baseUrl()))
+                .isSameAs(UpstreamTransport.proxyClient(registry.baseUrl()))
+                .isNotSameAs(UpstreamTransport.proxyClient(cdn.baseUrl()));
+    }
+
+    @Test
+    void fetches_files_by_their_raw_path_and_query() throws IOException {
+        registry.stubFor(get(urlEqualTo("/@scope/bar/-/bar-1.0.0.tgz?token=abc"))
+                .withHeader("Authorization", equalTo("Bearer token"))
+                .willReturn(aResponse().withBody("tarball")));
+
+        try (Response response = UpstreamTransport.fetchFile(
+                registry.baseUrl() + "/@scope/bar/-/bar-1.0.0.tgz?token=abc",
+                false,
+                Optional.of("Bearer token"))) {
+            assertThat(response.code()).isEqualTo(200);
+            assertThat(new String(response.body().readAllBytes(), StandardCharsets.UTF_8))
+                    .isEqualTo("tarball");
+        }
+    }
+
+    @Test
+    void requests_only_headers_of_files() throws IOException {
+        registry.stubFor(head(urlEqualTo("/foo/-/foo-1.0.0.tgz")).willReturn(aResponse().withStatus(401)));
+
+        try (Response response =
+                UpstreamTransport.fetchFile(registry.baseUrl() + "/foo/-/foo-1.0.0.tgz", true, Optional.empty())) {
+            assertThat(response.code()).isEqualTo(401);
+        }
+    }
+
+    @Test
+    void follows_redirects_without_leaking_credentials_to_other_hosts() throws IOException {
+        registry.stubFor(get(urlEqualTo("/foo/-/foo-1.0.0.tgz"))
+                .willReturn(temporaryRedirect(cdn.baseUrl() + "/blobs/foo-1.0.0.tgz")));
+        cdn.stubFor(get(urlEqualTo("/blobs/foo-1.0.0.tgz")).willReturn(aResponse().withBody("tarball")));
+
+        try (Response response = UpstreamTransport.fetchFile(
+                registry.baseUrl() + "/foo/-/foo-1.0.0.tgz", false, Optional.of("Bearer token"))) {
+            assertThat(response.code()).isEqualTo(200);
+        }
+        registry.verify(getRequestedFor(urlEqualTo("/foo/-/foo-1.0.0.tgz"))
+                .withHeader("Authorization", equalTo("Bearer token")));
+        cdn.verify(getRequestedFor(urlEqualTo("/blobs/foo-1.0.0.tgz")).withHeader("Authorization", absent()));
+    }
+}
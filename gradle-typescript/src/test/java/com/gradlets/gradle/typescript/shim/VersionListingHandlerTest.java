@@ -0,0 +1,40 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class VersionListingHandlerTest {
+
+    @Test
+    void lists_released_versions() {
+        assertThat(VersionListingHandler.createListing(Set.of("1.0.0", "1.1.0+build-1")))
+                .contains("<a href=\"1.0.0/\">1.0.0/</a>")
+                .contains("<a href=\"1.1.0+build-1/\">1.1.0+build-1/</a>");
+    }
+
+    @Test
+    void leaves_out_prereleases() {
+        assertThat(VersionListingHandler.createListing(Set.of("1.9.0", "1.9.1-beta.1", "2.0.0-rc.1+build.5")))
+                .contains("1.9.0/")
+                .doesNotContain("beta")
+                .doesNotContain("rc");
+    }
+}
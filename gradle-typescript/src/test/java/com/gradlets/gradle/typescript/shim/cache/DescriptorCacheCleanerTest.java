@@ -0,0 +1,109 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DescriptorCacheCleanerTest {
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void evicts_versions_unused_for_longer_than_max_age() throws IOException {
+        Path stale = version("foo/1.0.0", Duration.ofDays(40));
+        Path fresh = version("foo/2.0.0", Duration.ofDays(1));
+
+        assertThat(cleaner(Duration.ofDays(30), 0).clean()).isEqualTo(1);
+
+        assertThat(stale).doesNotExist();
+        assertThat(fresh).exists();
+    }
+
+    @Test
+    void evicts_least_recently_used_versions_beyond_budget() throws IOException {
+        Path oldest = version("foo/1.0.0", Duration.ofDays(3));
+        Path older = version("bar/1.0.0", Duration.ofDays(2));
+        Path old = version("baz/1.0.0", Duration.ofDays(1));
+
+        assertThat(cleaner(Duration.ZERO, 1).clean()).isEqualTo(2);
+
+        assertThat(oldest).doesNotExist();
+        assertThat(older).doesNotExist();
+        assertThat(old).exists();
+    }
+
+    @Test
+    void never_evicts_recently_used_versions() throws IOException {
+        version("foo/1.0.0", Duration.ofDays(1));
+        Path recent = version("bar/1.0.0", Duration.ofMinutes(5));
+        Path current = version("baz/1.0.0", Duration.ZERO);
+
+        assertThat(cleaner(Duration.ZERO, 1).clean()).isEqualTo(1);
+
+        assertThat(recent).exists();
+        assertThat(current).exists();
+    }
+
+    @Test
+    void removes_packages_and_scopes_without_versions() throws IOException {
+        version("@scope/foo/1.0.0", Duration.ofDays(40));
+        version("bar/1.0.0", Duration.ofDays(40));
+        Path segments = Files.createDirectories(tempDir.resolve("_segments"));
+        Files.setLastModifiedTime(segments, FileTime.from(Instant.now().minus(Duration.ofDays(40))));
+
+        assertThat(cleaner(Duration.ofDays(30), 0).clean()).isEqualTo(2);
+
+        assertThat(tempDir.resolve("@scope")).doesNotExist();
+        assertThat(tempDir.resolve("bar")).doesNotExist();
+        assertThat(segments).exists();
+    }
+
+    @Test
+    void reads_refresh_access_time() throws IOException {
+        Path versionDir = version("foo/1.0.0", Duration.ofDays(40));
+        NpmArtifactKey key =
+                NpmArtifactKey.builder().packageName("foo").version("1.0.0").build();
+
+        assertThat(new DirectoryDescriptorStore(tempDir).read(key, "descriptor.entry"))
+                .isPresent();
+
+        assertThat(cleaner(Duration.ofDays(30), 0).clean()).isZero();
+        assertThat(versionDir).exists();
+    }
+
+    private Path version(String path, Duration unusedFor) throws IOException {
+        Path versionDir = Files.createDirectories(tempDir.resolve(path));
+        Files.writeString(versionDir.resolve("descriptor.entry"), "contents");
+        Files.setLastModifiedTime(versionDir, FileTime.from(Instant.now().minus(unusedFor)));
+        return versionDir;
+    }
+
+    private DescriptorCacheCleaner cleaner(Duration maxAge, long maxEntries) {
+        return new DescriptorCacheCleaner(
+                List.of(tempDir), tempDir.resolve("cleanup.lock"), maxAge, maxEntries, 0);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import com.google.common.io.RecursiveDeleteOption;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DescriptorCacheTest {
+    private static final String REGISTRY = "https://registry.npmjs.org/";
+    private static final NpmArtifactKey KEY =
+            NpmArtifactKey.builder().packageName("foo").version("1.0.0").build();
+    @SuppressWarnings("deprecation")
+    private static final String SHA1 = Hashing.sha1()
+            .hashString("<ivy-module/>", StandardCharsets.UTF_8)
+            .toString();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void serves_stored_descriptors_from_memory() throws IOException {
+        DescriptorCache cache = new DescriptorCache(tempDir, REGISTRY, 1024, 10, Duration.ofMinutes(10));
+        cache.storeMetadata(descriptor());
+        MoreFiles.deleteRecursively(tempDir.resolve("foo"), RecursiveDeleteOption.ALLOW_INSECURE);
+
+        assertThat(cache.getMetadata(KEY)).hasValueSatisfying(cached -> {
+            assertThat(cached.ivyDescriptor().get()).isEqualTo("<ivy-module/>");
+            assertThat(cached.ivySha1Checksum().get()).isEqualTo(SHA1);
+        });
+    }
+
+    @Test
+    void reads_descriptors_stored_by_other_processes() {
+        new DescriptorCache(tempDir, REGISTRY, 1024, 10, Duration.ofMinutes(10)).storeMetadata(descriptor());
+
+        assertThat(new DescriptorCache(tempDir, REGISTRY, 1024, 10, Duration.ofMinutes(10)).getMetadata(KEY))
+                .hasValueSatisfying(cached ->
+                        assertThat(cached.ivyDescriptor().get()).isEqualTo("<ivy-module/>"));
+    }
+
+    @Test
+    void ignores_entries_with_mismatched_checksums() throws IOException {
+        new DescriptorCache(tempDir, REGISTRY, 1024, 10, Duration.ofMinutes(10)).storeMetadata(descriptor());
+        Files.writeString(tempDir.resolve("foo/1.0.0/descriptor.entry"), SHA1 + "\n<ivy-mod");
+
+        assertThat(new DescriptorCache(tempDir, REGISTRY, 1024, 10, Duration.ofMinutes(10)).getMetadata(KEY))
+                .isEmpty();
+    }
+
+    @Test
+    void reads_and_migrates_legacy_entries() throws IOException {
+        Path legacyDir = Files.createDirectories(tempDir.resolve("foo/1.0.0"));
+        Files.writeString(legacyDir.resolve("descriptor.ivy"), "<ivy-module/>");
+        Files.writeString(legacyDir.resolve("descriptor.ivy.sha1"), SHA1);
+
+        assertThat(new DescriptorCache(tempDir, REGISTRY, 1024, 10, Duration.ofMinutes(10)).getMetadata(KEY))
+                .hasValueSatisfying(cached ->
+                        assertThat(cached.ivyDescriptor().get()).isEqualTo("<ivy-module/>"));
+        assertThat(legacyDir.resolve("descriptor.entry")).hasContent(SHA1 + "\n<ivy-module/>");
+    }
+
+    @Test
+    void remembers_missing_packages() {
+        DescriptorCache cache = new DescriptorCache(tempDir, REGISTRY, 1024, 10, Duration.ofMinutes(10));
+        assertThat(cache.isNotFound(KEY)).isFalse();
+
+        cache.storeNotFound(KEY);
+
+        assertThat(cache.isNotFound(KEY)).isTrue();
+        assertThat(cache.getMetadata(KEY)).isEmpty();
+    }
+
+    @Test
+    void remembers_missing_packages_across_instances_of_the_same_registry() {
+        new DescriptorCache(tempDir, REGISTRY, 1024, 10, Duration.ofMinutes(10)).storeNotFound(KEY);
+
+        assertThat(new DescriptorCache(tempDir, REGISTRY, 1024, 10, Duration.ofMinutes(10)).isNotFound(KEY))
+                .isTrue();
+    }
+
+    @Test
+    void keeps_missing_packages_to_the_registry_they_are_missing_from() {
+        new DescriptorCache(tempDir, REGISTRY, 1024, 10, Duration.ofMinutes(10)).storeNotFound(KEY);
+
+        assertThat(new DescriptorCache(tempDir, "https://npm.internal/", 1024, 10, Duration.ofMinutes(10))
+                        .isNotFound(KEY))
+                .isFalse();
+    }
+
+    @Test
+    void forgets_missing_packages_once_expired() throws InterruptedException {
+        DescriptorCache cache = new DescriptorCache(tempDir, REGISTRY, 1024, 10, Duration.ofMillis(50));
+        cache.storeNotFound(KEY);
+        Thread.sleep(100);
+
+        assertThat(cache.isNotFound(KEY)).isFalse();
+    }
+
+    @Test
+    void forgets_missing_packages_once_stored() {
+        DescriptorCache cache = new DescriptorCache(tempDir, REGISTRY, 1024, 10, Duration.ofMinutes(10));
+        cache.storeNotFound(KEY);
+        cache.storeMetadata(descriptor());
+
+        assertThat(cache.isNotFound(KEY)).isFalse();
+    }
+
+    private static CachedDescriptor descriptor() {
+        return CachedDescriptor.builder()
+                .cacheKey(KEY)
+                .ivyDescriptor(() -> "<ivy-module/>")
+                .ivySha1Checksum(() -> SHA1)
+                .build();
+    }
+}
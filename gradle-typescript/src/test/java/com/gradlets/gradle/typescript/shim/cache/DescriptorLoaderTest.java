@@ -0,0 +1,128 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim.cache;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.exactly;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.gradlets.gradle.typescript.shim.PackageJsonLoader;
+import com.gradlets.gradle.typescript.shim.ShimMetrics;
+import com.gradlets.gradle.typescript.shim.clients.PackageJson;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class DescriptorLoaderTest {
+    private static final int CONCURRENT_REQUESTS = 8;
+
+    private final WireMockServer wiremock = new WireMockServer(options().dynamicPort());
+    private final ExecutorService executor = Executors.newFixedThreadPool(CONCURRENT_REQUESTS);
+
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    void before() {
+        wiremock.start();
+        // Slow enough for every request to arrive while the first one is still loading
+        wiremock.stubFor(get(urlEqualTo("/foo/1.0.0"))
+                .willReturn(aResponse()
+                        .withFixedDelay(500)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"name\":\"foo\",\"version\":\"1.0.0\","
+                                + "\"dist\":{\"tarball\":\"http://localhost/foo/-/foo-1.0.0.tgz\","
+                                + "\"shasum\":\"abc\"}}")));
+    }
+
+    @AfterEach
+    void after() {
+        executor.shutdownNow();
+        wiremock.stop();
+    }
+
+    @Test
+    void loads_concurrently_requested_descriptors_once() throws Exception {
+        DescriptorLoader loader = loader(packageJson -> "<ivy-module/>");
+
+        for (Future<CachedDescriptor> descriptor : requestConcurrently(loader)) {
+            assertThat(descriptor.get().ivyDescriptor().get()).isEqualTo("<ivy-module/>");
+        }
+        wiremock.verify(exactly(1), getRequestedFor(urlEqualTo("/foo/1.0.0")));
+    }
+
+    @Test
+    void fails_waiters_when_loading_throws_an_error() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        DescriptorLoader loader = loader(packageJson -> {
+            if (attempts.getAndIncrement() == 0) {
+                throw new AssertionError("Failed to create descriptor");
+            }
+            return "<ivy-module/>";
+        });
+
+        for (Future<CachedDescriptor> descriptor : requestConcurrently(loader)) {
+            assertThatThrownBy(() -> descriptor.get(10, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(AssertionError.class);
+        }
+        // The failed load is forgotten, later requests try again
+        assertThat(loader.getIvyDescriptor("foo", "1.0.0").ivyDescriptor().get())
+                .isEqualTo("<ivy-module/>");
+    }
+
+    private DescriptorLoader loader(Function<PackageJson, String> factory) {
+        ShimMetrics metrics = new ShimMetrics();
+        return new DescriptorLoader(
+                new DescriptorCache(tempDir, "http://registry/", 1024 * 1024, 100, Duration.ofMinutes(10)),
+                new PackageJsonLoader(wiremock.baseUrl(), metrics),
+                factory,
+                metrics);
+    }
+
+    private List<Future<CachedDescriptor>> requestConcurrently(DescriptorLoader loader) {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<CachedDescriptor>> descriptors = new ArrayList<>();
+        for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+            descriptors.add(executor.submit(() -> {
+                start.await();
+                return loader.getIvyDescriptor("foo", "1.0.0");
+            }));
+        }
+        start.countDown();
+        return descriptors;
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.gradlets.gradle.typescript.ObjectMappers;
+import com.gradlets.gradle.typescript.shim.clients.PackageJson;
+import com.gradlets.gradle.typescript.shim.clients.PackageJson.Dist;
+import java.io.IOException;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+class GradleModuleMetadataTest {
+    private static final PackageJson PACKAGE_JSON = PackageJson.builder()
+            .name("@scope/foo")
+            .version("1.0.0")
+            .putDependencies("bar", "^1.0.0")
+            .putPeerDependencies("react", "^16.8.0 || ^17.0.0")
+            .putOptionalDependencies("fsevents", "~2.3.2")
+            .types("lib/index.d.ts")
+            .dist(Dist.builder().shasum("abc").tarball("").build())
+            .build();
+
+    @Test
+    void converts_package_json() throws IOException {
+        JsonNode metadata = createMetadata(false);
+
+        assertThat(metadata.at("/formatVersion").asText()).isEqualTo("1.1");
+        assertThat(metadata.at("/component/module").asText()).isEqualTo("scope/foo");
+        assertThat(metadata.at("/component/version").asText()).isEqualTo("1.0.0");
+
+        JsonNode variant = metadata.at("/variants/0");
+        assertThat(variant.at("/attributes/org.gradle.usage").asText()).isEqualTo("typescript-api");
+        assertThat(variant.at("/attributes/com.gradlets.npm.types").asText()).isEqualTo("lib/index.d.ts");
+        assertThat(variant.at("/dependencies/0/module").asText()).isEqualTo("bar");
+        assertThat(variant.at("/dependencies/0/version/requires").asText()).isEqualTo("1.0.0");
+        assertThat(variant.at("/dependencyConstraints/0/module").asText()).isEqualTo("react");
+        assertThat(variant.at("/dependencyConstraints/0/version/prefers").asText()).isEqualTo("17.0.0");
+        assertThat(variant.at("/dependencyConstraints/0/version/requires").isMissingNode())
+                .isTrue();
+        assertThat(variant.at("/dependencyConstraints/1/module").asText()).isEqualTo("fsevents");
+        assertThat(variant.at("/dependencyConstraints/1/version/prefers").asText()).isEqualTo("2.3.2");
+        assertThat(variant.at("/files/0/name").asText()).isEqualTo("foo-1.0.0.tgz");
+        assertThat(variant.at("/files/0/url").asText()).isEqualTo("../-/scope/foo-1.0.0.tgz");
+    }
+
+    @Test
+    void translates_ranges() throws IOException {
+        JsonNode metadata = createMetadata(true);
+
+        assertThat(metadata.at("/variants/0/dependencies/0/version/requires").asText())
+                .isEqualTo("[1.0.0,2.0.0)");
+        // Gradle ranges can't express alternatives, requiring one of them would force an upgrade
+        assertThat(metadata.at("/variants/0/dependencyConstraints/0/version/requires").isMissingNode())
+                .isTrue();
+        assertThat(metadata.at("/variants/0/dependencyConstraints/0/version/prefers").asText())
+                .isEqualTo("17.0.0");
+        assertThat(metadata.at("/variants/0/dependencyConstraints/1/version/requires").asText())
+                .isEqualTo("[2.3.2,2.4.0)");
+    }
+
+    @Test
+    void leaves_out_versions_of_constraints_without_lower_bound() throws IOException {
+        PackageJson packageJson = PackageJson.builder()
+                .from(PACKAGE_JSON)
+                .peerDependencies(Map.of("typescript", "*"))
+                .build();
+
+        JsonNode metadata =
+                ObjectMappers.MAPPER.readTree(GradleModuleMetadata.createDescriptor("npm", packageJson, false));
+
+        assertThat(metadata.at("/variants/0/dependencyConstraints/0/module").asText())
+                .isEqualTo("typescript");
+        assertThat(metadata.at("/variants/0/dependencyConstraints/0/version").isMissingNode())
+                .isTrue();
+    }
+
+    @Test
+    void reads_typings_as_types() throws IOException {
+        PackageJson packageJson = ObjectMappers.MAPPER.readValue(
+                "{\"name\":\"foo\",\"version\":\"1.0.0\",\"typings\":\"index.d.ts\","
+                        + "\"dist\":{\"shasum\":\"abc\",\"tarball\":\"\"}}",
+                PackageJson.class);
+
+        assertThat(packageJson.types()).hasValue("index.d.ts");
+    }
+
+    private static JsonNode createMetadata(boolean versionRanges) throws IOException {
+        return ObjectMappers.MAPPER.readTree(GradleModuleMetadata.createDescriptor("npm", PACKAGE_JSON, versionRanges));
+    }
+}
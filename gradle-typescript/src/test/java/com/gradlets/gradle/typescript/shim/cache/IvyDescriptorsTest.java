@@ -17,10 +17,14 @@
 package com.gradlets.gradle.typescript.shim.cache;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 import com.gradlets.gradle.typescript.shim.clients.PackageJson;
 import com.gradlets.gradle.typescript.shim.clients.PackageJson.Dist;
+import com.palantir.logsafe.exceptions.SafeIllegalArgumentException;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvFileSource;
 
 class IvyDescriptorsTest {
 
@@ -59,4 +63,61 @@ class IvyDescriptorsTest {
         assertThat(IvyDescriptors.sanitizeConstraint("= 0.1.1")).isEqualTo("0.1.1");
         assertThat(IvyDescriptors.sanitizeConstraint("^7.0.0-beta.35")).isEqualTo("7.0.0-beta.35");
     }
+
+    @Test
+    void sanitizesRanges() {
+        assertThat(IvyDescriptors.sanitizeConstraint("^1.0.0 || ^2.0.0")).isEqualTo("2.0.0");
+        assertThat(IvyDescriptors.sanitizeConstraint("1.2.3 - 2.3.4")).isEqualTo("1.2.3");
+        assertThat(IvyDescriptors.sanitizeConstraint("1.x")).isEqualTo("1.0");
+        assertThat(IvyDescriptors.sanitizeConstraint(">=1.0.0-rc.2 || >=1.0.0-rc.10")).isEqualTo("1.0.0-rc.10");
+        assertThat(IvyDescriptors.sanitizeConstraint("latest")).isEqualTo("latest");
+    }
+
+    @Test
+    void keepsConstraintsWithoutLowerBound() {
+        assertThat(IvyDescriptors.sanitizeConstraint("*")).isEqualTo("*");
+        assertThat(IvyDescriptors.sanitizeConstraint("x")).isEqualTo("x");
+        assertThat(IvyDescriptors.sanitizeConstraint("<2.0.0")).isEqualTo("<2.0.0");
+    }
+
+    @Test
+    void pinsLowestVersionAbovePartials() {
+        assertThat(IvyDescriptors.sanitizeConstraint(">1.2")).isEqualTo("1.3.0");
+        assertThat(IvyDescriptors.sanitizeConstraint(">1")).isEqualTo("2.0.0");
+    }
+
+    @Test
+    void rejectsExclusiveLowerBounds() {
+        assertThatThrownBy(() -> IvyDescriptors.sanitizeConstraint(">1.2.3"))
+                .isInstanceOf(SafeIllegalArgumentException.class);
+        assertThatThrownBy(() -> IvyDescriptors.sanitizeConstraint(""))
+                .isInstanceOf(SafeIllegalArgumentException.class);
+    }
+
+    @ParameterizedTest
+    @CsvFileSource(files = "src/test/npm-range-corpus.csv")
+    void translatesRanges(String range, String gradleRange) {
+        assertThat(IvyDescriptors.translateConstraint(range)).isEqualTo(gradleRange);
+    }
+
+    @Test
+    void translatesRangesNamingPrereleases() {
+        assertThat(IvyDescriptors.translateConstraint("^1.1.0")).isEqualTo("[1.1.0,2.0.0)");
+        assertThat(IvyDescriptors.translateConstraint(">=2.0.0-rc.1 <3.0.0")).isEqualTo("[2.0.0-rc.1,3.0.0)");
+        assertThat(IvyDescriptors.translateConstraint("^16.0.0-0")).isEqualTo("[16.0.0-0,17.0.0)");
+        assertThat(IvyDescriptors.translateConstraint(">=2.0.0-rc.1 <2.0.0")).isEqualTo("2.0.0-rc.1");
+        assertThat(IvyDescriptors.translateConstraint("2.0.0-rc.1 - 2.0.0-rc.5")).isEqualTo("2.0.0-rc.1");
+    }
+
+    @Test
+    void writesVersionRanges() {
+        PackageJson packageJson = PackageJson.builder()
+                .name("foo")
+                .version("1.0.0")
+                .putDependencies("bar", "^1.0.0")
+                .dist(Dist.builder().shasum("").tarball("").build())
+                .build();
+        assertThat(IvyDescriptors.createDescriptor("npm", packageJson, true))
+                .contains("<dependency org=\"npm\" name=\"bar\" rev=\"[1.0.0,2.0.0)\" conf=\"default\"/>");
+    }
 }
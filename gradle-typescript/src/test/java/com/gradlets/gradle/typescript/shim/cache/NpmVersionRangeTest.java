@@ -0,0 +1,89 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import com.gradlets.gradle.typescript.shim.cache.NpmVersionRange.Interval;
+import java.util.List;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.Test;
+
+class NpmVersionRangeTest {
+
+    @Test
+    void parses_comparators() {
+        assertThat(parse("1.0.0")).isEqualTo("[1.0.0,1.0.0]");
+        assertThat(parse("^1.2.3")).isEqualTo("[1.2.3,2.0.0)");
+        assertThat(parse("^0.2.3")).isEqualTo("[0.2.3,0.3.0)");
+        assertThat(parse("^0.0.3")).isEqualTo("[0.0.3,0.0.4)");
+        assertThat(parse("~1.2.3")).isEqualTo("[1.2.3,1.3.0)");
+        assertThat(parse(">= 0.3.2 < 0.4.0")).isEqualTo("[0.3.2,0.4.0)");
+        assertThat(parse(">1.0.0 <=1.5")).isEqualTo("(1.0.0,1.6.0)");
+        assertThat(parse("<2.0.0")).isEqualTo("(,2.0.0)");
+    }
+
+    @Test
+    void excludes_everything_partials_match() {
+        assertThat(parse(">1.2.3")).isEqualTo("(1.2.3,)");
+        assertThat(parse(">1.2")).isEqualTo("[1.3.0,)");
+        assertThat(parse(">1")).isEqualTo("[2.0.0,)");
+        assertThat(parse(">1.x <3")).isEqualTo("[2.0.0,3)");
+        assertThat(parse("<1.2")).isEqualTo("(,1.2)");
+    }
+
+    @Test
+    void parses_x_ranges() {
+        assertThat(parse("1")).isEqualTo("[1,2.0.0)");
+        assertThat(parse("1.x")).isEqualTo("[1.0,2.0.0)");
+        assertThat(parse("1.2.*")).isEqualTo("[1.2.0,1.3.0)");
+        assertThat(parse("*")).isEqualTo("(,)");
+        assertThat(parse("")).isEqualTo("(,)");
+    }
+
+    @Test
+    void parses_hyphen_ranges_and_alternatives() {
+        assertThat(parse("1.2.3 - 2.3.4")).isEqualTo("[1.2.3,2.3.4]");
+        assertThat(parse("1.2 - 2")).isEqualTo("[1.2,3.0.0)");
+        assertThat(parse("^1.0.0 || ^2.0.0")).isEqualTo("[1.0.0,2.0.0) [2.0.0,3.0.0)");
+    }
+
+    @Test
+    void parses_prereleases() {
+        assertThat(parse("^7.0.0-beta.35")).isEqualTo("[7.0.0-beta.35,8.0.0)");
+        assertThat(parse(">=1.0.0-rc.1 <2.0.0")).isEqualTo("[1.0.0-rc.1,2.0.0)");
+        assertThat(parse("1.0.0+build.1")).isEqualTo("[1.0.0,1.0.0]");
+    }
+
+    @Test
+    void rejects_non_ranges() {
+        assertThat(NpmVersionRange.parse("latest")).isEmpty();
+        assertThat(NpmVersionRange.parse("file:../foo")).isEmpty();
+        assertThat(NpmVersionRange.parse("npm:bar@1")).isEmpty();
+    }
+
+    private static String parse(String range) {
+        List<Interval> intervals = NpmVersionRange.parse(range).orElseThrow();
+        return intervals.stream()
+                .map(interval -> (interval.lowerInclusive() ? "[" : "(")
+                        + interval.lower().map(Object::toString).orElse("")
+                        + ","
+                        + interval.upper().map(Object::toString).orElse("")
+                        + (interval.upperInclusive() ? "]" : ")"))
+                .collect(Collectors.joining(" "));
+    }
+}
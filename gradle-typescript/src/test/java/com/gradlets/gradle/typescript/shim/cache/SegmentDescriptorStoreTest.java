@@ -0,0 +1,144 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim.cache;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SegmentDescriptorStoreTest {
+    private static final NpmArtifactKey KEY =
+            NpmArtifactKey.builder().packageName("foo").version("1.0.0").build();
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void reads_written_files() {
+        SegmentDescriptorStore store = open();
+        store.write(KEY, "descriptor.entry", "first");
+        store.write(KEY, "descriptor.entry", "second");
+
+        assertThat(store.read(KEY, "descriptor.entry")).hasValue("second");
+        assertThat(store.read(KEY, "not-found")).isEmpty();
+    }
+
+    @Test
+    void reads_files_written_by_other_stores() {
+        SegmentDescriptorStore reader = open();
+        assertThat(reader.read(KEY, "descriptor.entry")).isEmpty();
+
+        open().write(KEY, "descriptor.entry", "contents");
+
+        assertThat(reader.read(KEY, "descriptor.entry")).hasValue("contents");
+    }
+
+    @Test
+    void deletes_files() {
+        SegmentDescriptorStore store = open();
+        store.write(KEY, "not-found", "123");
+        store.delete(KEY, "not-found");
+
+        assertThat(store.read(KEY, "not-found")).isEmpty();
+        assertThat(open().read(KEY, "not-found")).isEmpty();
+    }
+
+    @Test
+    void migrates_files_from_the_directory_layout() throws IOException {
+        Path versionDir = Files.createDirectories(tempDir.resolve("foo/1.0.0"));
+        Files.writeString(versionDir.resolve("descriptor.entry"), "contents");
+        Path scopedDir = Files.createDirectories(tempDir.resolve("@scope/bar/2.0.0"));
+        Files.writeString(scopedDir.resolve("descriptor.entry"), "scoped");
+
+        SegmentDescriptorStore store = open();
+
+        assertThat(store.read(KEY, "descriptor.entry")).hasValue("contents");
+        assertThat(store.read(
+                        NpmArtifactKey.builder()
+                                .packageName("@scope/bar")
+                                .version("2.0.0")
+                                .build(),
+                        "descriptor.entry"))
+                .hasValue("scoped");
+        assertThat(tempDir.resolve("foo")).doesNotExist();
+        assertThat(tempDir.resolve("@scope")).doesNotExist();
+    }
+
+    @Test
+    void only_migrates_once() throws IOException {
+        open();
+        Path versionDir = Files.createDirectories(tempDir.resolve("foo/1.0.0"));
+        Files.writeString(versionDir.resolve("descriptor.entry"), "contents");
+
+        // Misses are answered by the segment alone
+        assertThat(open().read(KEY, "descriptor.entry")).isEmpty();
+    }
+
+    @Test
+    void ignores_torn_records() throws IOException {
+        open().write(KEY, "descriptor.entry", "contents");
+        Path segment = tempDir.resolve("_segments/descriptors.segment");
+        Files.write(segment, new byte[] {0x4e, 0x50}, StandardOpenOption.APPEND);
+
+        SegmentDescriptorStore store = open();
+        assertThat(store.read(KEY, "descriptor.entry")).hasValue("contents");
+        store.write(KEY, "not-found", "123");
+        assertThat(open().read(KEY, "not-found")).hasValue("123");
+    }
+
+    @Test
+    void compacts_superseded_records() throws IOException {
+        SegmentDescriptorStore store = open();
+        SegmentDescriptorStore reader = open();
+        for (int i = 0; i < 100; i++) {
+            store.write(KEY, "descriptor.entry", "contents-" + i);
+        }
+        assertThat(reader.read(KEY, "descriptor.entry")).hasValue("contents-99");
+        long size = store.size();
+
+        store.compact();
+
+        assertThat(store.size()).isLessThan(size);
+        assertThat(store.read(KEY, "descriptor.entry")).hasValue("contents-99");
+        store.write(KEY, "not-found", "123");
+        assertThat(reader.read(KEY, "not-found")).hasValue("123");
+    }
+
+    @Test
+    void rolls_over_to_an_empty_segment_once_full() throws IOException {
+        SegmentDescriptorStore store = SegmentDescriptorStore.open(
+                tempDir.resolve("_segments/descriptors.segment"), new DirectoryDescriptorStore(tempDir), 256);
+        NpmArtifactKey other = NpmArtifactKey.builder().packageName("bar").version("1.0.0").build();
+        store.write(KEY, "descriptor.entry", "a".repeat(150));
+
+        store.write(other, "descriptor.entry", "b".repeat(150));
+
+        assertThat(store.size()).isLessThanOrEqualTo(256);
+        assertThat(store.read(KEY, "descriptor.entry")).isEmpty();
+        assertThat(store.read(other, "descriptor.entry")).hasValue("b".repeat(150));
+    }
+
+    private SegmentDescriptorStore open() {
+        return SegmentDescriptorStore.open(
+                tempDir.resolve("_segments/descriptors.segment"), new DirectoryDescriptorStore(tempDir));
+    }
+}
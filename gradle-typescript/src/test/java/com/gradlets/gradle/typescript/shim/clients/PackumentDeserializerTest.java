@@ -0,0 +1,101 @@
+/*
+ * (c) Copyright 2021 Felipe Orozco, Robert Kruszewski. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.gradlets.gradle.typescript.shim.clients;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
+import com.palantir.conjure.java.api.errors.UnknownRemoteException;
+import com.palantir.dialogue.Response;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+class PackumentDeserializerTest {
+    @Test
+    void reads_packuments_and_their_validators() {
+        PackumentResponse response = PackumentDeserializer.INSTANCE.deserialize(new TestResponse(
+                200,
+                ImmutableListMultimap.of("ETag", "\"v1\"", "Last-Modified", "Mon, 05 Jun 2023 10:00:00 GMT"),
+                "{\"name\":\"foo\",\"modified\":\"2023-06-05T10:00:00Z\",\"versions\":{\"1.0.0\":{\"name\":\"foo\","
+                        + "\"version\":\"1.0.0\",\"dist\":{\"tarball\":\"http://localhost/foo.tgz\","
+                        + "\"shasum\":\"abc\"}}}}"));
+
+        assertThat(response.etag()).hasValue("\"v1\"");
+        assertThat(response.lastModified()).hasValue("Mon, 05 Jun 2023 10:00:00 GMT");
+        assertThat(response.packument()).hasValueSatisfying(packument -> assertThat(packument.versions())
+                .containsOnlyKeys("1.0.0"));
+    }
+
+    @Test
+    void reads_not_modified_responses_without_a_packument() {
+        PackumentResponse response = PackumentDeserializer.INSTANCE.deserialize(
+                new TestResponse(304, ImmutableListMultimap.of("ETag", "\"v2\""), ""));
+
+        assertThat(response.packument()).isEmpty();
+        assertThat(response.etag()).hasValue("\"v2\"");
+    }
+
+    @Test
+    void fails_on_errors() {
+        assertThatThrownBy(() -> PackumentDeserializer.INSTANCE.deserialize(
+                        new TestResponse(404, ImmutableListMultimap.of(), "{\"error\":\"Not found\"}")))
+                .isInstanceOfSatisfying(
+                        UnknownRemoteException.class, e -> assertThat(e.getStatus()).isEqualTo(404));
+    }
+
+    @Test
+    void accepts_abbreviated_packuments() {
+        assertThat(PackumentDeserializer.INSTANCE.accepts()).hasValue("application/vnd.npm.install-v1+json");
+    }
+
+    private static final class TestResponse implements Response {
+        private final int code;
+        private final ListMultimap<String, String> headers;
+        private final InputStream body;
+
+        TestResponse(int code, ListMultimap<String, String> headers, String body) {
+            this.code = code;
+            this.headers = MultimapBuilder.treeKeys(String.CASE_INSENSITIVE_ORDER)
+                    .arrayListValues()
+                    .build(headers);
+            this.body = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public InputStream body() {
+            return body;
+        }
+
+        @Override
+        public int code() {
+            return code;
+        }
+
+        @Override
+        public ListMultimap<String, String> headers() {
+            return headers;
+        }
+
+        @Override
+        public void close() {}
+    }
+}